@@ -189,6 +189,7 @@ public class Andie {
         // The main content area is an ImagePanel
         imagePanel = new ImagePanel();
         ImageAction.setTarget(imagePanel);
+        imagePanel.getImage().addImageChangeListener(e -> redrawTitle());
         JScrollPane scrollPane = new JScrollPane(imagePanel);
         frame.add(scrollPane, BorderLayout.CENTER);
 
@@ -302,6 +303,19 @@ public class Andie {
         redrawMenuBar();
         redrawDrawPanel();
         redrawToolbar();
+        redrawTitle();
+    }
+
+    /**
+     * <p>
+     * Show in the title of the window whether the image being edited is a smaller copy of an image that was too large to open
+     * (see {@link EditableImage#isOverview()}), and how much smaller it is.
+     * </p>
+     */
+    public static void redrawTitle() {
+        EditableImage image = imagePanel.getImage();
+        if (image.isOverview()) frame.setTitle(Language.getWord("OVERVIEW_TITLE") + " 1:" + image.getOverviewFactor());
+        else frame.setTitle("ANDIE");
     }
 
     /**
@@ -1,11 +1,11 @@
 package cosc202.andie;
 
-import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.*;
+import java.util.Arrays;
 
 
 
@@ -19,7 +19,23 @@ import java.awt.image.*;
  * </p>
  * 
  * <p>
- * If a pixel is at the edge of an image, i.e. the convolution would be looking for surrounding pixel values outside of the image, the nearest pixel value is taken instead.
+ * Kernels that are the product of a horizontal and a vertical kernel (e.g. Gaussian and mean blurs) can be given as the two separate kernels instead.
+ * The image is then convolved along the rows and then along the columns, which is much faster for large kernels.
+ * </p>
+ * 
+ * <p>
+ * If a pixel is at the edge of an image, i.e. the convolution would be looking for surrounding pixel values outside of the image,
+ * the two kinds of kernel handle it differently:
+ * </p>
+ * <ul>
+ * <li>A separable kernel takes the nearest pixel on the edge of the image instead, clamping the row and column of each
+ * kernel entry into the image separately.</li>
+ * <li>A 2D kernel (e.g. sharpen, emboss and Sobel) takes the pixel in the same row as the one being convolved if the kernel entry
+ * is above or below the image, or in the same column if it is to the left or right of it. Entries outside of a corner of the image
+ * take the pixel being convolved on the left, and the corner pixel itself on the right.</li>
+ * </ul>
+ * <p>
+ * So blurring with a separable kernel gives a different result within its radius of the edge than blurring with the equivalent 2D kernel.
  * </p>
  * 
  * @author Abby Fernandes
@@ -31,6 +47,9 @@ public class AndieConvolveOp implements BufferedImageOp{
     private boolean offset;
     private int midVal = 127;
 
+    /** The horizontal and vertical kernels of a separable convolution, or null if the kernel is not separable. */
+    private float[] rowKernel, columnKernel;
+
 
     /** 
      * <p>
@@ -40,7 +59,7 @@ public class AndieConvolveOp implements BufferedImageOp{
      * @param kernel The given {@code kernel}.
      * @see Kernel
      */
-    AndieConvolveOp(Kernel kernel){
+    public AndieConvolveOp(Kernel kernel){
         this(kernel, false);
     }
 
@@ -53,11 +72,66 @@ public class AndieConvolveOp implements BufferedImageOp{
      * @param offset Whether the pixel values should be offset. 
      * @see Kernel
      */
-    AndieConvolveOp(Kernel kernel, boolean offset){
+    public AndieConvolveOp(Kernel kernel, boolean offset){
         this.kernel = kernel;
         this.offset = offset;
     }
 
+    /** 
+     * <p>
+     * Construct a separable AndieConvolveOp from a horizontal and a vertical kernel.
+     * </p>
+     * 
+     * <p>
+     * The result is the same as convolving with the 2D kernel whose entries are {@code columnKernel[y] * rowKernel[x]},
+     * but only takes {@code O(r)} work per pixel rather than {@code O(r^2)}: the image is convolved with
+     * {@code rowKernel} along each row, and the result is then convolved with {@code columnKernel} along each column.
+     * Pixels outside of the image take the value of the nearest pixel on its edge, which is not what the 2D kernel
+     * does within its radius of the edge (see the class documentation).
+     * </p>
+     * 
+     * @param rowKernel The horizontal kernel, which must have an odd length.
+     * @param columnKernel The vertical kernel, which must have an odd length.
+     * @param offset Whether the pixel values should be offset. 
+     * @throws IllegalArgumentException if either kernel has an even length.
+     */
+    public AndieConvolveOp(float[] rowKernel, float[] columnKernel, boolean offset){
+        if(rowKernel.length % 2 == 0 || columnKernel.length % 2 == 0) throw new IllegalArgumentException("Separable kernels must have an odd length");
+        this.rowKernel = rowKernel.clone();
+        this.columnKernel = columnKernel.clone();
+        this.offset = offset;
+
+        float[] data = new float[rowKernel.length * columnKernel.length];
+        for(int y = 0; y < columnKernel.length; y++){
+            for(int x = 0; x < rowKernel.length; x++) data[y * rowKernel.length + x] = columnKernel[y] * rowKernel[x];
+        }
+        this.kernel = new Kernel(rowKernel.length, columnKernel.length, data);
+    }
+
+    /** 
+     * <p>
+     * Construct a separable AndieConvolveOp from a horizontal and a vertical kernel.
+     * </p>
+     * 
+     * @param rowKernel The horizontal kernel, which must have an odd length.
+     * @param columnKernel The vertical kernel, which must have an odd length.
+     * @see #AndieConvolveOp(float[], float[], boolean)
+     */
+    public AndieConvolveOp(float[] rowKernel, float[] columnKernel){
+        this(rowKernel, columnKernel, false);
+    }
+
+    /**
+     * <p>
+     * Check whether this operation convolves separately along the rows and columns of the image.
+     * </p>
+     * 
+     * @return True if this operation was constructed from a horizontal and a vertical kernel.
+     */
+    public boolean isSeparable(){
+        return rowKernel != null;
+    }
+
     /**
      * <p>
      * Performs a convolution on a {@code BufferedImage}, outputting the results to the given destination {@code BufferedImage}.
@@ -107,26 +181,85 @@ public class AndieConvolveOp implements BufferedImageOp{
         int width = src.getWidth();        
         boolean alpha = src.getColorModel().hasAlpha();
         
-        // Create arrays for the pixel value inputs and outputs
-        int[] srcPixels = new int[height*width];
-        int[] dstPixels = new int[height*width];
+        // Get the pixel values of src and dst, which are only copies if the images are not stored as packed ARGB values
+        int[] srcPixels = PixelAccess.getPixels(src);
+        int[] dstPixels = PixelAccess.getPixels(dst);
 
-        // Get pixel values from src and put into srcPixels array
-        src.getRGB(0, 0, width, height, srcPixels, 0, width);
+        // Pixels outside of the selection are left as they are
+        System.arraycopy(srcPixels, 0, dstPixels, 0, srcPixels.length);
 
-        convolve(srcPixels, dstPixels, startX, startY, endX, endY, width, height, alpha);
+        Rectangle region = new Rectangle(0, 0, width, height).intersection(new Rectangle(startX, startY, endX - startX + 1, endY - startY + 1));
+        convolveRegion(srcPixels, dstPixels, region, width, height, alpha);
         
         // Set dst pixel values from dstPixels array
-        dst.setRGB(0, 0, width, height, dstPixels, 0, width);
+        PixelAccess.setPixels(dst, dstPixels);
 
         return dst;
     }
 
+    /**
+     * <p>
+     * Performs a convolution on a region of a {@code BufferedImage}, in place.
+     * </p>
+     * 
+     * <p>
+     * Only the region and the pixels within the radius of the kernel around it are copied and read
+     * (see {@link PixelAccess#filterRegion(BufferedImage, Rectangle, int, PixelAccess.RegionFilter)}),
+     * so convolving a small selection of a large image takes little time.
+     * </p>
+     * 
+     * @param image The {@code BufferedImage} to filter, which is changed.
+     * @param region The region to filter, which lies within the image.
+     * @return The filtered {@code BufferedImage}, which is {@code image}.
+     */
+    public BufferedImage filter(BufferedImage image, Rectangle region){
+        boolean alpha = image.getColorModel().hasAlpha();
+        return PixelAccess.filterRegion(image, region, getHalo(), (srcPixels, dstPixels, width, height, window) -> 
+            convolveRegion(srcPixels, dstPixels, window, width, height, alpha));
+    }
+
+    /**
+     * <p>
+     * Get the number of pixels around each pixel that the convolution reads.
+     * </p>
+     * 
+     * @return The radius of the kernel.
+     */
+    public int getHalo(){
+        return Math.max(kernel.getWidth(), kernel.getHeight()) / 2;
+    }
+
+    /**
+     * <p>
+     * Convolve a region of an image, splitting it into tiles which are convolved in parallel, each reading a border of pixels around it.
+     * </p>
+     * 
+     * @param srcPixels The pixels of the source image.
+     * @param dstPixels The destination to output the convolve computation.
+     * @param region The region to convolve, which lies within the image.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param hasAlpha True if the image has an alpha channel; false otherwise.
+     */
+    private void convolveRegion(int[] srcPixels, int[] dstPixels, Rectangle region, int width, int height, boolean hasAlpha){
+        TileScheduler.run(region, getHalo(), tile -> {
+            if(isSeparable()) convolveSeparable(srcPixels, dstPixels, tile.x(), tile.y(), tile.endX() - 1, tile.endY() - 1, width, height, hasAlpha);
+            else convolve(srcPixels, dstPixels, tile.x(), tile.y(), tile.endX() - 1, tile.endY() - 1, width, height, hasAlpha);
+        });
+    }
+
     /**
      * <p>
      * Perform the convolve operation on the image, taking pixel values from srcPixels and outputting the computation to dstPixels.
      * </p>
      * 
+     * <p>
+     * The pixels are worked on as packed ARGB {@code int}s and accumulated in {@code float} arrays, without creating any objects per pixel.
+     * Pixels far enough from the edge of the image that the whole kernel fits inside it are computed a row at a time,
+     * and only the pixels along the edges go through the (slower) edge handling.
+     * Kernel entries of zero are skipped, since they do not change the result.
+     * </p>
+     * 
      * @param srcPixels The pixels of the source image.
      * @param dstPixels The destination to output the convolve computation.
      * @param startX X lower bound on selection (inclusive).
@@ -141,91 +274,327 @@ public class AndieConvolveOp implements BufferedImageOp{
         int kWidth = kernel.getWidth();
         int radius = kWidth / 2;
 
-        // Index for the pixel arrays
-        int imgPos = 0;
-
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                if(y < startY || y > endY || x < startX || x > endX){
-                    dstPixels[imgPos] = srcPixels[imgPos];
-                    imgPos++;
-                    continue;
+        // Only the non-zero kernel entries contribute to the sum, kept in the same order as the kernel
+        int taps = 0;
+        for(float value : matrix) if(value != 0) taps++;
+        float[] weights = new float[taps];
+        int[] tapX = new int[taps];
+        int[] tapY = new int[taps];
+        int tap = 0;
+        int matrixPos = 0;
+        for(int ky = -radius; ky <= radius; ky++){
+            for(int kx = -radius; kx <= radius; kx++){
+                if(matrix[matrixPos] != 0){
+                    weights[tap] = matrix[matrixPos];
+                    tapX[tap] = kx;
+                    tapY[tap] = ky;
+                    tap++;
                 }
+                matrixPos++;
+            }
+        }
 
-                float a = 0, r = 0, g = 0, b = 0;
-
-                // Index for the matrix array
-                int matrixPos = 0;
+        int firstX = Math.max(startX, 0);
+        int lastX = Math.min(endX, width - 1);
+        int firstY = Math.max(startY, 0);
+        int lastY = Math.min(endY, height - 1);
+
+        // The range of x values (inclusive) where the kernel lies entirely within the image
+        int innerStartX = Math.max(firstX, radius);
+        int innerEndX = Math.min(lastX, width - radius - 1);
+        int innerWidth = innerEndX - innerStartX + 1;
+
+        // The rows of the source image within reach of the kernel, unpacked into separate channels.
+        // Rows are kept in a ring buffer and unpacked once each, as the kernel moves down the image.
+        // Only the columns within reach of the inner pixels are unpacked, starting from column rowStart.
+        int rowStart = Math.max(innerStartX - radius, 0);
+        int rowLength = Math.max(Math.min(innerEndX + radius, width - 1) - rowStart + 1, 0);
+        float[][] rowA = new float[kWidth][];
+        float[][] rowR = new float[kWidth][rowLength];
+        float[][] rowG = new float[kWidth][rowLength];
+        float[][] rowB = new float[kWidth][rowLength];
+        if(hasAlpha) for(int i = 0; i < kWidth; i++) rowA[i] = new float[rowLength];
+        int[] unpackedRow = new int[kWidth];
+        Arrays.fill(unpackedRow, -1);
+
+        // The running sums for each pixel in the current row
+        float[] sumA = new float[Math.max(innerWidth, 0)];
+        float[] sumR = new float[Math.max(innerWidth, 0)];
+        float[] sumG = new float[Math.max(innerWidth, 0)];
+        float[] sumB = new float[Math.max(innerWidth, 0)];
+
+        for(int y = firstY; y <= lastY; y++){
+            int rowPos = y * width;
+            if(y < radius || y >= height - radius || innerWidth <= 0){
+                for(int x = firstX; x <= lastX; x++) dstPixels[rowPos + x] = convolveEdge(srcPixels, x, y, width, height, weights, tapX, tapY, hasAlpha);
+                continue;
+            }
 
-                for(int ky = -radius; ky <= radius; ky++){
-                    for(int kx = - radius; kx <= radius; kx++){
-                        int argbIndex;
+            for(int x = firstX; x < innerStartX; x++) dstPixels[rowPos + x] = convolveEdge(srcPixels, x, y, width, height, weights, tapX, tapY, hasAlpha);
 
-                        // Edge handling
-                        if(y + ky < 0){
-                            if(x + kx < 0) argbIndex = imgPos; // Top L corner
-                            else if(x + kx >= width) argbIndex = width - 1; // Top R corner
-                            else argbIndex = imgPos + kx; // First row
-                        }else if(y + ky >= height){
-                            if(x + kx < 0) argbIndex = imgPos; // Bottom L corner
-                            else if(x + kx >= width) argbIndex = width * height - 1; // Bottom R corner
-                            else argbIndex = imgPos + kx; // Last row
-                        }else if(x + kx < 0 || x + kx >= width) argbIndex = imgPos + (ky * width); // First or last column
-                        else argbIndex = imgPos + kx + (ky * width); // Any other pixels
+            for(int ky = y - radius; ky <= y + radius; ky++){
+                int slot = ky % kWidth;
+                if(unpackedRow[slot] == ky) continue;
+                unpackRow(srcPixels, ky * width + rowStart, rowLength, rowA[slot], rowR[slot], rowG[slot], rowB[slot]);
+                unpackedRow[slot] = ky;
+            }
 
-                        Color srcColour = new Color(srcPixels[argbIndex], hasAlpha);
+            // Each kernel entry is added to the whole row at once. The entries are still added to each
+            // pixel in the same order as the kernel, so the result is the same as summing one pixel at a time.
+            Arrays.fill(sumA, 0);
+            Arrays.fill(sumR, 0);
+            Arrays.fill(sumG, 0);
+            Arrays.fill(sumB, 0);
+            for(int t = 0; t < taps; t++){
+                int slot = (y + tapY[t]) % kWidth;
+                int from = innerStartX + tapX[t] - rowStart;
+                float weight = weights[t];
+                if(hasAlpha) accumulate(sumA, rowA[slot], from, weight, innerWidth);
+                accumulate(sumR, rowR[slot], from, weight, innerWidth);
+                accumulate(sumG, rowG[slot], from, weight, innerWidth);
+                accumulate(sumB, rowB[slot], from, weight, innerWidth);
+            }
+            for(int i = 0; i < innerWidth; i++) dstPixels[rowPos + innerStartX + i] = toARGB(sumA[i], sumR[i], sumG[i], sumB[i], hasAlpha);
 
-                        if(hasAlpha) a += matrix[matrixPos] * (srcColour.getAlpha());
-                        r += matrix[matrixPos] * (srcColour.getRed());
-                        g += matrix[matrixPos] * (srcColour.getGreen());
-                        b += matrix[matrixPos] * (srcColour.getBlue());
+            for(int x = innerEndX + 1; x <= lastX; x++) dstPixels[rowPos + x] = convolveEdge(srcPixels, x, y, width, height, weights, tapX, tapY, hasAlpha);
+        }
+    }
 
-                        matrixPos++;
-                    }
+    /**
+     * <p>
+     * Perform a separable convolution on the image, taking pixel values from srcPixels and outputting the computation to dstPixels.
+     * </p>
+     * 
+     * <p>
+     * Each row within reach of the selection is convolved horizontally with {@link #rowKernel} once, 
+     * and the horizontal results are kept in a ring buffer of {@code columnKernel.length} rows.
+     * Each output row is then the vertical convolution of the buffered rows with {@link #columnKernel}.
+     * Pixels outside of the image take the value of the nearest pixel on its edge.
+     * </p>
+     * 
+     * @param srcPixels The pixels of the source image.
+     * @param dstPixels The destination to output the convolve computation.
+     * @param startX X lower bound on selection (inclusive).
+     * @param startY Y lower bound on selection (inclusive).
+     * @param endX X upper bound on selection (inclusive).
+     * @param endY Y upper bound on selection (inclusive).
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param hasAlpha True if the image has an alpha channel; false otherwise.
+     */
+    private void convolveSeparable(int[] srcPixels, int[] dstPixels, int startX, int startY, int endX, int endY, int width, int height, boolean hasAlpha){
+        int firstX = Math.max(startX, 0);
+        int lastX = Math.min(endX, width - 1);
+        int firstY = Math.max(startY, 0);
+        int lastY = Math.min(endY, height - 1);
+        int length = lastX - firstX + 1;
+        if(length <= 0 || firstY > lastY) return;
+
+        int radiusX = rowKernel.length / 2;
+        int radiusY = columnKernel.length / 2;
+        int rows = columnKernel.length;
+
+        // A row of the source image, padded on both sides with copies of the pixels on the edge
+        int padded = length + 2 * radiusX;
+        int[] paddedRow = new int[padded];
+        float[] srcA = hasAlpha ? new float[padded] : null;
+        float[] srcR = new float[padded];
+        float[] srcG = new float[padded];
+        float[] srcB = new float[padded];
+
+        // The horizontally convolved rows, in a ring buffer indexed by source row
+        float[][] rowA = new float[rows][];
+        float[][] rowR = new float[rows][length];
+        float[][] rowG = new float[rows][length];
+        float[][] rowB = new float[rows][length];
+        if(hasAlpha) for(int i = 0; i < rows; i++) rowA[i] = new float[length];
+        int[] convolvedRow = new int[rows];
+        Arrays.fill(convolvedRow, -1);
+
+        float[] sumA = new float[length];
+        float[] sumR = new float[length];
+        float[] sumG = new float[length];
+        float[] sumB = new float[length];
+
+        for(int y = firstY; y <= lastY; y++){
+            for(int ky = y - radiusY; ky <= y + radiusY; ky++){
+                int srcY = Math.min(Math.max(ky, 0), height - 1);
+                int slot = srcY % rows;
+                if(convolvedRow[slot] == srcY) continue;
+
+                for(int i = 0; i < padded; i++){
+                    int srcX = Math.min(Math.max(firstX - radiusX + i, 0), width - 1);
+                    paddedRow[i] = srcPixels[srcY * width + srcX];
+                }
+                unpackRow(paddedRow, 0, padded, srcA, srcR, srcG, srcB);
+
+                if(hasAlpha) Arrays.fill(rowA[slot], 0);
+                Arrays.fill(rowR[slot], 0);
+                Arrays.fill(rowG[slot], 0);
+                Arrays.fill(rowB[slot], 0);
+                for(int kx = 0; kx < rowKernel.length; kx++){
+                    float weight = rowKernel[kx];
+                    if(weight == 0) continue;
+                    if(hasAlpha) accumulate(rowA[slot], srcA, kx, weight, length);
+                    accumulate(rowR[slot], srcR, kx, weight, length);
+                    accumulate(rowG[slot], srcG, kx, weight, length);
+                    accumulate(rowB[slot], srcB, kx, weight, length);
                 }
+                convolvedRow[slot] = srcY;
+            }
 
-                Color dstColor;
-
-                int intr = (int) Math.round(r);
-                int intg = (int) Math.round(g);
-                int intb = (int) Math.round(b);
-
-                // Handling offset
-                if(offset){ 
-                    intr += midVal;
-                    intg += midVal;
-                    intb += midVal;
-                    
-                }     
-                // Handling values out of range           
-                if(intr > 255) intr = 255;
-                if(intr < 0) intr = 0;
-                if(intg > 255) intg = 255;
-                if(intg < 0) intg = 0;
-                if(intb > 255) intb = 255;
-                if(intb < 0) intb = 0;  
-                
-                
-                if(hasAlpha){
-                    int inta = (int) Math.round(a);
-                    
-                    // Handling offset
-                    if(offset) inta += midVal;
-                  
-                    // Handling values out of range
-                    if(inta > 255) inta = 255;
-                    if(inta < 0) inta = 0;
-                    
-
-                    dstColor = new Color(intr, intg, intb, inta);
-                }else dstColor = new Color(intr, intg, intb);
-                 
-
-                dstPixels[imgPos] = dstColor.getRGB();
-                imgPos++;
+            Arrays.fill(sumA, 0);
+            Arrays.fill(sumR, 0);
+            Arrays.fill(sumG, 0);
+            Arrays.fill(sumB, 0);
+            for(int ky = 0; ky < rows; ky++){
+                float weight = columnKernel[ky];
+                if(weight == 0) continue;
+                int slot = Math.min(Math.max(y - radiusY + ky, 0), height - 1) % rows;
+                if(hasAlpha) accumulate(sumA, rowA[slot], 0, weight, length);
+                accumulate(sumR, rowR[slot], 0, weight, length);
+                accumulate(sumG, rowG[slot], 0, weight, length);
+                accumulate(sumB, rowB[slot], 0, weight, length);
             }
+
+            int rowPos = y * width + firstX;
+            for(int i = 0; i < length; i++) dstPixels[rowPos + i] = toARGB(sumA[i], sumR[i], sumG[i], sumB[i], hasAlpha);
+        }
+    }
+
+    /**
+     * <p>
+     * Split a row of packed ARGB pixels into one array per channel.
+     * </p>
+     * 
+     * @param srcPixels The pixels of the source image.
+     * @param rowPos The index of the first pixel to unpack.
+     * @param length The number of pixels to unpack.
+     * @param a The array to store the alpha values in, or null if the image has no alpha channel.
+     * @param r The array to store the red values in.
+     * @param g The array to store the green values in.
+     * @param b The array to store the blue values in.
+     */
+    private static void unpackRow(int[] srcPixels, int rowPos, int length, float[] a, float[] r, float[] g, float[] b){
+        for(int x = 0; x < length; x++){
+            int argb = srcPixels[rowPos + x];
+            r[x] = (argb >> 16) & 0xFF;
+            g[x] = (argb >> 8) & 0xFF;
+            b[x] = argb & 0xFF;
+        }
+        if(a != null) for(int x = 0; x < length; x++) a[x] = srcPixels[rowPos + x] >>> 24;
+    }
+
+    /**
+     * <p>
+     * Add a weighted, shifted copy of a channel row onto the running sums.
+     * </p>
+     * 
+     * @param sums The running sums, one per pixel.
+     * @param channel The channel values for a row of the source image.
+     * @param from The index in {@code channel} corresponding to the first running sum.
+     * @param weight The kernel entry to weight the values by.
+     * @param length The number of running sums.
+     */
+    private static void accumulate(float[] sums, float[] channel, int from, float weight, int length){
+        for(int i = 0; i < length; i++) sums[i] += weight * channel[from + i];
+    }
+
+    /**
+     * <p>
+     * Compute the convolution for a single pixel near the edge of the image, where part of the kernel lies outside of the image.
+     * </p>
+     * 
+     * <p>
+     * Kernel entries that land outside of the image take their value from the same row or column as the pixel
+     * being convolved instead, as described in the class documentation.
+     * </p>
+     * 
+     * @param srcPixels The pixels of the source image.
+     * @param x The x coordinate of the pixel.
+     * @param y The y coordinate of the pixel.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param weights The non-zero kernel entries.
+     * @param tapX The x offset of each kernel entry.
+     * @param tapY The y offset of each kernel entry.
+     * @param hasAlpha True if the image has an alpha channel; false otherwise.
+     * @return The packed ARGB value of the convolved pixel.
+     */
+    private int convolveEdge(int[] srcPixels, int x, int y, int width, int height, float[] weights, int[] tapX, int[] tapY, boolean hasAlpha){
+        int imgPos = y * width + x;
+        float a = 0, r = 0, g = 0, b = 0;
+
+        for(int t = 0; t < weights.length; t++){
+            int kx = tapX[t];
+            int ky = tapY[t];
+            int argbIndex;
+
+            // Edge handling
+            if(y + ky < 0){
+                if(x + kx < 0) argbIndex = imgPos; // Top L corner
+                else if(x + kx >= width) argbIndex = width - 1; // Top R corner
+                else argbIndex = imgPos + kx; // First row
+            }else if(y + ky >= height){
+                if(x + kx < 0) argbIndex = imgPos; // Bottom L corner
+                else if(x + kx >= width) argbIndex = width * height - 1; // Bottom R corner
+                else argbIndex = imgPos + kx; // Last row
+            }else if(x + kx < 0 || x + kx >= width) argbIndex = imgPos + (ky * width); // First or last column
+            else argbIndex = imgPos + kx + (ky * width); // Any other pixels
+
+            int argb = srcPixels[argbIndex];
+            float weight = weights[t];
+            if(hasAlpha) a += weight * ((argb >>> 24));
+            r += weight * ((argb >> 16) & 0xFF);
+            g += weight * ((argb >> 8) & 0xFF);
+            b += weight * (argb & 0xFF);
+        }
+
+        return toARGB(a, r, g, b, hasAlpha);
+    }
+
+    /**
+     * <p>
+     * Round the accumulated channel values, apply the offset (if any), and pack them into an ARGB value.
+     * </p>
+     * 
+     * <p>
+     * Values outside of the range 0 - 255 are clamped to the nearest bound. 
+     * If the image has no alpha channel, the result is fully opaque.
+     * </p>
+     * 
+     * @param a The accumulated alpha value (ignored if {@code hasAlpha} is false).
+     * @param r The accumulated red value.
+     * @param g The accumulated green value.
+     * @param b The accumulated blue value.
+     * @param hasAlpha True if the image has an alpha channel; false otherwise.
+     * @return The packed ARGB value.
+     */
+    private int toARGB(float a, float r, float g, float b, boolean hasAlpha){
+        int intr = Math.round(r);
+        int intg = Math.round(g);
+        int intb = Math.round(b);
+        int inta = hasAlpha ? Math.round(a) : 255;
+
+        // Handling offset
+        if(offset){
+            intr += midVal;
+            intg += midVal;
+            intb += midVal;
+            if(hasAlpha) inta += midVal;
         }
 
+        // Handling values out of range
+        if(intr > 255) intr = 255;
+        if(intr < 0) intr = 0;
+        if(intg > 255) intg = 255;
+        if(intg < 0) intg = 0;
+        if(intb > 255) intb = 255;
+        if(intb < 0) intb = 0;
+        if(inta > 255) inta = 255;
+        if(inta < 0) inta = 0;
+
+        return (inta << 24) | (intr << 16) | (intg << 8) | intb;
     }
 
 
@@ -1,7 +1,9 @@
 package cosc202.andie;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 /**
  * <p>
@@ -21,7 +23,10 @@ import java.awt.image.*;
  * @author Abby Fernandes
  * @version 1.0
  */
-public class BrightnessContrastAdjustment implements ImageOperation, java.io.Serializable {
+public class BrightnessContrastAdjustment implements PointOperation, java.io.Serializable {
+
+    /** The version from before this became a {@link PointOperation}, so that operation files saved by earlier versions can still be opened. */
+    private static final long serialVersionUID = 2244163130449762177L;
 
     /**
      * Percentage of change for the brightness and contrast.
@@ -95,30 +100,7 @@ public class BrightnessContrastAdjustment implements ImageOperation, java.io.Ser
      */
     public BufferedImage apply(BufferedImage input) {
         try{
-            for (int y = 0; y < input.getHeight(); ++y) {
-                for (int x = 0; x < input.getWidth(); ++x) {
-                    int argb = input.getRGB(x, y);
-                    int a = (argb & 0xFF000000) >> 24;
-                    int r = (argb & 0x00FF0000) >> 16;
-                    int g = (argb & 0x0000FF00) >> 8;
-                    int b = (argb & 0x000000FF);
-                    if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) { // i.e. there is a selected area
-                        if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
-                            r = (calculateAdjustment(r));
-                            g = (calculateAdjustment(g));
-                            b = (calculateAdjustment(b));
-                        }
-                    }
-                    else { // i.e. there is no selected area
-                        r = (calculateAdjustment(r));
-                        g = (calculateAdjustment(g));
-                        b = (calculateAdjustment(b));
-                    }
-
-                    argb = (a << 24) | (r << 16) | (g << 8) | b;
-                    input.setRGB(x, y, argb);
-                }
-            }
+            getLookup().apply(input, getRegion(input));
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
         }
@@ -126,6 +108,59 @@ public class BrightnessContrastAdjustment implements ImageOperation, java.io.Ser
         return input;
     }
 
+    /**
+     * <p>
+     * Get the lookup that adjusts the brightness and contrast of a pixel.
+     * </p>
+     * 
+     * <p>
+     * The adjustment only depends on the value of the channel, so it is worked out once
+     * for each of the 256 possible values and the same table is used for the red, green and blue channels.
+     * </p>
+     * 
+     * @return The brightness/contrast lookup.
+     */
+    public ColourLookup getLookup() {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) table[v] = calculateAdjustment(v);
+        return ColourLookup.perChannel(table, table, table);
+    }
+
+    /**
+     * <p>
+     * Get the region of an image that is adjusted: the selected area, or the whole image if there is none.
+     * </p>
+     * 
+     * @param input The image to be adjusted
+     * @return The region to adjust.
+     */
+    public Rectangle getRegion(BufferedImage input) {
+        Rectangle image = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) return image.intersection(new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1));
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the same adjustment for a scaled copy of the image.
+     * </p>
+     * 
+     * <p>
+     * The adjustment does not depend on the size of the image, so only the selection is scaled.
+     * </p>
+     * 
+     * @param scaleX The width of the copy, as a fraction of the width of the image.
+     * @param scaleY The height of the copy, as a fraction of the height of the image.
+     * @return The scaled adjustment.
+     */
+    @Override
+    public ImageOperation scaledBy(double scaleX, double scaleY) {
+        if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) {
+            return new BrightnessContrastAdjustment(brightness, contrast, new Point((int) (x1 * scaleX), (int) (y1 * scaleY)), new Point((int) (x2 * scaleX), (int) (y2 * scaleY)));
+        }
+        return new BrightnessContrastAdjustment(brightness, contrast);
+    }
+
     /**
      * <p>
      * Calculate the new value of the pixel after applying the brightness/contrast 
@@ -148,4 +183,29 @@ public class BrightnessContrastAdjustment implements ImageOperation, java.io.Ser
         
         return pixelValue;
     }
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is an adjustment by the same brightness and contrast, over the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BrightnessContrastAdjustment)) return false;
+        BrightnessContrastAdjustment other = (BrightnessContrastAdjustment) obj;
+        return brightness == other.brightness && contrast == other.contrast && x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(brightness, contrast, x1, y1, x2, y2);
+    }
 }
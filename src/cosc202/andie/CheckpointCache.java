@@ -0,0 +1,498 @@
+package cosc202.andie;
+
+import java.awt.image.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>
+ * A cache of intermediate results produced while an {@link EditableImage} is refreshed.
+ * </p>
+ *
+ * <p>
+ * Refreshing an image replays every operation in the stack on the original image,
+ * so undoing, previewing and selecting all get slower as the history grows.
+ * A checkpoint records the image (and the rotation/resize state that the refresh keeps track of)
+ * after a given number of operations, so that a refresh can resume from the nearest checkpoint
+ * rather than starting again from the original image.
+ * </p>
+ *
+ * <p>
+ * A checkpoint is taken every {@link #INTERVAL} operations, whenever more than {@link #INTERVAL_MILLIS}
+ * milliseconds have been spent applying operations since the last checkpoint, and for the top of the stack.
+ * Each checkpoint remembers the operations that produced it, so one that no longer matches the
+ * operation stack (e.g. after an undo followed by a different operation) is never used.
+ * When the cache is full, the checkpoint closest to its neighbours is dropped, which keeps recent
+ * checkpoints dense and older ones spread out.
+ * </p>
+ *
+ * <p>
+ * The checkpoints kept in memory are limited to a budget in bytes, which is stored in the preferences
+ * (see {@link #setMemoryBudget(long)}). Once it is exceeded, the checkpoints that were used least recently are
+ * compressed into temporary files in the background ({@link SpilledImage}), rather than dropped, and read back in
+ * when an undo or redo needs them. This works because checkpoints are never changed, so they can be written out
+ * while they are still in use.
+ * </p>
+ *
+ * <p>
+ * Checkpoints of an image with at least {@link #getOffHeapThreshold()} pixels are moved out of the heap as soon as
+ * they are not the top of the stack or the one used most recently, whatever the budget, into memory-mapped files
+ * ({@link MappedRaster}). A handful of copies of a very large image on the heap makes every garbage collection slow,
+ * while mapped pages cost the heap nothing, are read back about as quickly as an array is copied, and are left
+ * to the operating system to write out to disk when they have not been used for a while.
+ * </p>
+ *
+ * <p>
+ * The cache is synchronized, so an operation can be worked out in the background while the image is refreshed.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+class CheckpointCache {
+
+    /** The maximum number of operations between two checkpoints. */
+    static final int INTERVAL = 8;
+    /** The maximum amount of time (in milliseconds) spent applying operations between two checkpoints. */
+    static final long INTERVAL_MILLIS = 250;
+    /** The fraction of the maximum heap size that checkpoints are allowed to take up, if no budget has been set. */
+    private static final double HEAP_FRACTION = 0.25;
+    /** The most checkpoints that are kept, in memory or on disk, regardless of the image size. */
+    private static final int MAX_CAPACITY = 32;
+    /** The key of the memory budget in the preferences, where it is stored in megabytes. */
+    static final String MEMORY_BUDGET_KEY = "history_memory_mb";
+    /** The key of the off-heap threshold in the preferences, where it is stored in megapixels. */
+    static final String OFF_HEAP_THRESHOLD_KEY = "history_off_heap_mp";
+    /** The number of megapixels from which checkpoints are kept off the heap, if no threshold has been set. */
+    private static final long DEFAULT_OFF_HEAP_MEGAPIXELS = 16;
+
+    /** The thread that checkpoints are written out on. Checkpoints of every image share it. */
+    private static final ExecutorService SPILLER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ANDIE history");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The number of bytes that checkpoints may take up in memory. */
+    private static volatile long memoryBudget = loadMemoryBudget();
+    /** The number of pixels from which checkpoints are kept in memory-mapped files rather than on the heap. */
+    private static volatile long offHeapThreshold = loadOffHeapThreshold();
+
+    /**
+     * The state of a refresh after applying the first {@code index} operations.
+     *
+     * @param index The number of operations that have been applied.
+     * @param ops The operations that were applied to produce this checkpoint.
+     * @param image The image after applying the operations, which may be shared (e.g. with the image on screen) but is never changed.
+     * @param rotation The accumulated rotation after applying the operations.
+     * @param resizeScale The accumulated resize scale after applying the operations.
+     */
+    record Checkpoint(int index, ImageOperation[] ops, BufferedImage image, int rotation, double resizeScale) {}
+
+    /**
+     * <p>
+     * A stored checkpoint, whose image may have been written out to disk.
+     * </p>
+     */
+    private static class Entry {
+        /** The checkpoint, without its image, which is held by {@link #image} alone so that it can be let go of. */
+        private final Checkpoint checkpoint;
+        /** The image, or null if it is only on disk. */
+        private BufferedImage image;
+        /** The image on disk, or null if it has not been written out. */
+        private SpilledImage spilled;
+        /** The image in a memory-mapped file, or null if it has not been moved off the heap. */
+        private MappedRaster mapped;
+        /** Whether the image is being written out. */
+        private boolean spilling;
+        /** When the checkpoint was last stored or used, as a count of uses of the cache. */
+        private long lastUsed;
+
+        /**
+         * Create an entry for a checkpoint that is in memory.
+         *
+         * @param checkpoint The checkpoint.
+         */
+        Entry(Checkpoint checkpoint) {
+            this.checkpoint = new Checkpoint(checkpoint.index(), checkpoint.ops(), null, checkpoint.rotation(), checkpoint.resizeScale());
+            this.image = checkpoint.image();
+        }
+    }
+
+    /** The checkpoints, keyed by the number of operations applied. */
+    private TreeMap<Integer, Entry> checkpoints = new TreeMap<Integer, Entry>();
+    /** The number of times the cache has been used, to find the checkpoints used least recently. */
+    private long uses;
+    /** The number of checkpoints being written out. */
+    private int spilling;
+
+    /**
+     * <p>
+     * Find the checkpoint that is furthest along the given operation stack.
+     * </p>
+     *
+     * <p>
+     * Checkpoints that were produced by a different sequence of operations are removed.
+     * A checkpoint that has been written out to disk is read back in, which is much quicker than replaying the operations.
+     * </p>
+     *
+     * @param ops The current operation stack.
+     * @return The furthest valid checkpoint, or null if there are none.
+     */
+    synchronized Checkpoint nearest(List<ImageOperation> ops) {
+        Map.Entry<Integer, Entry> found = checkpoints.floorEntry(ops.size());
+        while (found != null) {
+            Entry entry = found.getValue();
+            if (matches(entry.checkpoint, ops) && load(entry)) {
+                entry.lastUsed = ++uses;
+                Checkpoint checkpoint = new Checkpoint(entry.checkpoint.index(), entry.checkpoint.ops(), entry.image,
+                        entry.checkpoint.rotation(), entry.checkpoint.resizeScale());
+                limitMemory();
+                return checkpoint;
+            }
+            remove(found.getKey());
+            found = checkpoints.floorEntry(found.getKey() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Check whether there is a checkpoint in memory for the whole of the given operation stack, so that refreshing it takes no time.
+     * </p>
+     *
+     * @param ops The current operation stack.
+     * @return True if the stack does not need to be replayed or read back from disk.
+     */
+    synchronized boolean isReady(List<ImageOperation> ops) {
+        Entry entry = checkpoints.get(ops.size());
+        return ops.isEmpty() || entry != null && entry.image != null && matches(entry.checkpoint, ops);
+    }
+
+    /**
+     * <p>
+     * Offer the state of a refresh to the cache, which stores it if a checkpoint is due.
+     * </p>
+     *
+     * @param ops The operation stack being refreshed.
+     * @param index The number of operations that have been applied so far.
+     * @param image The image after applying {@code index} operations. This is stored as it is (not copied), so it must not be changed afterwards.
+     * @param rotation The accumulated rotation after applying {@code index} operations.
+     * @param resizeScale The accumulated resize scale after applying {@code index} operations.
+     * @param opsSinceLast The number of operations applied since the previous checkpoint (or the original).
+     * @param nanosSinceLast The time spent applying operations since the previous checkpoint (or the original).
+     * @return True if a checkpoint was stored.
+     */
+    synchronized boolean offer(List<ImageOperation> ops, int index, BufferedImage image, int rotation, double resizeScale,
+                    int opsSinceLast, long nanosSinceLast) {
+        if (image == null || index <= 0) return false;
+        boolean due = index == ops.size() || opsSinceLast >= INTERVAL || nanosSinceLast >= INTERVAL_MILLIS * 1_000_000;
+        if (!due) return false;
+
+        Entry existing = checkpoints.get(index);
+        if (existing != null && matches(existing.checkpoint, ops)) return false;
+
+        ImageOperation[] prefix = ops.subList(0, index).toArray(new ImageOperation[index]);
+        remove(index);
+        Entry entry = new Entry(new Checkpoint(index, prefix, image, rotation, resizeScale));
+        entry.lastUsed = ++uses;
+        checkpoints.put(index, entry);
+        trim(MAX_CAPACITY);
+        limitMemory();
+        return true;
+    }
+
+    /**
+     * <p>
+     * Remove every checkpoint that was not produced by a prefix of the given operation stack.
+     * </p>
+     *
+     * <p>
+     * Checkpoints beyond the top of the stack are kept as long as they still match,
+     * so that a redo straight after an undo can reuse them.
+     * </p>
+     *
+     * @param ops The operations that are now applied to the image.
+     * @param redoOps The operations that can still be redone, in the order they are stored on the redo stack.
+     */
+    synchronized void retain(List<ImageOperation> ops, List<ImageOperation> redoOps) {
+        ArrayList<ImageOperation> reachable = new ArrayList<ImageOperation>(ops);
+        for (int i = redoOps.size() - 1; i >= 0; i--) reachable.add(redoOps.get(i));
+
+        for (Integer index : new ArrayList<Integer>(checkpoints.keySet())) {
+            Checkpoint c = checkpoints.get(index).checkpoint;
+            if (c.index() > reachable.size() || !matches(c, reachable)) remove(index);
+        }
+    }
+
+    /**
+     * Remove every checkpoint, e.g. when a different image is opened.
+     */
+    synchronized void clear() {
+        for (Integer index : new ArrayList<Integer>(checkpoints.keySet())) remove(index);
+    }
+
+    /**
+     * Get the number of checkpoints currently stored.
+     *
+     * @return The number of checkpoints, in memory or on disk.
+     */
+    synchronized int size() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Get the number of checkpoints currently stored on the heap.
+     *
+     * @return The number of checkpoints whose image has not been written out or moved off the heap.
+     */
+    synchronized int sizeInMemory() {
+        int count = 0;
+        for (Entry entry : checkpoints.values()) {
+            if (entry.image != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of bytes that checkpoints may take up in memory before they are written out to disk.
+     *
+     * @return The memory budget, in bytes.
+     */
+    static long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * <p>
+     * Change the number of bytes that checkpoints may take up in memory, and store it in the preferences.
+     * </p>
+     *
+     * <p>
+     * The new budget applies the next time a checkpoint is stored or used.
+     * </p>
+     *
+     * @param bytes The memory budget, which is rounded down to whole megabytes and clamped to at least 0.
+     */
+    static void setMemoryBudget(long bytes) {
+        long megabytes = Math.max(0, bytes >> 20);
+        memoryBudget = megabytes << 20;
+        Preferences.setPreference(MEMORY_BUDGET_KEY, Long.toString(megabytes));
+    }
+
+    /**
+     * Get the number of pixels from which the checkpoints of an image are kept off the heap.
+     *
+     * @return The off-heap threshold, in pixels.
+     */
+    static long getOffHeapThreshold() {
+        return offHeapThreshold;
+    }
+
+    /**
+     * <p>
+     * Change the number of pixels from which the checkpoints of an image are kept off the heap, and store it in the preferences.
+     * </p>
+     *
+     * @param pixels The off-heap threshold, which is rounded down to whole megapixels and clamped to at least 0.
+     */
+    static void setOffHeapThreshold(long pixels) {
+        long megapixels = Math.max(0, pixels / 1_000_000);
+        offHeapThreshold = megapixels * 1_000_000;
+        Preferences.setPreference(OFF_HEAP_THRESHOLD_KEY, Long.toString(megapixels));
+    }
+
+    /**
+     * Read the off-heap threshold from the preferences, falling back to {@link #DEFAULT_OFF_HEAP_MEGAPIXELS}.
+     *
+     * @return The off-heap threshold, in pixels.
+     */
+    private static long loadOffHeapThreshold() {
+        try {
+            return Math.max(0, Long.parseLong(Preferences.getPreference(OFF_HEAP_THRESHOLD_KEY))) * 1_000_000;
+        } catch (NumberFormatException | NullPointerException ex) {
+            return DEFAULT_OFF_HEAP_MEGAPIXELS * 1_000_000;
+        }
+    }
+
+    /**
+     * Check whether an image is large enough for its checkpoints to be kept off the heap.
+     *
+     * @param image The image.
+     * @return True if it has at least {@link #offHeapThreshold} pixels.
+     */
+    private static boolean isLarge(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() >= offHeapThreshold;
+    }
+
+    /**
+     * Read the memory budget from the preferences, falling back to a quarter of the maximum heap size.
+     *
+     * @return The memory budget, in bytes.
+     */
+    private static long loadMemoryBudget() {
+        try {
+            return Math.max(0, Long.parseLong(Preferences.getPreference(MEMORY_BUDGET_KEY))) << 20;
+        } catch (NumberFormatException | NullPointerException ex) {
+            return (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION);
+        }
+    }
+
+    /**
+     * Check whether a checkpoint was produced by the first {@code index} operations of {@code ops}.
+     *
+     * @param c The checkpoint to check.
+     * @param ops The operation stack.
+     * @return True if the checkpoint is a valid starting point for {@code ops}.
+     */
+    private static boolean matches(Checkpoint c, List<ImageOperation> ops) {
+        if (c.index() > ops.size()) return false;
+        // Compare from the top down, since that is where the stacks are most likely to differ.
+        for (int i = c.index() - 1; i >= 0; i--) {
+            if (c.ops()[i] != ops.get(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Make sure the image of a checkpoint is on the heap, copying it back from its mapped file or reading it back from disk if needed.
+     *
+     * @param entry The checkpoint.
+     * @return True if the image is in memory, or false if it could not be read.
+     */
+    private boolean load(Entry entry) {
+        if (entry.image != null) return true;
+        if (entry.mapped != null) {
+            entry.image = entry.mapped.toImage();
+            return true;
+        }
+        try {
+            entry.image = entry.spilled.load();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Remove a checkpoint, and delete its files if it has any.
+     *
+     * @param index The index of the checkpoint.
+     */
+    private void remove(int index) {
+        Entry entry = checkpoints.remove(index);
+        if (entry != null && entry.spilled != null) entry.spilled.delete();
+        if (entry != null && entry.mapped != null) entry.mapped.dispose();
+    }
+
+    /**
+     * <p>
+     * Drop checkpoints until there are at most {@code capacity} of them.
+     * </p>
+     *
+     * <p>
+     * The checkpoint furthest along the stack is always kept. Otherwise, the checkpoint that leaves
+     * the smallest gap between its neighbours when removed is dropped first.
+     * </p>
+     *
+     * @param capacity The number of checkpoints to keep.
+     */
+    private void trim(int capacity) {
+        while (checkpoints.size() > capacity) {
+            Integer drop = null;
+            int smallestGap = Integer.MAX_VALUE;
+            int previous = 0;
+            Integer last = checkpoints.lastKey();
+            for (Integer index : checkpoints.keySet()) {
+                if (index.equals(last)) break;
+                int gap = checkpoints.higherKey(index) - previous;
+                if (gap < smallestGap) {
+                    smallestGap = gap;
+                    drop = index;
+                }
+                previous = index;
+            }
+            remove(drop);
+        }
+    }
+
+    /**
+     * <p>
+     * Write out the checkpoints used least recently until the ones left in memory fit in the budget,
+     * and move the checkpoints of large images off the heap.
+     * </p>
+     *
+     * <p>
+     * The checkpoint furthest along the stack, which is usually the image on screen, and the one used most recently
+     * are always kept on the heap. A checkpoint that has been read back in still has its file, so it is just dropped from the heap again.
+     * Only one checkpoint is written out at a time, and while it is, any others over the budget are dropped instead,
+     * while large ones within the budget wait for their turn.
+     * </p>
+     */
+    private void limitMemory() {
+        long used = 0;
+        for (Entry entry : checkpoints.values()) {
+            if (entry.image != null) used += (long) entry.image.getWidth() * entry.image.getHeight() * 4;
+        }
+        long mostRecent = 0;
+        for (Entry entry : checkpoints.values()) mostRecent = Math.max(mostRecent, entry.lastUsed);
+        while (true) {
+            Entry coldest = null;
+            for (Entry entry : checkpoints.values()) {
+                if (entry.image == null || entry.spilling || entry == checkpoints.lastEntry().getValue() || entry.lastUsed == mostRecent) continue;
+                // Within the budget, large images wait for the one being written out rather than being dropped
+                if (used <= memoryBudget && (!isLarge(entry.image) || spilling > 0)) continue;
+                if (coldest == null || entry.lastUsed < coldest.lastUsed) coldest = entry;
+            }
+            if (coldest == null) return;
+            used -= (long) coldest.image.getWidth() * coldest.image.getHeight() * 4;
+            if (coldest.spilled != null || coldest.mapped != null) {
+                coldest.image = null;
+            } else if (spilling > 0) {
+                // Writing out cannot keep up, so rather than holding on to more images until it does, this one is dropped
+                remove(coldest.checkpoint.index());
+            } else {
+                spill(coldest);
+            }
+        }
+    }
+
+    /**
+     * Write out the image of a checkpoint in the background (to a mapped file if the image is large, or a compressed one if not),
+     * and drop it from the heap once it has been written.
+     *
+     * @param entry The checkpoint.
+     */
+    private void spill(Entry entry) {
+        entry.spilling = true;
+        spilling++;
+        BufferedImage image = entry.image;
+        boolean large = isLarge(image);
+        SPILLER.execute(() -> {
+            SpilledImage spilled = null;
+            MappedRaster mapped = null;
+            try {
+                if (large) mapped = new MappedRaster(image);
+                else spilled = new SpilledImage(image);
+            } catch (IOException ex) {
+                // The checkpoint is dropped instead, as it would have been without somewhere to write it
+            }
+            synchronized (this) {
+                entry.spilling = false;
+                spilling--;
+                if (checkpoints.get(entry.checkpoint.index()) != entry) {
+                    if (spilled != null) spilled.delete();
+                    if (mapped != null) mapped.dispose();
+                } else if (spilled != null || mapped != null) {
+                    entry.spilled = spilled;
+                    entry.mapped = mapped;
+                    entry.image = null;
+                } else {
+                    remove(entry.checkpoint.index());
+                }
+                limitMemory();
+            }
+        });
+    }
+}
@@ -165,37 +165,34 @@ public class ColourActions {
             JSlider brightnessSlider = new JSlider(JSlider.HORIZONTAL, -100, 100, 0);
             JSlider contrastSlider = new JSlider(JSlider.HORIZONTAL, -100, 100, 0);
 
+            // The sliders only move the spinners, and the spinners preview the values, so that each change is only previewed once
             class JSpinnerListener implements ChangeListener{
                 public void stateChanged(ChangeEvent e){
                     try {
                         // set brightness and contrast slider to spinner values
                         brightnessSlider.setValue((int)brightnessSpinner.getValue());
                         contrastSlider.setValue((int)contrastSpinner.getValue());
-                        target.getImage().previewApply(new BrightnessContrastAdjustment((int)brightnessSpinner.getValue(), (int)contrastSpinner.getValue()));
+                        BrightnessContrastAdjustment adjustment;
+                        if(target.getSelection().isEmpty()) adjustment = new BrightnessContrastAdjustment((int)brightnessSpinner.getValue(), (int)contrastSpinner.getValue());
+                        else {
+                            Point[] corners = target.getSelection().getCorners();
+                            adjustment = new BrightnessContrastAdjustment((int)brightnessSpinner.getValue(), (int)contrastSpinner.getValue(), corners[0], corners[1]);
+                        }
+                        target.getImage().getPreviewScheduler().request(adjustment, target.getZoom() / 100, op -> {
+                            target.repaint();
+                            target.getParent().revalidate();
+                        });
                     } catch (Exception e1) {
                         e1.printStackTrace();
                     }
-                    target.repaint();
-                    target.getParent().revalidate();
                 }
             }
 
             class JSliderListener implements ChangeListener{
                 public void stateChanged(ChangeEvent e){
-                    try {
-                        // set brightness and contrast spinner to slider values
-                        brightnessSpinner.setValue((int)brightnessSlider.getValue());
-                        contrastSpinner.setValue((int)contrastSlider.getValue());
-                        if(target.getSelection().isEmpty()) target.getImage().previewApply(new BrightnessContrastAdjustment((int)brightnessSlider.getValue(), (int)contrastSlider.getValue()));
-                        else {
-                            Point[] corners = target.getSelection().getCorners();
-                            target.getImage().previewApply(new BrightnessContrastAdjustment((int)brightnessSlider.getValue(), (int)contrastSlider.getValue(), corners[0], corners[1]));
-                        }
-                    } catch (Exception e1) {
-                        e1.printStackTrace();
-                    }
-                    target.repaint();
-                    target.getParent().revalidate();
+                    // set brightness and contrast spinner to slider values
+                    brightnessSpinner.setValue((int)brightnessSlider.getValue());
+                    contrastSpinner.setValue((int)contrastSlider.getValue());
                 }
             }
 
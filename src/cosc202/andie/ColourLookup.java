@@ -0,0 +1,274 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A set of lookup tables that map the colour of a pixel to a new colour, for {@link PointOperation}s.
+ * </p>
+ *
+ * <p>
+ * Most point operations change each colour channel on its own, so they are a 256-entry table per channel
+ * ({@link #perChannel(int[], int[], int[])}). Greyscale conversion mixes the channels instead: it adds up a
+ * weight for each of the red, green and blue values, and rounds the total to get the grey value.
+ * The weights are looked up from tables too ({@link #mixed(double[], double[], double[])}), and the grey value
+ * is then passed through a table per channel.
+ * </p>
+ *
+ * <p>
+ * Lookups can be combined with {@link #then(ColourLookup)}, giving a single lookup with exactly the same result as
+ * applying one after the other, so a sequence of point operations only needs a single pass over the image.
+ * Alpha values are never changed.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class ColourLookup {
+
+    /** The weight of each red, green and blue value in the mixed value, or null if the channels are not mixed. */
+    private final double[] weightR, weightG, weightB;
+    /** The new value of each channel, indexed by the old value of the channel (or by the mixed value). */
+    private final int[] lutR, lutG, lutB;
+
+    /**
+     * Create a lookup from its tables.
+     *
+     * @param weightR The weights of the red values, or null if the channels are not mixed.
+     * @param weightG The weights of the green values, or null if the channels are not mixed.
+     * @param weightB The weights of the blue values, or null if the channels are not mixed.
+     * @param lutR The table for the red channel.
+     * @param lutG The table for the green channel.
+     * @param lutB The table for the blue channel.
+     */
+    private ColourLookup(double[] weightR, double[] weightG, double[] weightB, int[] lutR, int[] lutG, int[] lutB) {
+        this.weightR = weightR;
+        this.weightG = weightG;
+        this.weightB = weightB;
+        this.lutR = lutR;
+        this.lutG = lutG;
+        this.lutB = lutB;
+    }
+
+    /**
+     * <p>
+     * Create a lookup that maps each channel through its own table.
+     * </p>
+     *
+     * @param lutR The new red value for each old red value, from 0 to 255.
+     * @param lutG The new green value for each old green value, from 0 to 255.
+     * @param lutB The new blue value for each old blue value, from 0 to 255.
+     * @return The lookup.
+     * @throws IllegalArgumentException if a table does not have 256 entries between 0 and 255.
+     */
+    public static ColourLookup perChannel(int[] lutR, int[] lutG, int[] lutB) {
+        return new ColourLookup(null, null, null, checkTable(lutR), checkTable(lutG), checkTable(lutB));
+    }
+
+    /**
+     * <p>
+     * Create a lookup that sets every channel to {@code round(weightR[r] + weightG[g] + weightB[b])}.
+     * </p>
+     *
+     * <p>
+     * The weights are added up in that order, so that e.g. weights of {@code 0.3*v}, {@code 0.6*v} and {@code 0.1*v}
+     * give exactly the same result as {@code Math.round(0.3*r + 0.6*g + 0.1*b)}.
+     * The rounded value must lie between 0 and 255.
+     * </p>
+     *
+     * @param weightR The weight of each red value.
+     * @param weightG The weight of each green value.
+     * @param weightB The weight of each blue value.
+     * @return The lookup.
+     */
+    public static ColourLookup mixed(double[] weightR, double[] weightG, double[] weightB) {
+        int[] identity = identityTable();
+        return new ColourLookup(weightR.clone(), weightG.clone(), weightB.clone(), identity, identity, identity);
+    }
+
+    /**
+     * <p>
+     * Get the lookup that applies this lookup, and then {@code next}.
+     * </p>
+     *
+     * @param next The lookup to apply afterwards.
+     * @return The combined lookup.
+     */
+    public ColourLookup then(ColourLookup next) {
+        if (next.weightR == null) {
+            // The tables of next just follow on from ours
+            return new ColourLookup(weightR, weightG, weightB, compose(lutR, next.lutR), compose(lutG, next.lutG), compose(lutB, next.lutB));
+        }
+        if (weightR == null) {
+            // Look the weights of next up through our tables
+            double[] r = new double[256], g = new double[256], b = new double[256];
+            for (int v = 0; v < 256; v++) {
+                r[v] = next.weightR[lutR[v]];
+                g[v] = next.weightG[lutG[v]];
+                b[v] = next.weightB[lutB[v]];
+            }
+            return new ColourLookup(r, g, b, next.lutR, next.lutG, next.lutB);
+        }
+        // Both mix the channels. Our result only depends on our mixed value, so next's mixed value is a function of it too.
+        int[] mixedAgain = new int[256];
+        for (int v = 0; v < 256; v++) mixedAgain[v] = (int) Math.round(next.weightR[lutR[v]] + next.weightG[lutG[v]] + next.weightB[lutB[v]]);
+        return new ColourLookup(weightR, weightG, weightB, compose(mixedAgain, next.lutR), compose(mixedAgain, next.lutG), compose(mixedAgain, next.lutB));
+    }
+
+    /**
+     * <p>
+     * Get the lookup that maps every new colour back to the old colour.
+     * </p>
+     * 
+     * <p>
+     * This only exists if every table is a permutation of the values 0 to 255, i.e. no two values are mapped to the same one.
+     * Lookups that mix the channels never have an inverse, and nor do most brightness/contrast adjustments, which clamp
+     * values at 0 and 255.
+     * </p>
+     *
+     * @return The inverse lookup, or null if the lookup cannot be inverted.
+     */
+    public ColourLookup inverse() {
+        if (weightR != null) return null;
+        int[] r = invert(lutR), g = invert(lutG), b = invert(lutB);
+        if (r == null || g == null || b == null) return null;
+        return new ColourLookup(null, null, null, r, g, b);
+    }
+
+    /**
+     * <p>
+     * Look up the new colour of a single pixel.
+     * </p>
+     *
+     * @param argb The packed ARGB value of the pixel.
+     * @return The new packed ARGB value. The alpha value is unchanged.
+     */
+    public int apply(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        if (weightR != null) {
+            int mixed = (int) Math.round(weightR[r] + weightG[g] + weightB[b]);
+            return (argb & 0xFF000000) | (lutR[mixed] << 16) | (lutG[mixed] << 8) | lutB[mixed];
+        }
+        return (argb & 0xFF000000) | (lutR[r] << 16) | (lutG[g] << 8) | lutB[b];
+    }
+
+    /**
+     * <p>
+     * Apply the lookup to a region of an image, in place.
+     * </p>
+     *
+     * @param img The image to change.
+     * @param region The region of the image to change, which must lie within the image.
+     */
+    public void apply(BufferedImage img, Rectangle region) {
+        int width = img.getWidth();
+        int[] pixels = PixelAccess.getPixels(img);
+        TileScheduler.run(region, 0, tile -> {
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                for (int i = y * width + tile.x(); i < y * width + tile.endX(); i++) pixels[i] = apply(pixels[i]);
+            }
+        });
+        PixelAccess.setPixels(img, pixels);
+    }
+
+    /**
+     * <p>
+     * Apply the lookup to a region of a copy of an image, leaving the image itself unchanged.
+     * </p>
+     *
+     * <p>
+     * This copies the image and applies the lookup in a single pass, rather than copying it and then going over the region again.
+     * </p>
+     *
+     * @param img The image to copy.
+     * @param region The region of the copy to change, which must lie within the image.
+     * @return The changed copy.
+     */
+    public BufferedImage applyToCopy(BufferedImage img, Rectangle region) {
+        if (!PixelAccess.isDirect(img)) {
+            BufferedImage copy = new BufferedImage(img.getColorModel(), img.copyData(null), img.isAlphaPremultiplied(), null);
+            apply(copy, region);
+            return copy;
+        }
+        int width = img.getWidth();
+        BufferedImage copy = new BufferedImage(width, img.getHeight(), img.getType());
+        int[] source = PixelAccess.getPixels(img);
+        int[] pixels = PixelAccess.getPixels(copy);
+        TileScheduler.run(0, 0, width, img.getHeight(), 0, tile -> {
+            // The part of each row of the tile that is inside the region, which is empty for rows outside it
+            int startX = Math.min(Math.max(tile.x(), region.x), tile.endX());
+            int endX = Math.max(startX, Math.min(tile.endX(), region.x + region.width));
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                int row = y * width;
+                if (y < region.y || y >= region.y + region.height) {
+                    System.arraycopy(source, row + tile.x(), pixels, row + tile.x(), tile.endX() - tile.x());
+                    continue;
+                }
+                System.arraycopy(source, row + tile.x(), pixels, row + tile.x(), startX - tile.x());
+                for (int i = row + startX; i < row + endX; i++) pixels[i] = apply(source[i]);
+                System.arraycopy(source, row + endX, pixels, row + endX, tile.endX() - endX);
+            }
+        });
+        return copy;
+    }
+
+    /**
+     * Get the table that maps every value to itself.
+     *
+     * @return The identity table.
+     */
+    private static int[] identityTable() {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) table[v] = v;
+        return table;
+    }
+
+    /**
+     * Get the table that looks a value up in {@code first}, and then in {@code second}.
+     *
+     * @param first The first table.
+     * @param second The second table.
+     * @return The combined table.
+     */
+    private static int[] compose(int[] first, int[] second) {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) table[v] = second[first[v]];
+        return table;
+    }
+
+    /**
+     * Get the table that maps each value of a table back to the value it came from.
+     *
+     * @param table The table to invert.
+     * @return The inverted table, or null if two values are mapped to the same value.
+     */
+    private static int[] invert(int[] table) {
+        int[] inverse = new int[256];
+        Arrays.fill(inverse, -1);
+        for (int v = 0; v < 256; v++) {
+            if (inverse[table[v]] != -1) return null;
+            inverse[table[v]] = v;
+        }
+        return inverse;
+    }
+
+    /**
+     * Check that a table maps every 8-bit value to another 8-bit value, and copy it.
+     *
+     * @param table The table to check.
+     * @return A copy of the table.
+     * @throws IllegalArgumentException if the table is invalid.
+     */
+    private static int[] checkTable(int[] table) {
+        if (table.length != 256) throw new IllegalArgumentException("Lookup tables must have 256 entries");
+        for (int value : table) {
+            if (value < 0 || value > 255) throw new IllegalArgumentException("Lookup table values must be between 0 and 255");
+        }
+        return table.clone();
+    }
+}
@@ -1,7 +1,9 @@
 package cosc202.andie;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 /**
  * <p>
@@ -21,7 +23,11 @@ import java.awt.image.*;
  * @author Steven Mills
  * @version 1.0
  */
-public class ConvertToGrey implements ImageOperation, java.io.Serializable {
+public class ConvertToGrey implements PointOperation, java.io.Serializable {
+
+    /** The version from before this became a {@link PointOperation}, so that operation files saved by earlier versions can still be opened. */
+    private static final long serialVersionUID = -1201142876422226000L;
+
     /**
      * <p>
      * The coordinates of the corners of the selected area. If there is no selected area, these will be equal to zero.
@@ -66,28 +72,7 @@ public class ConvertToGrey implements ImageOperation, java.io.Serializable {
      */
     public BufferedImage apply(BufferedImage input) {
         try{
-            for (int y = 0; y < input.getHeight(); ++y) {
-                for (int x = 0; x < input.getWidth(); ++x) {
-                    int argb = input.getRGB(x, y);
-                    int a = (argb & 0xFF000000) >> 24;
-                    int r = (argb & 0x00FF0000) >> 16;
-                    int g = (argb & 0x0000FF00) >> 8;
-                    int b = (argb & 0x000000FF);
-
-                    if(x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1){ // i.e. there is a selected area
-                        if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
-                            int grey = (int) Math.round(0.3*r + 0.6*g + 0.1*b);
-                            argb = (a << 24) | (grey << 16) | (grey << 8) | grey;
-                        }
-
-                    }else{ // i.e. there is no selected area
-                        int grey = (int) Math.round(0.3*r + 0.6*g + 0.1*b);
-                        argb = (a << 24) | (grey << 16) | (grey << 8) | grey;
-                    }
-
-                    input.setRGB(x, y, argb);
-                }
-            }
+            getLookup().apply(input, getRegion(input));
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
         }catch (java.awt.image.RasterFormatException ex) {
@@ -96,5 +81,66 @@ public class ConvertToGrey implements ImageOperation, java.io.Serializable {
         
         return input;
     }
+
+    /**
+     * <p>
+     * Get the lookup that converts a pixel to greyscale.
+     * </p>
+     * 
+     * <p>
+     * The weight of each red, green and blue value is looked up from a table,
+     * which gives exactly the same grey values as computing {@code 0.3*r + 0.6*g + 0.1*b} for every pixel.
+     * </p>
+     * 
+     * @return The greyscale lookup.
+     */
+    public ColourLookup getLookup() {
+        double[] weightR = new double[256], weightG = new double[256], weightB = new double[256];
+        for (int v = 0; v < 256; v++) {
+            weightR[v] = 0.3*v;
+            weightG[v] = 0.6*v;
+            weightB[v] = 0.1*v;
+        }
+        return ColourLookup.mixed(weightR, weightG, weightB);
+    }
+
+    /**
+     * <p>
+     * Get the region of an image that is converted to greyscale: the selected area, or the whole image if there is none.
+     * </p>
+     * 
+     * @param input The image to be converted to greyscale
+     * @return The region to convert.
+     */
+    public Rectangle getRegion(BufferedImage input) {
+        Rectangle image = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        if(x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) return image.intersection(new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1));
+        return image;
+    }
     
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a greyscale conversion of the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ConvertToGrey)) return false;
+        ConvertToGrey other = (ConvertToGrey) obj;
+        return x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(x1, y1, x2, y2);
+    }
 }
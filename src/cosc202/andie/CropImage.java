@@ -2,7 +2,9 @@ package cosc202.andie;
 
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 
 /**
@@ -23,6 +25,9 @@ import java.awt.image.*;
  */
 public class CropImage implements ImageOperation, java.io.Serializable {
 
+    /** Fixed at the version from before crops said whether they change their input, so that saved crops still load. */
+    private static final long serialVersionUID = -1141340442939298303L;
+
     private int x1, x2, y1, y2;
 
     /**
@@ -69,5 +74,57 @@ public class CropImage implements ImageOperation, java.io.Serializable {
         }
         return newImage;
     }
+
+    /**
+     * <p>
+     * Only the part of the changed area inside the selection is kept, moved along with the selection.
+     * </p>
+     * 
+     * @param input The image to be cropped.
+     * @param dirty The part of the input that changed.
+     * @return The part of the cropped image that may change.
+     */
+    @Override
+    public Rectangle mapDirtyRegion(BufferedImage input, Rectangle dirty) {
+        Rectangle mapped = new Rectangle(dirty.x - x1, dirty.y - y1, dirty.width, dirty.height);
+        return mapped.intersection(new Rectangle(x2 - x1, y2 - y1));
+    }
+
+    /**
+     * <p>
+     * The selected area is drawn into a new image, so the input is only read.
+     * </p>
+     * 
+     * @return False.
+     */
+    @Override
+    public boolean changesInput() {
+        return false;
+    }
     
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a crop to the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CropImage)) return false;
+        CropImage other = (CropImage) obj;
+        return x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(x1, y1, x2, y2);
+    }
 }
@@ -6,7 +6,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.DataFlavor;
@@ -14,6 +14,7 @@ import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.image.*;
 import javax.imageio.*;
+import javax.swing.event.EventListenerList;
 
 import cosc202.andie.draw.DrawBrush;
 import cosc202.andie.draw.DrawPanel;
@@ -39,6 +40,13 @@ import cosc202.andie.draw.DrawShape;
  * being used to allow undone operations to be redone.
  * </p>
  * 
+ * <p>
+ * Images are copied on write rather than whenever they are handed around: the original, the image on screen,
+ * the image a preview started from and the {@link CheckpointCache checkpoints} may all be the same object,
+ * and none of them is ever changed in place. An image is only copied just before it is given to an operation that
+ * changes its input (see {@link ImageOperation#changesInput()}), so operations that write a new image need no copy at all.
+ * </p>
+ * 
  * <p> 
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
@@ -54,6 +62,16 @@ public class EditableImage {
     private BufferedImage current;
     /** Stored image from when previewApply method is called */
     private BufferedImage tempOriginal;
+    /** Downsampled copies of {@link tempOriginal} for quick previews, or null if none have been needed yet. */
+    private ImagePyramid previewPyramid;
+    /** A preview worked out on a downsampled copy of the image, which is shown instead of {@link current}, or null if there is none. */
+    private BufferedImage previewImage;
+    /** Works out previews for slider dialogs in the background. */
+    private final PreviewScheduler previews = new PreviewScheduler(this);
+    /** The region where the displayed image differs from {@link tempOriginal}, or null if it is not known. */
+    private Rectangle previewRegion;
+    /** The listeners told about changes to the image. */
+    private final EventListenerList changeListeners = new EventListenerList();
     /** The sequence of operations currently applied to the image. */
     private Stack<ImageOperation> ops;
     /** A memory of 'undone' operations to support 'redo'. */
@@ -78,6 +96,16 @@ public class EditableImage {
     private Stack<ImageOperation> macroOps;
     /** Whether macro recording is active. */
     private boolean recording = false;
+    /** Intermediate results of {@link refresh}, so that it does not need to replay every operation. */
+    private CheckpointCache checkpoints = new CheckpointCache();
+    /** Results of operations that took a while to work out, in case the same operation is applied to the same pixels again. */
+    private ResultCache results = new ResultCache();
+    /** The {@code ColorModel} of the image as it was opened, which it is converted back to when it is written to a file. */
+    private ColorModel sourceColorModel;
+    /** The full-size image, if it was too large to open directly and {@link original} is a smaller copy of it, or null. */
+    private TiledImage document;
+    /** The number of pixels of {@link document} in each direction for every pixel of {@link original}, or 1 if there is no document. */
+    private int overviewFactor = 1;
 
     /**
      * <p>
@@ -127,6 +155,17 @@ public class EditableImage {
         return this.resizeTesting;
     }
 
+    /**
+     * <p>
+     * Returns the rotation accumulated by the rotations and flips applied to the image.
+     * </p>
+     * 
+     * @return The rotation, in degrees.
+     */
+    public int getRotation() {
+        return this.rotation;
+    }
+
     /**
      * <p>
      * Check if there is an image loaded.
@@ -174,13 +213,50 @@ public class EditableImage {
         return opsExtension;
     }
 
+    /**
+     * Gets the amount of memory that the undo history of each image may keep checkpoints in, before they are written out to disk.
+     * @return The memory budget, in bytes.
+     */
+    public static long getHistoryMemoryBudget(){
+        return CheckpointCache.getMemoryBudget();
+    }
+
+    /**
+     * Changes the amount of memory that the undo history of each image may keep checkpoints in, and stores it in the preferences.
+     * Checkpoints beyond the budget are compressed into temporary files rather than thrown away.
+     * @param bytes The memory budget, which is rounded down to whole megabytes.
+     */
+    public static void setHistoryMemoryBudget(long bytes){
+        CheckpointCache.setMemoryBudget(bytes);
+    }
+
+    /**
+     * Gets the number of pixels from which the undo history of an image keeps its checkpoints in memory-mapped files, off the Java heap.
+     * @return The threshold, in pixels.
+     */
+    public static long getOffHeapThreshold(){
+        return CheckpointCache.getOffHeapThreshold();
+    }
+
+    /**
+     * Changes the number of pixels from which the undo history of an image keeps its checkpoints off the Java heap, and stores it in the preferences.
+     * @param pixels The threshold, which is rounded down to whole megapixels.
+     */
+    public static void setOffHeapThreshold(long pixels){
+        CheckpointCache.setOffHeapThreshold(pixels);
+    }
+
     /**
      * Resets the temp original image after an operation, even if it was not applied,
      * because otherwise the program will continue to apply the next operation to 
      * tempOriginal, even if the file has been changed or several operations were pushed/popped.
      */
     private void resetTempOriginal(){
+        previews.cancel();
         tempOriginal = null;
+        previewRegion = null;
+        previewPyramid = null;
+        previewImage = null;
     }
 
     /**
@@ -218,7 +294,7 @@ public class EditableImage {
      * @param bi The BufferedImage to copy.
      * @return A deep copy of the input.
      */
-    private static BufferedImage deepCopy(BufferedImage bi) {
+    static BufferedImage deepCopy(BufferedImage bi) {
         BufferedImage result = null;
 
         ColorModel cm = bi.getColorModel();
@@ -240,9 +316,14 @@ public class EditableImage {
      * <p>
      * This method also sets {@code unsavedChanges} to false, and calls
      * {@code resetTempOriginal()} to ensure any previously opened images are forgotten.
-     * A new instance of {@code StackImage<Operation>} is created for the list of redo operations,
-     * and {@code deepCopy} is applied to {@code img} to make sure {@code current} and {@code original}
-     * point to two different objects.
+     * A new instance of {@code StackImage<Operation>} is created for the list of redo operations.
+     * {@code current} and {@code original} share {@code img}, which is safe because images are only ever
+     * copied before they are changed (see {@link ImageOperation#changesInput()}).
+     * </p>
+     * 
+     * <p>
+     * The image is normalized by {@link PixelAccess#normalize(BufferedImage)} so that operations can work on its pixels directly.
+     * The {@code ColorModel} it was opened with is kept, and only restored when the image is saved or exported.
      * </p>
      * 
      * 
@@ -250,21 +331,31 @@ public class EditableImage {
      * @param filename The name of the file being opened
      * @param extension The file time of the current image
      * @param ops The list of previously applied operations
+     * @param document The full-size image, if {@code img} is a smaller copy of it, or null
+     * @param overviewFactor The number of pixels of {@code document} in each direction for every pixel of {@code img}, or 1 if there is no document
      */
-    private void setDatafields(BufferedImage img, String filename, String extension, Stack<ImageOperation> ops) {
+    private void setDatafields(BufferedImage img, String filename, String extension, Stack<ImageOperation> ops, TiledImage document, int overviewFactor) {
+        if (this.document != null) this.document.dispose();
+        this.document = document;
+        this.overviewFactor = overviewFactor;
+        this.sourceColorModel = img.getColorModel();
+        img = PixelAccess.normalize(img);
         this.current = img;
-        this.original = deepCopy(img);
+        this.original = img;
         this.imageFilename = filename;
         if(filename != null) this.opsFilename = filename + "." + opsExtension;
         else this.opsFilename = null;
         this.extension = extension;
         this.ops = ops;
         this.redoOps = new Stack<ImageOperation>();
+        this.checkpoints.clear(); //Checkpoints of the previous image are no use any more
+        this.results.clear();
         this.refresh(); //Redraw
         resetTempOriginal(); //Need to reset this, otherwise the new image will think it is still the old image
         unsavedChanges = false; //Tell the program that there are no unsaved changes
         //Check that the currently selected colours account for the transparency of the current image.
         DrawPanel.setTransparencyEnabled(this.current.getColorModel().hasAlpha());
+        fireImageChanged(null);
     }
     
     /**
@@ -279,6 +370,18 @@ public class EditableImage {
      * read the operations from <code>some/path/to/image.png.ops</code>.
      * </p>
      * 
+     * <p>
+     * An image that is too large to fit in memory (see {@link #getMaxOpenPixels()}) is opened as a {@link TiledImage},
+     * which only reads the parts of the file that are needed, and a smaller copy of it is shown and edited instead.
+     * </p>
+     * 
+     * <p>
+     * Operations work in the pixels of the image being edited, so the operations file also records how much smaller
+     * that image was (see {@link #save()}). If the image is now opened at another size, e.g. with a different maximum heap size,
+     * the operations are {@link ImageOperation#scaledBy(double, double) scaled} to it. If some of them cannot be scaled, the image
+     * is opened at the size the operations were saved at instead, as long as it fits; otherwise the operations are not applied.
+     * </p>
+     * 
      * @param filePath The file to open the image from.
      */
     public void open(String filePath) {
@@ -288,6 +391,8 @@ public class EditableImage {
         String opsFilenameCheck = filePath + "." + opsExtension;
         String extensionCheck = null;
         BufferedImage currentCheck = null;
+        TiledImage documentCheck = null;
+        int factorCheck = 1;
 
         Stack<ImageOperation> opsFromFile = null;
         FileInputStream fileIn = null;
@@ -296,7 +401,10 @@ public class EditableImage {
         try {
             //Attempt to open the file and get the extension
             File imageFile = new File(imageFilenameCheck);
-            currentCheck = ImageIO.read(imageFile);
+            documentCheck = TiledImage.read(imageFile);
+            if (documentCheck != null && (long) documentCheck.getWidth() * documentCheck.getHeight() > getMaxOpenPixels()) {
+                factorCheck = chooseOverviewFactor(documentCheck.getWidth(), documentCheck.getHeight());
+            }
             extensionCheck = imageFilenameCheck.substring(1 + imageFilenameCheck.lastIndexOf(".")).toLowerCase();
             
             //Attempt to load in the operations
@@ -312,8 +420,22 @@ public class EditableImage {
             @SuppressWarnings("unchecked")
             Stack<ImageOperation> opsTemp = (Stack<ImageOperation>) objIn.readObject();
             opsFromFile = opsTemp;
+            int savedFactor = readOverviewFactor(objIn);
             objIn.close();
             fileIn.close();
+
+            if (savedFactor != factorCheck) { // The operations were saved from a copy of another size
+                Stack<ImageOperation> scaled = scaleOps(opsFromFile, savedFactor / (double) factorCheck);
+                if (scaled != null) {
+                    opsFromFile = scaled;
+                } else if (documentCheck != null && (long) ((documentCheck.getWidth() + savedFactor - 1) / savedFactor)
+                        * ((documentCheck.getHeight() + savedFactor - 1) / savedFactor) <= getMaxOpenPixels()) {
+                    factorCheck = savedFactor;
+                } else {
+                    UserMessage.showWarning(UserMessage.OVERVIEW_OPS_WARN);
+                    opsFromFile = new Stack<ImageOperation>();
+                }
+            }
         }catch(FileNotFoundException e){// This Exception means that there is no associated operations file - so need to reset it in case there was a previous file open.
             opsFromFile = new Stack<ImageOperation>();
         }catch (javax.imageio.IIOException ex) { //File doesn't exist - don't load any of the local variables to the datafields.
@@ -330,14 +452,124 @@ public class EditableImage {
                     opsFromFile = new Stack<ImageOperation>(); //Make sure that there is an operation stack to use!
                 }catch(Exception e){/*Pretend like nothing happened (if it can't delete the file, it'll just overwrite it anyway)*/}
             }else{
+                if (documentCheck != null) documentCheck.dispose();
                 return;
             }
         }catch(Exception ex){ //Something else goes wrong
             UserMessage.showWarning(UserMessage.GENERIC_WARN);
         }
 
+        try {
+            if (factorCheck > 1) {
+                currentCheck = documentCheck.getOverview(factorCheck);
+            } else {
+                if (documentCheck != null) documentCheck.dispose();
+                documentCheck = null;
+                currentCheck = ImageIO.read(new File(imageFilenameCheck));
+            }
+        } catch (Exception ex) {
+            UserMessage.showWarning(UserMessage.GENERIC_WARN);
+        }
+
         //Only load the files in if there aren't any big issues.
-        if (currentCheck != null) setDatafields(currentCheck, imageFilenameCheck, extensionCheck, opsFromFile);
+        if (currentCheck != null) {
+            setDatafields(currentCheck, imageFilenameCheck, extensionCheck, opsFromFile, documentCheck, factorCheck);
+        } else if (documentCheck != null) {
+            documentCheck.dispose();
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the number of pixels in the largest image that is opened directly, rather than as a smaller copy of a {@link TiledImage}.
+     * </p>
+     * 
+     * <p>
+     * This is as many pixels as fit in a quarter of the maximum heap size, as operations need room for a few copies of the image,
+     * and never more than a {@code BufferedImage} can hold.
+     * </p>
+     * 
+     * @return The number of pixels.
+     */
+    public static long getMaxOpenPixels() {
+        return Math.min(Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    /**
+     * Works out how much to shrink an image that is too large to open, so that the copy that is edited has at most
+     * a quarter of {@link #getMaxOpenPixels()} pixels.
+     * 
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The number of pixels in each direction for every pixel of the copy.
+     */
+    private static int chooseOverviewFactor(int width, int height) {
+        int factor = 2;
+        while ((long) ((width + factor - 1) / factor) * ((height + factor - 1) / factor) > getMaxOpenPixels() / 4) factor++;
+        return factor;
+    }
+
+    /**
+     * <p>
+     * Check whether the image being edited is a smaller copy of an image that was too large to open.
+     * </p>
+     * 
+     * @return True if the image was opened as a {@link TiledImage}.
+     */
+    public boolean isOverview() {
+        return document != null;
+    }
+
+    /**
+     * <p>
+     * Get how much smaller the image being edited is than the image that was opened.
+     * </p>
+     * 
+     * @return The number of pixels of the opened image in each direction for every pixel being edited, or 1 if it is not an {@link #isOverview() overview}.
+     */
+    public int getOverviewFactor() {
+        return overviewFactor;
+    }
+
+    /**
+     * Read the overview factor that is written after the operations in an operations file (see {@link #save()}).
+     * 
+     * @param objIn The stream the operations were read from.
+     * @return The factor, or 1 if the file was written before factors were recorded.
+     * @throws IOException if the file cannot be read.
+     * @throws ClassNotFoundException if the file holds something else after the operations.
+     */
+    private static int readOverviewFactor(ObjectInputStream objIn) throws IOException, ClassNotFoundException {
+        try {
+            Object factor = objIn.readObject();
+            return factor instanceof Integer && (Integer) factor > 0 ? (Integer) factor : 1;
+        } catch (EOFException ex) {
+            return 1;
+        }
+    }
+
+    /**
+     * <p>
+     * Scale a stack of operations that was saved from a copy of an image of another size.
+     * </p>
+     * 
+     * <p>
+     * Rotations, flips and resizes do not depend on the size of the image, so they are kept as they are.
+     * Every other operation must be {@link ImageOperation#scaledBy(double, double) scaled}.
+     * </p>
+     * 
+     * @param ops The operations.
+     * @param scale The size of the image they are applied to now, as a fraction of the size they were saved from.
+     * @return The scaled operations, or null if some operation cannot be scaled.
+     */
+    private static Stack<ImageOperation> scaleOps(Stack<ImageOperation> ops, double scale) {
+        Stack<ImageOperation> scaled = new Stack<ImageOperation>();
+        for (ImageOperation op : ops) {
+            ImageOperation s = GeometryPlanner.isGeometric(op) ? op : op.scaledBy(scale, scale);
+            if (s == null) return null;
+            scaled.push(s);
+        }
+        return scaled;
     }
 
     /**
@@ -352,6 +584,12 @@ public class EditableImage {
      * the current operations to <code>some/path/to/image.png.ops</code>.
      * </p>
      * 
+     * <p>
+     * The {@link #getOverviewFactor() overview factor} is written after the operations, so that they can be scaled
+     * if the image is opened at another size (see {@link #open(String)}). Versions of ANDIE before this only read
+     * the operations, so they can still open the file.
+     * </p>
+     * 
      * @return Whether the operation was successful.
      */
     public boolean save() {
@@ -360,11 +598,17 @@ public class EditableImage {
         }
         try{
             // Write image file based on file extension
-            ImageIO.write(original, extension, new File(imageFilename));
+            if (document == null) {
+                ImageIO.write(PixelAccess.toColorModel(original, sourceColorModel), extension, new File(imageFilename));
+            } else if (!new File(imageFilename).getCanonicalFile().equals(document.getFile().getCanonicalFile())) {
+                // The original is never changed, so the file it is read from does not need writing (and cannot be, while it is being read)
+                if (!ImageIO.write(document, extension, new File(imageFilename))) throw new IOException("No writer for " + extension);
+            }
             // Write operations file
             FileOutputStream fileOut = new FileOutputStream(this.opsFilename);
             ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
             objOut.writeObject(this.ops);
+            objOut.writeObject(Integer.valueOf(overviewFactor));
             objOut.close();
             fileOut.close();
 
@@ -422,12 +666,20 @@ public class EditableImage {
      * new file, and no operations file is generated.
      * </p>
      * 
+     * <p>
+     * If the image being edited is a smaller copy of an image that was too large to open, the full-size image is exported
+     * (see {@link #exportDocument(String, File)}). If the operations cannot be applied to it, the user is asked whether to
+     * export the smaller copy instead.
+     * </p>
+     * 
      * @param imageFilename The file location to export the image to.
      */
     public void export(String imageFilename) {
         try{
             String extensionCheck = imageFilename.substring(imageFilename.lastIndexOf(".") + 1).toLowerCase();
-            BufferedImage img = current;
+            if (exportDocument(extensionCheck, new File(imageFilename))) return;
+            if (document != null && UserMessage.showDialog(UserMessage.EXPORT_OVERVIEW_DIALOG) != UserMessage.YES_OPTION) return;
+            BufferedImage img = PixelAccess.toColorModel(current, sourceColorModel);
 
             if (extensionCheck.equals("jpg") || extensionCheck.equals("jpeg")) {
                 img = new BufferedImage(current.getWidth(), current.getHeight(), BufferedImage.TYPE_INT_RGB);
@@ -444,6 +696,42 @@ public class EditableImage {
 
     }
 
+    /**
+     * <p>
+     * Export the full-size image, if the image being edited is a smaller copy of it and the operations can be applied to it.
+     * </p>
+     * 
+     * <p>
+     * The operations are applied a tile at a time (see {@link TiledImage#apply(ImageOperation, int)}) while the image is
+     * written, so the full-size image is never in memory all at once, with each tile reading the pixels within the operation's
+     * {@link ImageOperation#getHalo() halo} around it. This is only done when every operation changes the whole image and
+     * is either a {@link PointOperation} or can be {@link ImageOperation#scaledBy(double, double) scaled} to the full size,
+     * and the format can hold the image's transparency.
+     * </p>
+     * 
+     * @param extension The format to export to.
+     * @param file The file to export to.
+     * @return True if the full-size image was exported, or false if there is no full-size image or it cannot be exported.
+     * @throws IOException if the image cannot be written.
+     */
+    private boolean exportDocument(String extension, File file) throws IOException {
+        if (document == null || (document.hasAlpha() && (extension.equals("jpg") || extension.equals("jpeg")))) return false;
+        TiledImage result = document;
+        Rectangle whole = new Rectangle(original.getWidth(), original.getHeight());
+        for (ImageOperation op : ops) {
+            if (GeometryPlanner.isGeometric(op) || !op.getRegion(original).equals(whole)) return false;
+            ImageOperation scaled = op instanceof PointOperation ? op
+                    : op.scaledBy(document.getWidth() / (double) original.getWidth(), document.getHeight() / (double) original.getHeight());
+            if (scaled == null) return false;
+            result = result.apply(scaled, scaled.getHalo());
+        }
+        try {
+            return ImageIO.write(result, extension, file);
+        } catch (java.io.UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
     /**
      * Ensures that the extension on the file name is appropriate.
      * 
@@ -490,32 +778,157 @@ public class EditableImage {
      * Apply an {@link ImageOperation} to this image.
      * </p>
      * 
+     * <p>
+     * The operation is worked out on the calling thread. {@link OperationRunner} applies operations in the background instead.
+     * </p>
+     * 
      * @param op The operation to apply.
      */
     public void apply(ImageOperation op) {
+        if(op == null) return;
+        PendingApply pending = new PendingApply(op);
         try{
-            if(op == null) return;
-            refresh();
-            if (this.tempOriginal == null){
-                this.tempOriginal = deepCopy(current);
+            pending.compute();
+        }catch(Exception ex){
+            pending.fail(ex);
+            return;
+        }
+        pending.commit();
+    }
+
+    /**
+     * <p>
+     * An {@link ImageOperation} that is being applied to this image.
+     * </p>
+     * 
+     * <p>
+     * Applying an operation is split in two, so that the slow part can run in the background.
+     * {@link #compute()} works out the new image from a snapshot of the operation stack taken when the
+     * {@code PendingApply} is created, and does not change anything that is displayed, so it can run on any thread.
+     * {@link #commit()} then publishes the result all at once, and must be called on the event dispatch thread
+     * (or the thread that owns the image). If the operation fails or is cancelled, {@link #fail(Throwable)}
+     * leaves the image as it was.
+     * </p>
+     */
+    class PendingApply {
+        /** The operation being applied. */
+        private final ImageOperation op;
+        /** The operation stack with the operation on top. */
+        private final List<ImageOperation> replay;
+        /** The image to apply the operation to if the stack cannot be replayed. */
+        private final BufferedImage base;
+        /** The rotation and resize scale when the operation was started. */
+        private final int baseRotation;
+        private final double baseResizeScale;
+        /** The new image, or null if it has not been worked out or the operation did not return a result. */
+        private Render result;
+
+        /**
+         * Start applying an operation to the image as it is now.
+         * 
+         * @param op The operation to apply.
+         */
+        PendingApply(ImageOperation op) {
+            this.op = op;
+            this.replay = new ArrayList<ImageOperation>(ops);
+            this.replay.add(op);
+            this.base = tempOriginal == null ? current : tempOriginal;
+            this.baseRotation = rotation;
+            this.baseResizeScale = resizeTesting;
+            previews.cancel(); // A preview that is still being worked out is out of date now
+        }
+
+        /**
+         * Get the operation being applied.
+         * 
+         * @return The operation.
+         */
+        ImageOperation getOperation() {
+            return op;
+        }
+
+        /**
+         * <p>
+         * Work out the image with the operation applied, without changing the image.
+         * </p>
+         * 
+         * <p>
+         * The stack is replayed (from the nearest checkpoint) with the operation on top, only over the part of the image the
+         * operation changes if it can be (see {@link #renderArea(List, BufferedImage, int, Rectangle)}). If it cannot be replayed, e.g. after a crop,
+         * the operation is applied to the image as it was displayed instead.
+         * </p>
+         * 
+         * @throws java.util.concurrent.CancellationException if the {@link OperationProgress#current() current progress} is cancelled.
+         * @throws Exception if the operation fails.
+         */
+        void compute() throws Exception {
+            try {
+                // Unless the image it is applied to is a checkpoint, an operation that only changes part of the image (e.g. a brush stroke)
+                // only needs that part of the stack replayed
+                if (!GeometryPlanner.isGeometric(op) && !(op instanceof CropImage) && baseRotation % 360 == 0 && baseResizeScale == 1.0
+                        && !checkpoints.isReady(replay.subList(0, replay.size() - 1))) {
+                    BufferedImage image = renderArea(replay, base, replay.size() - 1, op.getRegion(base));
+                    if (image != null) {
+                        result = new Render(image, baseRotation, baseResizeScale);
+                        return;
+                    }
+                }
+                result = render(replay, 0, null);
+                return;
+            } catch (java.util.concurrent.CancellationException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                // Fall through, and apply the operation to the displayed image
             }
+            BufferedImage image = applyCached(op, base, true);
+            if (image != null) result = new Render(image, baseRotation, baseResizeScale); //Only count this as a valid operation if it returns non-null value.
+        }
 
-            BufferedImage result = op.apply(tempOriginal);
+        /**
+         * <p>
+         * Publish the result of {@link #compute()}, and push the operation onto the stack if it was valid.
+         * </p>
+         */
+        void commit() {
             resetTempOriginal(); //Need to reset this, otherwise the new image will think it is still the old image
-            if(result != null){ //Only count this as a valid operation if it returns non-null value.
-                current = result;
+            if (result != null) {
                 ops.add(op);
+                checkpoints.retain(ops, redoOps); //Drop checkpoints that belong to a history that has been replaced
                 if(isRecording()) macroOps.add(op);
                 unsavedChanges = true;
+                current = result.image();
+                rotation = result.rotation();
+                resizeTesting = result.resizeScale();
+                fireImageChanged(null);
+            } else {
+                refresh();
             }
-            refresh();
             Andie.getImagePanel().getSelection().reset(); // Not in refresh because may we want to keep the selection through previewApply
-        }catch(NullPointerException ex){ // If there is a NullPointerException, then we have a null image
-            UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
-        }catch(java.awt.image.RasterFormatException ex){ // The image's data is in an incorrect format.
-            UserMessage.showWarning(UserMessage.INVALID_IMG_FILE_WARN);
-        } catch (Exception ex) { // Just in case!
-            UserMessage.showWarning(UserMessage.GENERIC_WARN);
+        }
+
+        /**
+         * <p>
+         * Give up on the operation after {@link #compute()} has thrown an exception, leaving the image as it was.
+         * </p>
+         * 
+         * <p>
+         * The user is warned about the failure, unless the operation was cancelled.
+         * </p>
+         * 
+         * @param ex The exception thrown by {@link #compute()}.
+         */
+        void fail(Throwable ex) {
+            if (ex instanceof java.util.concurrent.CancellationException) {
+                // Get rid of any preview of the operation, but keep the selection so it can be tried again
+                resetTempOriginal();
+                refresh();
+            } else if (ex instanceof NullPointerException) { // If there is a NullPointerException, then we have a null image
+                UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
+            } else if (ex instanceof java.awt.image.RasterFormatException) { // The image's data is in an incorrect format.
+                UserMessage.showWarning(UserMessage.INVALID_IMG_FILE_WARN);
+            } else { // Just in case!
+                UserMessage.showWarning(UserMessage.GENERIC_WARN);
+            }
         }
     }
 
@@ -531,23 +944,207 @@ public class EditableImage {
     public void previewApply(ImageOperation op) {
         try {
             if(op == null) return;
-            if (this.tempOriginal == null){
-                this.tempOriginal = deepCopy(current);
+            previews.cancel();
+            PendingPreview preview = new PendingPreview(op, false, 1.0);
+            preview.compute();
+            preview.publish();
+        }catch(Exception ex){ //Do not want to show the warning here, otherwise the user could be spammed.
+            //UserMessage.showWarning(UserMessage.GENERIC_WARN);
+        }
+    }
+
+    /**
+     * <p>
+     * Show roughly what the image will look like when this.apply(ImageOperation op) is executed, as quickly as possible.
+     * Does not save operation to ops.
+     * </p>
+     * 
+     * <p>
+     * Rather than the full-size image, the operation is applied to the smallest copy of it in an {@link ImagePyramid}
+     * that still has enough pixels to be shown at {@code displayScale}, using {@link ImageOperation#scaledBy(double, double)}.
+     * The result is available from {@link getPreviewImage()} until the next preview, and the current image is left as it is.
+     * If the operation cannot be scaled, or the full-size image is needed anyway, this is the same as {@link previewApply(ImageOperation)}.
+     * </p>
+     * 
+     * <p>
+     * This waits for the preview to be worked out. Dialogs that preview an operation every time a slider moves
+     * should use {@link getPreviewScheduler()} instead.
+     * </p>
+     * 
+     * @param op The operation to preview.
+     * @param displayScale The size the image is shown at, as a fraction of its full size.
+     */
+    public void previewApply(ImageOperation op, double displayScale) {
+        try {
+            if(op == null) return;
+            previews.cancel();
+            PendingPreview preview = new PendingPreview(op, true, displayScale);
+            preview.compute();
+            preview.publish();
+        }catch(Exception ex){ //Do not want to show the warning here, otherwise the user could be spammed.
+        }
+    }
+
+    /**
+     * <p>
+     * Stop previewing, and show the image as it was before the preview started.
+     * </p>
+     * 
+     * <p>
+     * The image from before the preview is kept in {@link tempOriginal}, so this takes no time however large the image is.
+     * </p>
+     */
+    public void cancelPreview() {
+        if (tempOriginal == null) return;
+        Rectangle region = previewImage == null ? previewRegion : null;
+        current = tempOriginal;
+        resetTempOriginal();
+        fireImageChanged(region);
+    }
+
+    /**
+     * <p>
+     * Check whether an operation is being previewed.
+     * </p>
+     * 
+     * @return True if the image shown may be a preview, rather than the result of the operations applied so far.
+     */
+    public boolean hasPreview() {
+        return tempOriginal != null;
+    }
+
+    /**
+     * <p>
+     * Get the scheduler that works out previews of this image in the background.
+     * </p>
+     * 
+     * @return The preview scheduler for this image.
+     */
+    public PreviewScheduler getPreviewScheduler() {
+        return previews;
+    }
+
+    /**
+     * <p>
+     * A preview of an {@link ImageOperation} that is being worked out.
+     * </p>
+     * 
+     * <p>
+     * Like {@link PendingApply}, a preview is split in two. {@link #compute()} works out the preview from
+     * {@link tempOriginal} as it was when the {@code PendingPreview} was created, and can run on any thread.
+     * {@link #publish()} then shows it, on the event dispatch thread, unless the image has changed in the meantime.
+     * </p>
+     */
+    class PendingPreview {
+        /** The operation being previewed. */
+        private final ImageOperation op;
+        /** The size the image is shown at, as a fraction of its full size. */
+        private final double displayScale;
+        /** The image to preview the operation on. */
+        private final BufferedImage base;
+        /** Downsampled copies of {@link base}, or null if the preview must be full size. */
+        private final ImagePyramid pyramid;
+        /** The operation stack, for filters that are previewed by refreshing the image. */
+        private final List<ImageOperation> stack;
+        /** The preview on a downsampled copy of the image, or null if it is full size. */
+        private BufferedImage proxy;
+        /** The full-size preview, or null. */
+        private BufferedImage full;
+        /** The refreshed image with the filter applied, or null. */
+        private Render refreshed;
+
+        /**
+         * Start previewing an operation on the image as it is now.
+         * 
+         * @param op The operation to preview.
+         * @param downsample Whether the preview may be worked out on a downsampled copy of the image.
+         * @param displayScale The size the image is shown at, as a fraction of its full size.
+         */
+        PendingPreview(ImageOperation op, boolean downsample, double displayScale) {
+            if (tempOriginal == null){
+                tempOriginal = current; // Previews replace current rather than changing it, so it does not need copying
+                previewRegion = new Rectangle();
             }
-            BufferedImage result = op.apply(deepCopy(tempOriginal));
-            if(result != null){ //Only count this as a valid operation if it returns non-null value.
-                current = result;
+            if (downsample && previewPyramid == null) {
+                previewPyramid = new ImagePyramid(tempOriginal);
             }
-            
+            this.op = op;
+            this.displayScale = displayScale;
+            this.base = tempOriginal;
+            this.pyramid = downsample ? previewPyramid : null;
+            this.stack = new ArrayList<ImageOperation>(ops);
+        }
+
+        /**
+         * <p>
+         * Work out the preview, without changing the image.
+         * </p>
+         * 
+         * @throws java.util.concurrent.CancellationException if the {@link OperationProgress#current() current progress} is cancelled.
+         * @throws Exception if the operation fails.
+         */
+        void compute() throws Exception {
+            if (pyramid != null) {
+                BufferedImage level = pyramid.previewLevel(displayScale);
+                ImageOperation scaled = null;
+                if (level != base) {
+                    scaled = op.scaledBy(level.getWidth() / (double) base.getWidth(), level.getHeight() / (double) base.getHeight());
+                }
+                if (scaled != null) {
+                    proxy = applyCached(scaled, level, true);
+                    return;
+                }
+            }
+
             // If op is an instance of a filter using convolution, refresh filters differently
             if (op instanceof EmbossFilter || op instanceof GaussianBlurFilter || op instanceof SobelFilter || op instanceof MeanFilter || op instanceof DrawBrush || op instanceof DrawShape) {
-                refresh(0, op);
+                try {
+                    refreshed = render(stack, 0, op);
+                    return;
+                } catch (java.util.concurrent.CancellationException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    // Show the filter applied to the image as it was instead
+                }
             }
-            
-
+            full = applyCached(op, base, true);
+        }
 
-        }catch(Exception ex){ //Do not want to show the warning here, otherwise the user could be spammed.
-            //UserMessage.showWarning(UserMessage.GENERIC_WARN);
+        /**
+         * <p>
+         * Show the preview worked out by {@link #compute()}.
+         * </p>
+         * 
+         * @return True if the preview was shown, or false if the image has changed since the preview was started.
+         */
+        boolean publish() {
+            if (base != tempOriginal) return false;
+            if (proxy != null) {
+                previewImage = proxy;
+                previewRegion = null;
+                fireImageChanged(null);
+                return true;
+            }
+            // An operation only changes its own region (e.g. the selection), so only that and the region changed by the last preview need redrawing
+            Rectangle region = null;
+            if (refreshed == null && full != null && !GeometryPlanner.isGeometric(op)
+                    && full.getWidth() == base.getWidth() && full.getHeight() == base.getHeight()) {
+                region = op.getRegion(base);
+            }
+            Rectangle dirty = null;
+            if (region != null && previewRegion != null && previewImage == null) {
+                dirty = previewRegion.isEmpty() ? region : region.union(previewRegion);
+            }
+            previewImage = null;
+            previewRegion = region;
+            if (full != null) current = full; //Only count this as a valid operation if it returns non-null value.
+            if (refreshed != null) {
+                current = refreshed.image();
+                rotation = refreshed.rotation();
+                resizeTesting = refreshed.resizeScale();
+            }
+            fireImageChanged(dirty);
+            return true;
         }
     }
 
@@ -556,6 +1153,11 @@ public class EditableImage {
      * Apply operations from an existing operation file to the current image.
      * </p>
      * 
+     * <p>
+     * Operations that were saved from an image of another {@link #getOverviewFactor() size} are scaled to this one,
+     * and none are applied if some of them cannot be.
+     * </p>
+     * 
      * @param opsFilePath The location of the ops file to apply
      */
     public void applyOpsFile(String opsFilePath) {
@@ -574,9 +1176,16 @@ public class EditableImage {
             @SuppressWarnings("unchecked")
             Stack<ImageOperation> opsTemp = (Stack<ImageOperation>) objIn.readObject();
             opsFromFile = opsTemp;
+            int savedFactor = readOverviewFactor(objIn);
             objIn.close();
             fileIn.close();
 
+            if (savedFactor != overviewFactor) opsFromFile = scaleOps(opsFromFile, savedFactor / (double) overviewFactor);
+            if (opsFromFile == null) {
+                UserMessage.showWarning(UserMessage.OVERVIEW_OPS_WARN);
+                return;
+            }
+
             //Only load the files in if there aren't any big issues.
             if (!opsFromFile.isEmpty()) {
                 for (ImageOperation op : opsFromFile) {
@@ -605,6 +1214,7 @@ public class EditableImage {
             ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
 
             objOut.writeObject(this.macroOps);
+            objOut.writeObject(Integer.valueOf(overviewFactor));
             objOut.close();
             fileOut.close();
         }catch (NullPointerException ex){
@@ -623,6 +1233,13 @@ public class EditableImage {
      * <p>
      * Undo the last {@link ImageOperation} applied to the image.
      * </p>
+     * 
+     * <p>
+     * If there is a checkpoint of the image from before the operation, it is shown again. Otherwise, if the operation has an
+     * exact {@link ImageOperation#getInverse() inverse}, the inverse is applied to the image on screen, which only takes one pass
+     * over it. Otherwise, if the operation only changed part of the image, only that part of the stack is replayed
+     * (see {@link #renderArea(List, BufferedImage, int, Rectangle)}). Failing all of these, the operation stack is {@link refresh}ed without it.
+     * </p>
      */
     public void undo(){
         if (!hasImage()) {
@@ -630,16 +1247,89 @@ public class EditableImage {
             return;
         }
         try{
+            BufferedImage shown = tempOriginal == null ? current : tempOriginal; // the image without any preview
             resetTempOriginal(); // make sure we aren't using an old version of the image
             redoOps.push(ops.pop());
             if(isRecording()) macroOps.pop();
-            refresh();
+            if (checkpoints.isReady(ops) || !applyInverse(redoOps.peek(), shown) && !undoArea(redoOps.peek(), shown)) refresh();
             unsavedChanges = true;
         }catch(EmptyStackException ex){
             UserMessage.showWarning(UserMessage.EMPTY_UNDO_STACK_WARN);
         }
     }
 
+    /**
+     * <p>
+     * Undo an operation by applying its inverse to the image, rather than replaying the operation stack.
+     * </p>
+     * 
+     * <p>
+     * The image on screen is only the same as the result of the stack (before it is resized and masked) when it has not
+     * been resized and has only been rotated by multiples of 90 degrees (or not at all, if a side is odd), so the inverse is not used otherwise.
+     * Inverse rotations and flips go through a {@link GeometryPlanner}, so the accumulated rotation is kept up to date.
+     * </p>
+     * 
+     * @param op The operation to undo, which has just been taken off the stack.
+     * @param shown The image with the operation applied, which is not changed.
+     * @return True if the operation was undone, or false if the stack needs to be replayed instead.
+     */
+    private boolean applyInverse(ImageOperation op, BufferedImage shown) {
+        ImageOperation inverse = op.getInverse();
+        if (inverse == null || resizeTesting != 1.0 || rotation % 90 != 0) return false;
+        // Rotating an image with an odd width or height about its centre moves it by a pixel, so then the image on screen
+        // is only the result of the stack if it is not rotated at all, before and after the operation is undone
+        boolean even = original.getWidth() % 2 == 0 && original.getHeight() % 2 == 0 && shown.getWidth() % 2 == 0 && shown.getHeight() % 2 == 0;
+        if (!even && (rotation % 360 != 0 || GeometryPlanner.isGeometric(inverse))) return false;
+        BufferedImage image;
+        int newRotation = rotation;
+        Rectangle region = null;
+        try {
+            if (GeometryPlanner.isGeometric(inverse)) {
+                GeometryPlanner geometry = new GeometryPlanner(original.getWidth(), original.getHeight(), rotation, resizeTesting);
+                image = geometry.apply(shown, List.of(inverse));
+                newRotation = geometry.getRotation();
+            } else {
+                image = applyShared(inverse, shown, true);
+                if (image.getWidth() == shown.getWidth() && image.getHeight() == shown.getHeight()) region = inverse.getRegion(shown);
+            }
+        } catch (Exception ex) {
+            return false;
+        }
+        if (image == null) return false;
+        current = image;
+        rotation = newRotation;
+        previewRegion = null;
+        fireImageChanged(region);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Undo an operation that only changed part of the image, by replaying the stack over just that part.
+     * </p>
+     * 
+     * @param op The operation to undo, which has just been taken off the stack.
+     * @param shown The image with the operation applied, which is not changed.
+     * @return True if the operation was undone, or false if the whole stack needs to be replayed instead.
+     */
+    private boolean undoArea(ImageOperation op, BufferedImage shown) {
+        if (GeometryPlanner.isGeometric(op) || op instanceof CropImage || rotation % 360 != 0 || resizeTesting != 1.0) return false;
+        Rectangle region = op.getRegion(shown);
+        BufferedImage image;
+        try {
+            image = renderArea(ops, shown, ops.size(), region);
+        } catch (java.util.concurrent.CancellationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            return false;
+        }
+        if (image == null) return false;
+        current = image;
+        previewRegion = null;
+        fireImageChanged(region);
+        return true;
+    }
+
     /**
      * <p>
      *  Undo all operations applied to the image.
@@ -773,7 +1463,7 @@ public class EditableImage {
             }
             if(extensionCheck == null) extensionCheck = img.getColorModel().hasAlpha() ? "png" : "jpg"; // Default to PNG or JPG if there is no file extension known.
 
-            setDatafields(img, null, extensionCheck, new Stack<ImageOperation>());
+            setDatafields(img, null, extensionCheck, new Stack<ImageOperation>(), null, 1);
             unsavedChanges = true;
         
         }catch(Exception e){
@@ -835,6 +1525,57 @@ public class EditableImage {
         return current;
     }
 
+    /**
+     * <p>
+     * Get the latest preview from {@link previewApply(ImageOperation, double)}, if it was worked out on a downsampled copy of the image.
+     * </p>
+     * 
+     * <p>
+     * The preview is smaller than the current image, and should be scaled up to {@link getDimensions()} to show it.
+     * </p>
+     * 
+     * @return The downsampled preview, or null if the current image should be shown instead.
+     */
+    public BufferedImage getPreviewImage() {
+        return previewImage;
+    }
+
+    /**
+     * <p>
+     * Add a listener to be told whenever the image changes, e.g. to redraw it.
+     * </p>
+     * 
+     * @param listener The listener to add.
+     */
+    public void addImageChangeListener(ImageChangeListener listener) {
+        changeListeners.add(ImageChangeListener.class, listener);
+    }
+
+    /**
+     * <p>
+     * Stop telling a listener about changes to the image.
+     * </p>
+     * 
+     * @param listener The listener to remove.
+     */
+    public void removeImageChangeListener(ImageChangeListener listener) {
+        changeListeners.remove(ImageChangeListener.class, listener);
+    }
+
+    /**
+     * <p>
+     * Tell the listeners that the image has changed.
+     * </p>
+     * 
+     * @param region The region of the image that changed, or null if all of it may have changed.
+     */
+    private void fireImageChanged(Rectangle region) {
+        ImageChangeListener[] listeners = changeListeners.getListeners(ImageChangeListener.class);
+        if (listeners.length == 0) return;
+        ImageChangeEvent e = new ImageChangeEvent(this, region);
+        for (ImageChangeListener listener : listeners) listener.imageChanged(e);
+    }
+
     /**
      * <p>
      * Reapply the current list of operations to the original.
@@ -847,6 +1588,17 @@ public class EditableImage {
      * cannot be easily incrementally updated. 
      * </p>
      * 
+     * <p>
+     * Rather than always starting from the original, the refresh resumes from the furthest
+     * {@link CheckpointCache} entry that matches the operation stack, and stores new checkpoints as it goes.
+     * </p>
+     * 
+     * <p>
+     * Runs of {@link PointOperation}s over the same region are combined into a single {@link ColourLookup},
+     * so e.g. a greyscale conversion followed by several brightness/contrast adjustments takes one pass over the image.
+     * Runs of rotations, flips and resizes are composed by a {@link GeometryPlanner} and resampled once.
+     * </p>
+     * 
      */
     public void refresh() {
         refresh(0, null);
@@ -855,85 +1607,235 @@ public class EditableImage {
     
     private void refresh(int additionalRotation, ImageOperation convolveOp){
         try {
-            this.rotation = 0;
-            this.resizedScale = 1.0;
-            this.resizeTesting = 1.0;
-            double resizeByAtEnd = 1.0;
-            BufferedImage result = deepCopy(original);
-            int totalRotation = additionalRotation;
-            for (ImageOperation op : ops) {
-                // apply all operation that are not rotations or flips
-                if (op instanceof ResizeImage) {
-                    ResizeImage r = (ResizeImage) op;
-                    resizeByAtEnd *= r.getResizeScale();
-                    this.resizeTesting *= r.getResizeScale();
-                } 
-                else if (op instanceof FlipImage) {
-                    result = op.apply(result);
-                    this.rotation += ((90-this.rotation%360))*2;
-                } else {
-                    result = op.apply(result);
-                    if (op instanceof RotateImage) {
-                        RotateImage r = (RotateImage) op;
-                        this.rotation += r.getRotation();
-                        BufferedImage orig = deepCopy(original);
-                        RotateImage rorig = new RotateImage(this.rotation);
-                        orig = rorig.apply(orig);
-                        int width = orig.getWidth();
-                        int height = orig.getHeight();
-
-                        width *= this.resizedScale;
-                        height *= this.resizedScale;
-            
-                        int x1 = (result.getWidth() - width)/2;
-                        int y1 = (result.getHeight() - height)/2;
-            
-                        int x2 = x1 + width;
-                        int y2 = y1 + height;
-            
-                        CropImage crop = new CropImage(new Point(x1, y1),
-                                                        new Point(x2, y2));
-                        result = crop.apply(result);
-                    }
-                }
-            }
-            // convolve 
-            if(convolveOp != null) result = convolveOp.apply(result);
+            Render result = render(ops, additionalRotation, convolveOp);
+            current = result.image();
+            rotation = result.rotation();
+            resizeTesting = result.resizeScale();
+            previewRegion = null;
+            fireImageChanged(null);
+        } catch (java.util.concurrent.CancellationException ex) {
+            throw ex;
+        } catch (Exception ex) { //There could be no operations in the file, so using refresh would throw an error. Don't want to alert the user since this isn't a problem.
+            return;
+        }
+    }
 
-            // apply total rotation
-            RotateImage rotate = new RotateImage(totalRotation);
-            result = rotate.apply(result);
+    /**
+     * <p>
+     * Apply an operation to an image that may be shared, copying it first if the operation would change it.
+     * </p>
+     * 
+     * @param op The operation to apply.
+     * @param image The image to apply it to.
+     * @param shared Whether the image is shared (e.g. it is on screen, or the original), and so must not be changed.
+     * @return The result of the operation, which may be {@code image} itself if the operation did not change it.
+     * @throws Exception if the operation fails.
+     */
+    private static BufferedImage applyShared(ImageOperation op, BufferedImage image, boolean shared) throws Exception {
+        return op.apply(shared && op.changesInput() ? deepCopy(image) : image);
+    }
+
+    /**
+     * <p>
+     * Apply an operation to an image that may be shared, reusing the result of applying the same operation to the same pixels
+     * before if there is one (see {@link ResultCache}).
+     * </p>
+     * 
+     * @param op The operation to apply.
+     * @param image The image to apply it to.
+     * @param shared Whether the image is shared (e.g. it is on screen, or the original), and so must not be changed.
+     * @return The result of the operation, which may be shared with the cache and so must not be changed.
+     * @throws Exception if the operation fails.
+     */
+    private BufferedImage applyCached(ImageOperation op, BufferedImage image, boolean shared) throws Exception {
+        ResultCache.Key key = results.key(op, image, shared);
+        BufferedImage cached = results.get(key);
+        if (cached != null) return cached;
+        long start = System.nanoTime();
+        BufferedImage result = applyShared(op, image, shared);
+        results.offer(key, result, System.nanoTime() - start);
+        return result;
+    }
 
-            RotateImage manscape = new RotateImage(-this.rotation);
-            result = manscape.apply(result);
+    /**
+     * The result of replaying an operation stack.
+     * 
+     * @param image The resulting image.
+     * @param rotation The rotation accumulated by the operations.
+     * @param resizeScale The resize scale accumulated by the operations.
+     */
+    private record Render(BufferedImage image, int rotation, double resizeScale) {}
 
-            BufferedImage orig = deepCopy(original);
-            int width = orig.getWidth();
-            int height = orig.getHeight();
+    /**
+     * <p>
+     * Replay an operation stack on the original image, as described in {@link #refresh()}.
+     * </p>
+     * 
+     * <p>
+     * Nothing that is displayed is changed, so this can be run in the background.
+     * The {@link OperationProgress#current() current progress} is checked for cancellation between operations.
+     * </p>
+     * 
+     * @param stack The operations to apply.
+     * @param additionalRotation An extra rotation to apply at the end, in degrees.
+     * @param convolveOp An operation to apply after the stack, before the image is resized, or null.
+     * @return The resulting image.
+     * @throws Exception if the stack cannot be replayed.
+     */
+    private Render render(List<ImageOperation> stack, int additionalRotation, ImageOperation convolveOp) throws Exception {
+        OperationProgress progress = OperationProgress.current();
+        BufferedImage source = original;
+        BufferedImage result;
+        int start;
+        GeometryPlanner geometry;
+        // Resume from the furthest checkpoint rather than replaying the whole stack
+        CheckpointCache.Checkpoint checkpoint = checkpoints.nearest(stack);
+        if (checkpoint == null) {
+            geometry = new GeometryPlanner(source.getWidth(), source.getHeight(), 0, 1.0);
+            result = source;
+            start = 0;
+        } else {
+            geometry = new GeometryPlanner(source.getWidth(), source.getHeight(), checkpoint.rotation(), checkpoint.resizeScale());
+            result = checkpoint.image();
+            start = checkpoint.index();
+        }
+        // The result is shared with the original or a checkpoint until an operation writes a new image, so it is copied before it is changed
+        boolean shared = true;
+        int opsSinceCheckpoint = 0;
+        long nanosSinceCheckpoint = 0;
+        for (int i = start; i < stack.size(); i++) {
+            progress.checkCancelled();
+            ImageOperation op = stack.get(i);
+            long opStart = System.nanoTime();
+            if (GeometryPlanner.isGeometric(op)) {
+                // Consecutive rotations, flips and resizes are composed, so they only resample the image once
+                int end = i + 1;
+                while (end < stack.size() && GeometryPlanner.isGeometric(stack.get(end))) end++;
+                BufferedImage next = geometry.apply(result, stack.subList(i, end));
+                shared = shared && next == result;
+                result = next;
+                opsSinceCheckpoint += end - i - 1;
+                i = end - 1;
+            } else if (op instanceof PointOperation) {
+                // Consecutive point operations over the same region are combined, so they take a single pass over the image
+                PointOperation point = (PointOperation) op;
+                Rectangle region = point.getRegion(result);
+                ColourLookup lookup = point.getLookup();
+                while (i + 1 < stack.size() && stack.get(i + 1) instanceof PointOperation
+                        && ((PointOperation) stack.get(i + 1)).getRegion(result).equals(region)) {
+                    lookup = lookup.then(((PointOperation) stack.get(++i)).getLookup());
+                    opsSinceCheckpoint++;
+                }
+                if (shared) {
+                    result = lookup.applyToCopy(result, region);
+                    shared = false;
+                } else {
+                    lookup.apply(result, region);
+                }
+            } else {
+                // The same operation may have been applied to the same pixels before, e.g. before an undo
+                ResultCache.Key key = results.key(op, result, shared);
+                BufferedImage next = results.get(key);
+                if (next != null) {
+                    shared = true; // The cache keeps the image as it is
+                } else {
+                    next = applyShared(op, result, shared);
+                    shared = shared && next == result;
+                    if (results.offer(key, next, System.nanoTime() - opStart)) shared = true;
+                }
+                result = next;
+            }
+            opsSinceCheckpoint++;
+            nanosSinceCheckpoint += System.nanoTime() - opStart;
+            if (checkpoints.offer(stack, i + 1, result, geometry.getRotation(), geometry.getResizeScale(), opsSinceCheckpoint, nanosSinceCheckpoint)) {
+                opsSinceCheckpoint = 0;
+                nanosSinceCheckpoint = 0;
+                shared = true; // The checkpoint keeps the image as it is
+            }
+        }
+        progress.checkCancelled();
 
-            int x1 = (result.getWidth() - width)/2;
-            int y1 = (result.getHeight() - height)/2;
+        // convolve 
+        if(convolveOp != null) result = applyCached(convolveOp, result, shared);
 
-            int x2 = x1 + width;
-            int y2 = y1 + height;
+        // mask to the rotated original and resize, in a single resample
+        result = geometry.finish(result, additionalRotation);
+        return new Render(result, geometry.getRotation(), geometry.getResizeScale());
+    }
 
-            CropImage crop = new CropImage(new Point(x1, y1),
-                                            new Point(x2, y2));
-            result = crop.apply(result);
+    /**
+     * <p>
+     * Work out the result of an operation stack by recomputing only the part of it that differs from an image that is already known.
+     * </p>
+     * 
+     * <p>
+     * {@code known} is the result of a stack that only differs from {@code stack} by a change to the {@code dirty} part of the
+     * image at {@code changedAt}, e.g. the stack with an operation on top that only changed its selection or the pixels under
+     * a brush stroke. The dirty rectangle is followed through the operations after the change
+     * (see {@link ImageOperation#mapDirtyRegion(BufferedImage, Rectangle)}) to find the part of the result that differs. Working
+     * back from there, the result of each operation after the nearest checkpoint only has to be right over the part that the next
+     * operation reads, which is the area needed from the next operation grown by its {@link ImageOperation#getHalo() halo}. So each
+     * operation is only applied to that part (see {@link ImageOperation#applyToArea(BufferedImage, Rectangle)}), and everything
+     * else is taken from {@code known}.
+     * </p>
+     * 
+     * <p>
+     * {@code known} must be the image as the stack leaves it, not rotated or resized for display, which the caller checks.
+     * This is only done when the operations that are replayed do not move pixels around or change the size of the image.
+     * </p>
+     * 
+     * @param stack The operations to apply.
+     * @param known The result of the stack before the change, which is not changed.
+     * @param changedAt The index in the stack of the first operation whose result changed, or the size of the stack if only the result itself changed.
+     * @param dirty The part of the result of the operation at {@code changedAt} (or of the stack) that changed.
+     * @return The resulting image, or null if the whole stack needs to be replayed instead.
+     * @throws Exception if an operation fails.
+     */
+    private BufferedImage renderArea(List<ImageOperation> stack, BufferedImage known, int changedAt, Rectangle dirty) throws Exception {
+        OperationProgress progress = OperationProgress.current();
+        Rectangle bounds = new Rectangle(original.getWidth(), original.getHeight());
+        if (known.getWidth() != bounds.width || known.getHeight() != bounds.height) return null;
+
+        CheckpointCache.Checkpoint checkpoint = checkpoints.nearest(stack);
+        int start = checkpoint == null ? 0 : checkpoint.index();
+        BufferedImage source = checkpoint == null ? original : checkpoint.image();
+        if (checkpoint != null && (checkpoint.rotation() % 360 != 0 || checkpoint.resizeScale() != 1.0)) return null;
+        if (source.getType() != known.getType() || source.getType() == BufferedImage.TYPE_CUSTOM) return null;
+        for (int i = Math.min(start, changedAt); i < stack.size(); i++) {
+            if (GeometryPlanner.isGeometric(stack.get(i)) || stack.get(i) instanceof CropImage) return null;
+        }
 
-            manscape = new RotateImage(this.rotation);
-            result = manscape.apply(result);
+        // Follow the change through to the part of the result that differs
+        Rectangle area = dirty.intersection(bounds);
+        for (int i = changedAt + 1; i < stack.size() && !area.isEmpty(); i++) {
+            area = stack.get(i).mapDirtyRegion(known, area).intersection(bounds);
+        }
+        if (area.equals(bounds)) return null;
+        BufferedImage result = deepCopy(known);
+        if (area.isEmpty()) return result;
+
+        // Work back to the part of each result that is needed, from the area that the next operation reads
+        Rectangle[] needed = new Rectangle[stack.size() + 1];
+        needed[stack.size()] = area;
+        for (int i = stack.size() - 1; i >= start; i--) {
+            Rectangle window = new Rectangle(needed[i + 1]);
+            window.grow(stack.get(i).getHalo(), stack.get(i).getHalo());
+            needed[i] = window.intersection(bounds);
+        }
 
-            ResizeImage resize = new ResizeImage((int) (resizeByAtEnd*100));
-            result = resize.apply(result);
-    
-            if (result != null) { //Only store the result on the 'current' data field if it returns successfully.
-                current = result;
-            }
-            
-        } catch (Exception ex) { //There could be no operations in the file, so using refresh would throw an error. Don't want to alert the user since this isn't a problem.
-            return;
+        // Only the pixels the first operation reads are copied from the checkpoint
+        ColorModel cm = source.getColorModel();
+        BufferedImage work = new BufferedImage(cm, cm.createCompatibleWritableRaster(bounds.width, bounds.height), cm.isAlphaPremultiplied(), null);
+        Rectangle first = needed[start];
+        work.getRaster().setDataElements(0, 0, source.getRaster().createChild(first.x, first.y, first.width, first.height, first.x, first.y, null));
+        for (int i = start; i < stack.size(); i++) {
+            progress.checkCancelled();
+            work = stack.get(i).applyToArea(work, needed[i + 1]);
+            if (work == null || work.getWidth() != bounds.width || work.getHeight() != bounds.height || work.getType() != known.getType()) return null;
         }
+        progress.checkCancelled();
+        result.getRaster().setDataElements(0, 0, work.getRaster().createChild(area.x, area.y, area.width, area.height, area.x, area.y, null));
+        return result;
     }
 
         /**
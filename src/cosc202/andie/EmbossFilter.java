@@ -1,7 +1,9 @@
 package cosc202.andie;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 /**
  * <p>
@@ -18,6 +20,9 @@ import java.awt.image.*;
  * @version 1.0
  */
 public class EmbossFilter implements ImageOperation, java.io.Serializable {
+
+    /** The version from before the filter could emboss its input in place, kept so that saved operation files and macros still open. */
+    private static final long serialVersionUID = 4293772037060364667L;
     public static final int NONE = 0, EAST = 1, NORTH_EAST = 2, NORTH = 3, NORTH_WEST = 4, WEST = 5, SOUTH_EAST = 6, SOUTH = 7, SOUTH_WEST = 8;
 
     /**
@@ -96,6 +101,21 @@ public class EmbossFilter implements ImageOperation, java.io.Serializable {
      * @throws Exception Raised if an unexpected {@code Exception} occurs.
      */
     public BufferedImage apply(BufferedImage input) throws Exception {
+        return applyToArea(input, new Rectangle(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * Apply the filter to the part of the selection in a given area, in place.
+     * </p>
+     * 
+     * @param input The image to apply the filter to.
+     * @param area The area of the result that is needed.
+     * @return The resulting image.
+     * @throws Exception Raised if an unexpected {@code Exception} occurs.
+     */
+    @Override
+    public BufferedImage applyToArea(BufferedImage input, Rectangle area) throws Exception {
         BufferedImage output = null;
         float[] array;
 
@@ -112,9 +132,10 @@ public class EmbossFilter implements ImageOperation, java.io.Serializable {
         try {
             Kernel kernel = new Kernel(3, 3, array);
             AndieConvolveOp convOp = new AndieConvolveOp(kernel, true);
-            output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-            if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) convOp.filter(input, output, x1, y1, x2, y2);
-            else convOp.filter(input, output);
+            // Only the selection is embossed, in place
+            output = convOp.filter(input, getRegion(input).intersection(area));
+        } catch (java.util.concurrent.CancellationException ex) { // Let a cancelled operation stop
+            throw ex;
         } catch (Exception ex) {
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
         }
@@ -122,4 +143,56 @@ public class EmbossFilter implements ImageOperation, java.io.Serializable {
 
         return output;    
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Get the region of an image that is embossed: the selected area, or the whole image if there is none.
+     * </p>
+     * 
+     * @param input The image the filter is applied to.
+     * @return The region to filter.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input) {
+        Rectangle image = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) return image.intersection(new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1));
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the number of pixels around each pixel that the filter reads.
+     * </p>
+     * 
+     * @return 1, as the kernel is 3x3.
+     */
+    @Override
+    public int getHalo() {
+        return 1;
+    }
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is an emboss filter in the same direction, over the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof EmbossFilter)) return false;
+        EmbossFilter other = (EmbossFilter) obj;
+        return direction == other.direction && x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(direction, x1, y1, x2, y2);
+    }
+}
@@ -42,7 +42,7 @@ public class FilterActions {
      */
     public FilterActions() {
         actions = new ArrayList<Action>();
-        actions.add(new MeanFilterAction(Language.getWord("Mean"), null, Language.getWord("Mean_desc"), Integer.valueOf(KeyEvent.VK_M), true, 1, 10, 1, 0));
+        actions.add(new MeanFilterAction(Language.getWord("Mean"), null, Language.getWord("Mean_desc"), Integer.valueOf(KeyEvent.VK_M), true, 1, 50, 1, 0));
         actions.add(new SharpenFilterAction(Language.getWord("Sharpen"), null, Language.getWord("Sharpen_desc"), Integer.valueOf(KeyEvent.VK_N)));
         actions.add(new GaussianBlurFilterAction(Language.getWord("Gaussian"), null, Language.getWord("Gaussian_desc"), Integer.valueOf(KeyEvent.VK_U), true, 1, 10, 1, 0));
         actions.add(new MedianFilterAction(Language.getWord("Median"), null, Language.getWord("Median_desc"), Integer.valueOf(KeyEvent.VK_L), true, 1, 5, 1, 0));
@@ -140,10 +140,10 @@ public class FilterActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            if(target.getSelection().isEmpty()) target.getImage().apply(new SharpenFilter());
+            if(target.getSelection().isEmpty()) OperationRunner.apply(target, new SharpenFilter());
             else{
                 Point[] corners = target.getSelection().getCorners();
-                target.getImage().apply(new SharpenFilter(corners[0], corners[1]));
+                OperationRunner.apply(target, new SharpenFilter(corners[0], corners[1]));
             }
             target.repaint();
             target.getParent().revalidate();
@@ -338,10 +338,10 @@ public class FilterActions {
 
                 if(embossChoice.equals(embossOptions[0])) return;
                 else{
-                    if(target.getSelection().isEmpty()) target.getImage().apply(new EmbossFilter(choice));
+                    if(target.getSelection().isEmpty()) OperationRunner.apply(target, new EmbossFilter(choice));
                     else{
                         Point[] corners = target.getSelection().getCorners();
-                        target.getImage().apply(new EmbossFilter(choice, corners[0], corners[1]));
+                        OperationRunner.apply(target, new EmbossFilter(choice, corners[0], corners[1]));
                     }
                 }
             }
@@ -449,10 +449,10 @@ public class FilterActions {
 
                 if(sobelChoice.equals(sobelOptions[0])) return;
                 else{
-                    if(target.getSelection().isEmpty()) target.getImage().apply(new SobelFilter(choice));
+                    if(target.getSelection().isEmpty()) OperationRunner.apply(target, new SobelFilter(choice));
                     else{
                         Point[] corners = target.getSelection().getCorners();
-                        target.getImage().apply(new SobelFilter(choice, corners[0], corners[1]));
+                        OperationRunner.apply(target, new SobelFilter(choice, corners[0], corners[1]));
                     }
                 }  
             }
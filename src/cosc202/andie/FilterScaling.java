@@ -0,0 +1,81 @@
+package cosc202.andie;
+
+import java.awt.Point;
+
+/**
+ * <p>
+ * Scaling of the filters that work on a neighbourhood of each pixel, optionally within a selection
+ * (see {@link ImageOperation#scaledBy(double, double)}).
+ * </p>
+ *
+ * <p>
+ * {@link MeanFilter}, {@link GaussianBlurFilter} and {@link MedianFilter} all keep a radius and the two corners of
+ * a selection, with -1 for a corner that has not been set. They are all scaled the same way here, so that they
+ * cover the same part of a scaled copy of the image as they do of the image itself.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+final class FilterScaling {
+
+    /**
+     * Makes a filter with a given radius, optionally within a selection.
+     */
+    interface Factory {
+        /**
+         * Make the filter.
+         *
+         * @param radius The radius of the filter.
+         * @param p1 The first corner of the selection, or null if there is no selection.
+         * @param p2 The second corner of the selection, or null if there is no selection.
+         * @return The filter.
+         */
+        ImageOperation make(int radius, Point p1, Point p2);
+    }
+
+    /** FilterScaling only has static methods. */
+    private FilterScaling() {}
+
+    /**
+     * <p>
+     * Check whether a filter has a selection, i.e. none of its corners have been left at -1.
+     * </p>
+     *
+     * @param x1 The X coordinate of the first corner.
+     * @param y1 The Y coordinate of the first corner.
+     * @param x2 The X coordinate of the second corner.
+     * @param y2 The Y coordinate of the second corner.
+     * @return True if the filter only applies within the selection.
+     */
+    static boolean hasSelection(int x1, int y1, int x2, int y2) {
+        return x1 != -1 && y1 != -1 && x2 != -1 && y2 != -1;
+    }
+
+    /**
+     * <p>
+     * Get the same filter for a scaled copy of the image.
+     * </p>
+     *
+     * <p>
+     * The radius is scaled by the average of the two scales, so that the filter reaches over the same part of the
+     * image, and the corners of the selection (if there is one) are scaled to match.
+     * </p>
+     *
+     * @param radius The radius of the filter.
+     * @param x1 The X coordinate of the first corner of the selection, or -1.
+     * @param y1 The Y coordinate of the first corner of the selection, or -1.
+     * @param x2 The X coordinate of the second corner of the selection, or -1.
+     * @param y2 The Y coordinate of the second corner of the selection, or -1.
+     * @param scaleX The width of the copy, as a fraction of the width of the image.
+     * @param scaleY The height of the copy, as a fraction of the height of the image.
+     * @param factory Makes the scaled filter.
+     * @return The scaled filter.
+     */
+    static ImageOperation scale(int radius, int x1, int y1, int x2, int y2, double scaleX, double scaleY, Factory factory) {
+        int scaledRadius = (int) Math.round(radius * (scaleX + scaleY) / 2);
+        if (!hasSelection(x1, y1, x2, y2)) return factory.make(scaledRadius, null, null);
+        return factory.make(scaledRadius, new Point((int) (x1 * scaleX), (int) (y1 * scaleY)), new Point((int) (x2 * scaleX), (int) (y2 * scaleY)));
+    }
+}
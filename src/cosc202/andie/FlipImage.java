@@ -1,6 +1,8 @@
 package cosc202.andie;
 
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 
 /**
@@ -21,6 +23,9 @@ import java.awt.image.*;
  */
 public class FlipImage implements ImageOperation, java.io.Serializable {
 
+    /** The version from before flips could be undone by applying their inverse, so that operation files and macros saved by earlier versions can still be opened. */
+    private static final long serialVersionUID = 7057170339997236030L;
+
     private String direction;
     private boolean opposite;
 
@@ -90,21 +95,22 @@ public class FlipImage implements ImageOperation, java.io.Serializable {
      * @return The resulting flipped image.
      */
     private BufferedImage flipHorizontal(BufferedImage input) throws Exception {
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth()/2; ++x) {
-
-                // first pixel
-                int argb = input.getRGB(x, y);
-
-                // opposite pixel
-                int xOpposite = input.getWidth() - (x + 1);
-                int argbOpposite = input.getRGB(xOpposite, y);
-
-                //swap pixels
-                input.setRGB(x, y, argbOpposite);
-                input.setRGB(xOpposite, y, argb);
+        int width = input.getWidth();
+        int[] pixels = PixelAccess.getPixels(input);
+        // Each tile of the left half swaps its pixels with the mirrored pixels in the right half
+        TileScheduler.run(0, 0, width / 2, input.getHeight(), 0, tile -> {
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                int rowPos = y * width;
+                for (int x = tile.x(); x < tile.endX(); x++) {
+                    //swap pixels
+                    int xOpposite = width - (x + 1);
+                    int argb = pixels[rowPos + x];
+                    pixels[rowPos + x] = pixels[rowPos + xOpposite];
+                    pixels[rowPos + xOpposite] = argb;
+                }
             }
-        }
+        });
+        PixelAccess.setPixels(input, pixels);
         return input;
     }
 
@@ -121,26 +127,93 @@ public class FlipImage implements ImageOperation, java.io.Serializable {
      * @return The resulting flipped image.
      */
     private BufferedImage flipVertical(BufferedImage input) throws Exception {
-        for (int y = 0; y < input.getHeight()/2; ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] pixels = PixelAccess.getPixels(input);
+        // Each tile of the top half swaps its pixels with the mirrored pixels in the bottom half
+        TileScheduler.run(0, 0, width, height / 2, 0, tile -> {
+            int[] row = new int[tile.width()];
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                //swap rows
+                int rowPos = y * width + tile.x();
+                int oppositePos = (height - (y + 1)) * width + tile.x();
+                System.arraycopy(pixels, rowPos, row, 0, row.length);
+                System.arraycopy(pixels, oppositePos, pixels, rowPos, row.length);
+                System.arraycopy(row, 0, pixels, oppositePos, row.length);
+            }
+        });
+        PixelAccess.setPixels(input, pixels);
+        return input;
+    }
 
-                //first pixel
-                int argb = input.getRGB(x, y);
+    /**
+     * <p>
+     * Check which way the image is mirrored, taking {@code opposite} into account.
+     * </p>
+     * 
+     * @return True if the x coordinates are mirrored (as in {@link #flipHorizontal}), false if the y coordinates are.
+     * @throws IllegalArgumentException if the direction is invalid.
+     */
+    boolean isHorizontal() {
+        if (direction.toLowerCase().equals("horizontal")) return !opposite;
+        if (direction.toLowerCase().equals("vertical")) return opposite;
+        throw new IllegalArgumentException("Direction provided in EditActions.java is invalid");
+    }
 
-                // opposite pixel
-                int yOpposite = input.getHeight() - (y + 1);
-                int argbOpposite = input.getRGB(x, yOpposite);
+    /**
+     * <p>
+     * The changed area is mirrored the same way as the image.
+     * </p>
+     * 
+     * @param input The image to be flipped.
+     * @param dirty The part of the input that changed.
+     * @return The part of the flipped image that may change.
+     */
+    @Override
+    public Rectangle mapDirtyRegion(BufferedImage input, Rectangle dirty) {
+        if (isHorizontal()) return new Rectangle(input.getWidth() - dirty.x - dirty.width, dirty.y, dirty.width, dirty.height);
+        return new Rectangle(dirty.x, input.getHeight() - dirty.y - dirty.height, dirty.width, dirty.height);
+    }
 
-                //swap pixels
-                input.setRGB(x, y, argbOpposite);
-                input.setRGB(x, yOpposite, argb);
-            }
-        }
-        return input;
+    /**
+     * <p>
+     * A flip swaps pixels in pairs, so flipping the same way again gives back the image exactly.
+     * </p>
+     * 
+     * @return A flip in the same direction.
+     */
+    @Override
+    public ImageOperation getInverse() {
+        return new FlipImage(direction, opposite);
     }
 
     public String getDirection() {
         return this.direction;
     }
     
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a flip in the same direction.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FlipImage)) return false;
+        FlipImage other = (FlipImage) obj;
+        return direction.equals(other.direction) && opposite == other.opposite;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(direction, opposite);
+    }
 }
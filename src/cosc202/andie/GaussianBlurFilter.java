@@ -1,7 +1,9 @@
 package cosc202.andie;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 /**
  * <p>
@@ -21,6 +23,9 @@ import java.awt.image.*;
  */
 public class GaussianBlurFilter implements ImageOperation, java.io.Serializable{
 
+    /** The version from before the blur could be scaled for previews, kept so that saved operation files and macros still open. */
+    private static final long serialVersionUID = 74048233810872599L;
+
     /**
      * The size of the filter to apply. A radius of 1 is 3x3 etc.
      */
@@ -92,6 +97,7 @@ public class GaussianBlurFilter implements ImageOperation, java.io.Serializable{
      * <p>
      * The Gaussian Blur filter is implemented via convolution.
      * The size of the convolution kernel used is specified by the {@link radius}.
+     * Since the Gaussian kernel is separable, the image is blurred horizontally and then vertically with a 1D kernel.
      * A larger radius leads to a stronger blurring effect.
      * </p>
      * 
@@ -100,43 +106,121 @@ public class GaussianBlurFilter implements ImageOperation, java.io.Serializable{
      * @throws Exception Raised if an unexpected {@code Exception} occurs.
      */
     public BufferedImage apply(BufferedImage input) throws Exception {
+        return applyToArea(input, new Rectangle(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * Apply the filter to the part of the selection in a given area, in place.
+     * </p>
+     * 
+     * @param input The image to apply the filter to.
+     * @param area The area of the result that is needed.
+     * @return The resulting image.
+     * @throws Exception Raised if an unexpected {@code Exception} occurs.
+     */
+    @Override
+    public BufferedImage applyToArea(BufferedImage input, Rectangle area) throws Exception {
         BufferedImage output = null;
         try{
             // if radius is 0 then return original image;
             if (radius == 0) {
                 return input;
             }
-            int size = (2*radius+1) * (2*radius+1);
-            float[] array = new float[size];
+            // The 2D Gaussian is the product of two 1D Gaussians, so the blur can be done along the rows and then the columns
+            float[] array = new float[2*radius+1];
             float sigma = ((float) radius) / 3; 
             float twoSigmaSq = 2 * sigma * sigma; 
             float sum = 0;
-            int index = 0;
-
-            for (int y = -radius; y <= radius; y++) {
-                for (int x = -radius; x <= radius; x++) {
-                    float value = (float) Math.exp(-(x * x + y * y) / twoSigmaSq);
-                    value /= twoSigmaSq * Math.PI; 
-                    array[index] = value;
-                    sum += value;
-                    index++;
-                }
+
+            for (int x = -radius; x <= radius; x++) {
+                float value = (float) Math.exp(-(x * x) / twoSigmaSq);
+                array[x + radius] = value;
+                sum += value;
             }
 
             for (int i = 0; i < array.length; i++) {
                 array[i] /= sum;
             }
 
-            Kernel kernel = new Kernel(2*radius+1, 2*radius+1, array);
-            AndieConvolveOp convOp = new AndieConvolveOp(kernel);
-            output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-            
-            if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) convOp.filter(input, output, x1, y1, x2, y2);
-            else convOp.filter(input, output);
+            AndieConvolveOp convOp = new AndieConvolveOp(array, array);
+            // Only the selection is blurred, in place
+            output = convOp.filter(input, getRegion(input).intersection(area));
 
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
         }
         return output;
     }
+
+    /**
+     * <p>
+     * Get the region of an image that is blurred: the selected area, or the whole image if there is none.
+     * </p>
+     * 
+     * @param input The image the filter is applied to.
+     * @return The region to filter.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input) {
+        Rectangle image = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        if (FilterScaling.hasSelection(x1, y1, x2, y2)) return image.intersection(new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1));
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the number of pixels around each pixel that the filter reads.
+     * </p>
+     * 
+     * @return The radius of the blur.
+     */
+    @Override
+    public int getHalo() {
+        return radius;
+    }
+
+    /**
+     * <p>
+     * Get the same filter for a scaled copy of the image.
+     * </p>
+     * 
+     * <p>
+     * The radius is scaled so that the blur spreads over the same part of the image, and the selection is scaled to match.
+     * </p>
+     * 
+     * @param scaleX The width of the copy, as a fraction of the width of the image.
+     * @param scaleY The height of the copy, as a fraction of the height of the image.
+     * @return The scaled filter.
+     */
+    @Override
+    public ImageOperation scaledBy(double scaleX, double scaleY) {
+        return FilterScaling.scale(radius, x1, y1, x2, y2, scaleX, scaleY,
+                                   (r, p1, p2) -> p1 == null ? new GaussianBlurFilter(r) : new GaussianBlurFilter(r, p1, p2));
+    }
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a Gaussian blur with the same radius, over the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GaussianBlurFilter)) return false;
+        GaussianBlurFilter other = (GaussianBlurFilter) obj;
+        return radius == other.radius && x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(radius, x1, y1, x2, y2);
+    }
 }
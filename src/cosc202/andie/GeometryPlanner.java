@@ -0,0 +1,364 @@
+package cosc202.andie;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.List;
+
+/**
+ * <p>
+ * Plans the geometric operations (rotations, flips and resizes) that are applied when an {@link EditableImage} is refreshed.
+ * </p>
+ *
+ * <p>
+ * Rather than rendering each rotation and then cropping it to the size of the rotated original, a run of geometric
+ * operations is composed into a single {@code AffineTransform}, and the image is resampled once at the end of the run.
+ * The size of each step is worked out from the size of the image (the same way {@link RotateImage} sizes its canvas),
+ * so nothing has to be rendered just to find out how big it would be. The same is done for the last stage of a
+ * refresh, which masks the image to the footprint of the rotated original and applies the accumulated resize.
+ * </p>
+ *
+ * <p>
+ * A transform that only moves whole pixels around (flips, and rotations by multiples of 90 degrees) is applied by
+ * copying pixels, so it is exact. Any other transform is resampled with bilinear interpolation, once, rather than
+ * being resampled again by every operation in the run.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+final class GeometryPlanner {
+
+    /** How close a number has to be to a whole number to be treated as one. */
+    private static final double EPSILON = 1e-9;
+
+    /** The size of the original image. */
+    private final int originalWidth, originalHeight;
+    /** The accumulated rotation, in degrees. */
+    private int rotation;
+    /** The accumulated resize scale, which is only applied by {@link #finish(BufferedImage, int)}. */
+    private double resizeScale;
+
+    /** The transform from the image at the start of the current plan to the end of it. */
+    private AffineTransform transform;
+    /** The part of the planned image that is kept by the crops in the plan, or null if nothing is cropped. */
+    private Area clip;
+    /** The size of the planned image. */
+    private int width, height;
+
+    /**
+     * Create a planner, continuing from the given rotation and resize scale.
+     *
+     * @param originalWidth The width of the original image.
+     * @param originalHeight The height of the original image.
+     * @param rotation The accumulated rotation so far.
+     * @param resizeScale The accumulated resize scale so far.
+     */
+    GeometryPlanner(int originalWidth, int originalHeight, int rotation, double resizeScale) {
+        this.originalWidth = originalWidth;
+        this.originalHeight = originalHeight;
+        this.rotation = rotation;
+        this.resizeScale = resizeScale;
+    }
+
+    /**
+     * Check whether an operation is one that the planner deals with.
+     *
+     * @param op The operation to check.
+     * @return True if the operation is a rotation, flip or resize.
+     */
+    static boolean isGeometric(ImageOperation op) {
+        return op instanceof RotateImage || op instanceof FlipImage || op instanceof ResizeImage;
+    }
+
+    /**
+     * Get the accumulated rotation.
+     *
+     * @return The rotation after the operations applied so far, in degrees.
+     */
+    int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Get the accumulated resize scale.
+     *
+     * @return The scale after the operations applied so far.
+     */
+    double getResizeScale() {
+        return resizeScale;
+    }
+
+    /**
+     * <p>
+     * Apply a run of geometric operations to an image.
+     * </p>
+     *
+     * <p>
+     * Each rotation is cropped to the size of the original image rotated by the accumulated rotation.
+     * Resizes are only recorded, and are applied by {@link #finish(BufferedImage, int)}.
+     * </p>
+     *
+     * @param input The image to apply the operations to, which is not changed.
+     * @param run The operations, which must all be {@link #isGeometric(ImageOperation) geometric}.
+     * @return The resulting image.
+     * @throws RasterFormatException if the rotated original does not fit in the rotated image, e.g. after a crop.
+     */
+    BufferedImage apply(BufferedImage input, List<ImageOperation> run) {
+        start(input.getWidth(), input.getHeight());
+        for (ImageOperation op : run) {
+            if (op instanceof ResizeImage) {
+                resizeScale *= ((ResizeImage) op).getResizeScale();
+            } else if (op instanceof FlipImage) {
+                flip(((FlipImage) op).isHorizontal());
+                rotation += ((90 - rotation % 360)) * 2;
+            } else {
+                int degrees = ((RotateImage) op).getRotation();
+                rotation += degrees;
+                rotate(degrees);
+                int croppedWidth = rotatedWidth(originalWidth, originalHeight, rotation);
+                int croppedHeight = rotatedHeight(originalWidth, originalHeight, rotation);
+                crop((width - croppedWidth) / 2, (height - croppedHeight) / 2, croppedWidth, croppedHeight);
+            }
+        }
+        return resample(input);
+    }
+
+    /**
+     * <p>
+     * Apply the last stage of a refresh to an image.
+     * </p>
+     *
+     * <p>
+     * The image is rotated by {@code additionalRotation}, masked to the footprint of the original image rotated by the
+     * accumulated rotation, and resized by the accumulated resize scale. This is a single resample, or none at all if the
+     * image is not rotated or resized.
+     * </p>
+     *
+     * @param input The image after all of the operations.
+     * @param additionalRotation An extra rotation to apply, in degrees.
+     * @return The resulting image, which may be {@code input}.
+     * @throws RasterFormatException if the original does not fit in the un-rotated image, e.g. after a crop.
+     * @throws IllegalArgumentException if the resized image would be empty.
+     */
+    BufferedImage finish(BufferedImage input, int additionalRotation) {
+        start(input.getWidth(), input.getHeight());
+        if (additionalRotation != 0) rotate(additionalRotation);
+        // Un-rotate, crop to the original size and rotate back, which keeps just the footprint of the rotated original
+        rotate(-rotation);
+        crop((width - originalWidth) / 2, (height - originalHeight) / 2, originalWidth, originalHeight);
+        rotate(rotation);
+
+        int percentage = (int) (resizeScale * 100);
+        int scaledWidth = (int) (width * (percentage / 100.0));
+        int scaledHeight = (int) (height * (percentage / 100.0));
+        if (scaledWidth <= 0 || scaledHeight <= 0) throw new IllegalArgumentException("The resized image is empty");
+        then(AffineTransform.getScaleInstance(scaledWidth / (double) width, scaledHeight / (double) height), scaledWidth, scaledHeight);
+        return resample(input);
+    }
+
+    /**
+     * Start a new plan from an image of the given size.
+     *
+     * @param startWidth The width of the image.
+     * @param startHeight The height of the image.
+     */
+    private void start(int startWidth, int startHeight) {
+        transform = new AffineTransform();
+        clip = null;
+        width = startWidth;
+        height = startHeight;
+    }
+
+    /**
+     * Add a step to the plan.
+     *
+     * @param step The transform from the previous step to this one.
+     * @param newWidth The width of the image after this step.
+     * @param newHeight The height of the image after this step.
+     */
+    private void then(AffineTransform step, int newWidth, int newHeight) {
+        transform.preConcatenate(step);
+        if (clip != null) clip = clip.createTransformedArea(step);
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * Rotate the planned image the same way as {@link RotateImage}, onto a canvas big enough to hold it.
+     *
+     * @param degrees The angle to rotate by, in degrees.
+     */
+    private void rotate(int degrees) {
+        int newWidth = rotatedWidth(width, height, degrees);
+        int newHeight = rotatedHeight(width, height, degrees);
+        AffineTransform step = AffineTransform.getTranslateInstance((newWidth - width) / 2.0, (newHeight - height) / 2.0);
+        step.rotate(Math.toRadians(degrees), width / 2.0, height / 2.0);
+        then(step, newWidth, newHeight);
+    }
+
+    /**
+     * Flip the planned image.
+     *
+     * @param horizontal True to mirror the x coordinates, false to mirror the y coordinates.
+     */
+    private void flip(boolean horizontal) {
+        AffineTransform step = horizontal ? new AffineTransform(-1, 0, 0, 1, width, 0) : new AffineTransform(1, 0, 0, -1, 0, height);
+        then(step, width, height);
+    }
+
+    /**
+     * Crop the planned image, the same way as {@link CropImage}.
+     *
+     * @param x The x coordinate of the top left corner of the crop.
+     * @param y The y coordinate of the top left corner of the crop.
+     * @param cropWidth The width of the crop.
+     * @param cropHeight The height of the crop.
+     * @throws RasterFormatException if the crop does not lie within the planned image.
+     */
+    private void crop(int x, int y, int cropWidth, int cropHeight) {
+        if (x < 0 || y < 0 || x + cropWidth > width || y + cropHeight > height) {
+            throw new RasterFormatException("Crop (" + x + ", " + y + ", " + cropWidth + ", " + cropHeight + ") is outside the image");
+        }
+        Area kept = new Area(new Rectangle(x, y, cropWidth, cropHeight));
+        if (clip == null) clip = kept;
+        else clip.intersect(kept);
+        then(AffineTransform.getTranslateInstance(-x, -y), cropWidth, cropHeight);
+    }
+
+    /**
+     * Render the planned image.
+     *
+     * @param input The image at the start of the plan.
+     * @return The planned image, which is {@code input} if the plan does nothing.
+     */
+    private BufferedImage resample(BufferedImage input) {
+        Rectangle bounds = new Rectangle(0, 0, width, height);
+        boolean clipped = clip != null && !clip.contains(bounds);
+        if (!clipped) {
+            BufferedImage copied = copyPixels(input);
+            if (copied != null) return copied;
+        }
+
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = output.createGraphics();
+        if (!isPixelAligned(transform)) g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        if (clipped) g.clip(clip);
+        g.drawImage(input, transform, null);
+        g.dispose();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Render the planned image by copying pixels, if the plan only moves whole pixels around.
+     * </p>
+     *
+     * <p>
+     * The result keeps the type of {@code input} if every pixel comes from it, or is {@code TYPE_INT_ARGB} with
+     * transparent pixels elsewhere.
+     * </p>
+     *
+     * @param input The image at the start of the plan.
+     * @return The planned image (which is {@code input} if the plan does nothing), or null if the plan needs resampling.
+     */
+    private BufferedImage copyPixels(BufferedImage input) {
+        if (!isPixelAligned(transform)) return null;
+        AffineTransform inverse;
+        try {
+            inverse = transform.createInverse();
+        } catch (NoninvertibleTransformException ex) {
+            return null;
+        }
+        // The centre of destination pixel (x, y) comes from the centre of source pixel (xx*x + xy*y + x0, yx*x + yy*y + y0)
+        int xx = (int) Math.round(inverse.getScaleX()), xy = (int) Math.round(inverse.getShearX());
+        int yx = (int) Math.round(inverse.getShearY()), yy = (int) Math.round(inverse.getScaleY());
+        double exactX0 = (xx + xy) * 0.5 + inverse.getTranslateX() - 0.5;
+        double exactY0 = (yx + yy) * 0.5 + inverse.getTranslateY() - 0.5;
+        int x0 = (int) Math.round(exactX0), y0 = (int) Math.round(exactY0);
+        if (Math.abs(exactX0 - x0) > EPSILON || Math.abs(exactY0 - y0) > EPSILON) return null;
+
+        int inputWidth = input.getWidth(), inputHeight = input.getHeight();
+        int outputWidth = width, outputHeight = height;
+        boolean identity = xx == 1 && yy == 1 && xy == 0 && yx == 0 && x0 == 0 && y0 == 0;
+        if (identity && outputWidth == inputWidth && outputHeight == inputHeight) return input;
+        // The corners of the destination map to the corners of a rectangle in the source
+        boolean covered = inside(x0, y0, inputWidth, inputHeight)
+                && inside(xx * (outputWidth - 1) + xy * (outputHeight - 1) + x0, yx * (outputWidth - 1) + yy * (outputHeight - 1) + y0, inputWidth, inputHeight);
+        int type = covered && PixelAccess.isDirect(input) ? input.getType() : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage output = new BufferedImage(outputWidth, outputHeight, type);
+
+        int[] source = PixelAccess.getPixels(input);
+        int[] pixels = PixelAccess.getPixels(output);
+        // The alpha bits of an image with no alpha channel are undefined, so make its pixels opaque
+        int opaque = input.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+        TileScheduler.run(0, 0, outputWidth, outputHeight, 0, tile -> {
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                int sx = xx * tile.x() + xy * y + x0;
+                int sy = yx * tile.x() + yy * y + y0;
+                for (int i = y * outputWidth + tile.x(); i < y * outputWidth + tile.endX(); i++, sx += xx, sy += yx) {
+                    if (inside(sx, sy, inputWidth, inputHeight)) pixels[i] = source[sy * inputWidth + sx] | opaque;
+                }
+            }
+        });
+        PixelAccess.setPixels(output, pixels);
+        return output;
+    }
+
+    /**
+     * Check whether a transform only flips, swaps and moves the axes, i.e. it is a rotation by a multiple of 90 degrees,
+     * a flip or a combination of them.
+     *
+     * @param at The transform to check.
+     * @return True if the transform maps the pixel grid onto itself (up to a translation).
+     */
+    private static boolean isPixelAligned(AffineTransform at) {
+        double[] m = new double[4];
+        at.getMatrix(m);
+        for (double entry : m) {
+            if (Math.abs(entry) > EPSILON && Math.abs(Math.abs(entry) - 1) > EPSILON) return false;
+        }
+        // Exactly one of the entries in each row is non-zero
+        return (Math.abs(m[0]) > EPSILON) != (Math.abs(m[2]) > EPSILON) && (Math.abs(m[1]) > EPSILON) != (Math.abs(m[3]) > EPSILON);
+    }
+
+    /**
+     * Check whether a pixel lies within an image.
+     *
+     * @param x The x coordinate of the pixel.
+     * @param y The y coordinate of the pixel.
+     * @param imageWidth The width of the image.
+     * @param imageHeight The height of the image.
+     * @return True if the pixel is inside the image.
+     */
+    private static boolean inside(int x, int y, int imageWidth, int imageHeight) {
+        return x >= 0 && y >= 0 && x < imageWidth && y < imageHeight;
+    }
+
+    /**
+     * Get the width of the canvas that {@link RotateImage} puts a rotated image on.
+     *
+     * @param w The width of the image.
+     * @param h The height of the image.
+     * @param degrees The angle of the rotation, in degrees.
+     * @return The width of the rotated image.
+     */
+    private static int rotatedWidth(int w, int h, int degrees) {
+        double rads = Math.toRadians(degrees);
+        return (int) Math.floor(w * Math.abs(Math.cos(rads)) + h * Math.abs(Math.sin(rads)));
+    }
+
+    /**
+     * Get the height of the canvas that {@link RotateImage} puts a rotated image on.
+     *
+     * @param w The width of the image.
+     * @param h The height of the image.
+     * @param degrees The angle of the rotation, in degrees.
+     * @return The height of the rotated image.
+     */
+    private static int rotatedHeight(int w, int h, int degrees) {
+        double rads = Math.toRadians(degrees);
+        return (int) Math.floor(h * Math.abs(Math.cos(rads)) + w * Math.abs(Math.sin(rads)));
+    }
+}
@@ -0,0 +1,62 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.util.EventObject;
+
+/**
+ * <p>
+ * An event saying that what an {@link EditableImage} looks like has changed.
+ * </p>
+ *
+ * <p>
+ * The event carries the region of the image that changed, so that only that part needs to be redrawn,
+ * e.g. while a selection is dragged out. If the whole image may have changed, including its size, there is no region.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public class ImageChangeEvent extends EventObject {
+
+    /** The version of this event's serialized form. */
+    private static final long serialVersionUID = 1L;
+
+    /** The region of the image that changed, or null if all of it may have changed. */
+    private final Rectangle region;
+
+    /**
+     * <p>
+     * Create a new change event.
+     * </p>
+     *
+     * @param source The image that changed.
+     * @param region The region of the image that changed, in image coordinates, or null if all of it may have changed.
+     */
+    public ImageChangeEvent(EditableImage source, Rectangle region) {
+        super(source);
+        this.region = region == null ? null : new Rectangle(region);
+    }
+
+    /**
+     * <p>
+     * Get the region of the image that changed.
+     * </p>
+     *
+     * @return The changed region, in image coordinates, or null if all of the image (and its size) may have changed.
+     */
+    public Rectangle getRegion() {
+        return region == null ? null : new Rectangle(region);
+    }
+
+    /**
+     * <p>
+     * Check whether the whole image may have changed.
+     * </p>
+     *
+     * @return True if there is no region.
+     */
+    public boolean isWholeImage() {
+        return region == null;
+    }
+}
@@ -0,0 +1,26 @@
+package cosc202.andie;
+
+import java.util.EventListener;
+
+/**
+ * <p>
+ * Listens for changes to what an {@link EditableImage} looks like.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#addImageChangeListener(ImageChangeListener)
+ */
+public interface ImageChangeListener extends EventListener {
+
+    /**
+     * <p>
+     * Called on the event dispatch thread after the image has changed.
+     * </p>
+     *
+     * @param e The event, which says which part of the image changed.
+     */
+    public void imageChanged(ImageChangeEvent e);
+}
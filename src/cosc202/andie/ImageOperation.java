@@ -1,5 +1,6 @@
 package cosc202.andie;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -20,6 +21,12 @@ import java.awt.image.BufferedImage;
  * </p>
  * 
  * <p>
+ * Operations are compared by value, so each implements {@code equals} and {@code hashCode} over its parameters
+ * (including its selection). Two equal operations give the same result from the same image, which lets a result
+ * be reused rather than worked out again (see {@link ResultCache}).
+ * </p>
+ * 
+ * <p>
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
  * 
@@ -40,4 +47,142 @@ public interface ImageOperation {
      * @throws Exception Raised if an unexpected {@code Exception} occurs.
      */
     public BufferedImage apply(BufferedImage input) throws Exception;    
+
+    /**
+     * <p>
+     * Get an operation that does the same thing to a smaller (or larger) copy of an image.
+     * </p>
+     * 
+     * <p>
+     * This is used to preview operations quickly on a downsampled copy of the image (see {@link ImagePyramid}).
+     * The result only needs to look like the full-size result when it is scaled back up, e.g. a blur
+     * should scale its radius, and a selection should be scaled to cover the same part of the image.
+     * By default there is no such operation, and the operation is previewed at full size.
+     * </p>
+     * 
+     * @param scaleX The width of the copy, as a fraction of the width of the image.
+     * @param scaleY The height of the copy, as a fraction of the height of the image.
+     * @return The scaled operation, or null if this operation cannot be scaled.
+     */
+    public default ImageOperation scaledBy(double scaleX, double scaleY) {
+        return null;
+    }
+
+    /**
+     * <p>
+     * Check whether {@link #apply(BufferedImage)} may change the image it is given, rather than only reading it.
+     * </p>
+     * 
+     * <p>
+     * The images an {@link EditableImage} keeps (the original, the one on screen, and checkpoints) are shared
+     * rather than copied, and an image is only copied before it is given to an operation that changes it.
+     * Operations that always write their result to a new image can return false to save the copy.
+     * By default the operation is assumed to change its input.
+     * </p>
+     * 
+     * @return True if the input image may be changed.
+     */
+    public default boolean changesInput() {
+        return true;
+    }
+
+    /**
+     * <p>
+     * Get the region of an image that this operation changes, e.g. the selection it was applied to.
+     * </p>
+     * 
+     * <p>
+     * Pixels outside the region are left as they are, and pixels more than {@link #getHalo()} pixels outside it are not even read,
+     * so an operation on a small selection only needs to work on that part of a large image. This only describes operations that
+     * keep the size of the image. By default the operation changes the whole image.
+     * </p>
+     * 
+     * @param input The image the operation is applied to.
+     * @return The region that is changed, which lies within the image.
+     */
+    public default Rectangle getRegion(BufferedImage input) {
+        return new Rectangle(0, 0, input.getWidth(), input.getHeight());
+    }
+
+    /**
+     * <p>
+     * Get how far around each pixel this operation reads from, e.g. the radius of a filter.
+     * </p>
+     * 
+     * <p>
+     * The new colour of a pixel only depends on the pixels at most this many pixels away from it (in each direction),
+     * so the operation can be worked out from the pixels within this distance of its {@link #getRegion(BufferedImage) region}.
+     * By default this is 0, as for operations where each pixel only depends on itself.
+     * </p>
+     * 
+     * @return The halo, in pixels.
+     */
+    public default int getHalo() {
+        return 0;
+    }
+
+    /**
+     * <p>
+     * Work out which part of the result of this operation can change when part of its input changes.
+     * </p>
+     * 
+     * <p>
+     * This lets a change to a small part of the image (e.g. a brush stroke) be followed through the operations after it,
+     * so that only the part of each result it reaches has to be worked out again. By default, a pixel of the result can only
+     * change if it changed in the input, or if it is in the operation's {@link #getRegion(BufferedImage) region} and within its
+     * {@link #getHalo() halo} of a pixel that changed, which suits point operations (where the result is the input rectangle)
+     * and filters (where it grows by the radius). Operations that move pixels around or change the size of the image map the
+     * rectangle the same way they map the image.
+     * </p>
+     * 
+     * @param input The image the operation is applied to.
+     * @param dirty The part of the input that changed, which lies within the image.
+     * @return The part of the result that may change, which lies within the result.
+     */
+    public default Rectangle mapDirtyRegion(BufferedImage input, Rectangle dirty) {
+        Rectangle spread = new Rectangle(dirty);
+        spread.grow(getHalo(), getHalo());
+        spread = spread.intersection(getRegion(input));
+        return spread.isEmpty() ? new Rectangle(dirty) : spread.union(dirty);
+    }
+
+    /**
+     * <p>
+     * Apply the operation to an image, where only the pixels in a given area of the result are needed.
+     * </p>
+     * 
+     * <p>
+     * The other pixels of the result may be anything, so an operation that only changes its {@link #getRegion(BufferedImage) region}
+     * can skip the part of its region outside the area. The pixels of the input more than {@link #getHalo()} pixels outside the area
+     * may also be wrong, as they are not read. This is how part of the image is worked out again after a small change
+     * (see {@link #mapDirtyRegion(BufferedImage, Rectangle)}), on an image made for the purpose, so the input may be changed
+     * as if {@link #changesInput()} were true. By default the operation is applied to the whole image.
+     * </p>
+     * 
+     * @param input The image to apply the operation to.
+     * @param area The area of the result that is needed, which lies within the image.
+     * @return The image resulting from the operation.
+     * @throws Exception Raised if an unexpected {@code Exception} occurs.
+     */
+    public default BufferedImage applyToArea(BufferedImage input, Rectangle area) throws Exception {
+        return apply(input);
+    }
+
+    /**
+     * <p>
+     * Get an operation that exactly undoes this one.
+     * </p>
+     * 
+     * <p>
+     * Applying the inverse to the result of this operation must give back exactly the image this operation was applied to,
+     * pixel for pixel, so that {@link EditableImage#undo()} can apply it to the image on screen instead of replaying every
+     * other operation. Flips and rotations by multiples of 90 degrees only move pixels around, so they can be undone this way.
+     * By default there is no such operation, and undoing replays the operation stack.
+     * </p>
+     * 
+     * @return The inverse operation, or null if this operation cannot be undone exactly.
+     */
+    public default ImageOperation getInverse() {
+        return null;
+    }
 }
@@ -2,6 +2,7 @@ package cosc202.andie;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 
 import javax.swing.*;
 
@@ -17,6 +18,18 @@ import cosc202.andie.draw.Selection;
  * in and out. 
  * </p>
  * 
+ * <p>
+ * The panel listens for {@link ImageChangeEvent}s from its image, and only redraws the part of it that has changed,
+ * at most once every {@link #FRAME_INTERVAL} milliseconds. Nothing is redrawn while the image stays the same.
+ * </p>
+ * 
+ * <p>
+ * The panel is as big as the zoomed image, so that it can be scrolled around in a {@code JScrollPane}, and only
+ * the part of the image that can be seen is drawn. When zoomed out, the image is drawn from the nearest level of an
+ * {@link ImagePyramid} rather than the full-size image, so drawing costs about the same at any zoom level.
+ * The {@link Selection}, and any brush stroke or shape that is still being drawn, are drawn over the top of the image.
+ * </p>
+ * 
  * <p> 
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
@@ -48,6 +61,30 @@ public class ImagePanel extends JPanel {
      */
     private double scale;
 
+    /** The smallest zoom level, as a percentage. */
+    public static final double MIN_ZOOM = 1;
+
+    /** The largest zoom level, as a percentage. */
+    public static final double MAX_ZOOM = 3200;
+
+    /** Downsampled copies of the current image, to draw it from when zoomed out, or null if they have not been needed yet. */
+    private ImagePyramid pyramid;
+
+    /** The colour the selected area is tinted with, which lightens it about as much as the old +25% brightness highlight. */
+    private static final Color SELECTION_TINT = new Color(255, 255, 255, 48);
+
+    /** The shortest time between redraws of the image while it is changing, in milliseconds (about 60 frames per second). */
+    static final int FRAME_INTERVAL = 1000 / 60;
+
+    /** The part of the panel that needs to be redrawn at the next frame, or null if nothing does. */
+    private Rectangle dirty;
+
+    /** When the image was last redrawn after a change, from {@code System.nanoTime()}. */
+    private long lastFrame;
+
+    /** Redraws the dirty part of the panel once enough time has passed since the last frame. */
+    private final Timer frameTimer = new Timer(FRAME_INTERVAL, e -> repaintDirty());
+
     /**
      * <p>
      * Create a new ImagePanel.
@@ -61,6 +98,8 @@ public class ImagePanel extends JPanel {
         image = new EditableImage();
         selection = new Selection(this);
         scale = 1.0;
+        frameTimer.setRepeats(false);
+        image.addImageChangeListener(e -> imageChanged(e));
 
         addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) {
@@ -79,6 +118,76 @@ public class ImagePanel extends JPanel {
         });
     }
 
+    /**
+     * <p>
+     * Redraw the part of the panel showing a change to the image.
+     * </p>
+     * 
+     * @param e The change to the image.
+     */
+    private void imageChanged(ImageChangeEvent e) {
+        if (pyramid != null) {
+            if (image.hasImage()) pyramid.update(image.getCurrentImage(), e.getRegion());
+            else pyramid = null;
+        }
+        if (e.isWholeImage()) revalidate(); // The size of the image may have changed
+        repaintImage(e.getRegion());
+    }
+
+    /**
+     * <p>
+     * Redraw part of the image, e.g. where the selection has moved.
+     * </p>
+     * 
+     * <p>
+     * Requests that come in quicker than {@link #FRAME_INTERVAL} are gathered up and drawn together,
+     * so that e.g. dragging out a selection does not redraw the panel more often than the screen can show.
+     * </p>
+     * 
+     * @param region The region to redraw, in the coordinates of the current image, or null to redraw the whole panel.
+     */
+    public void repaintImage(Rectangle region) {
+        Rectangle panelRegion = new Rectangle(0, 0, getWidth(), getHeight());
+        if (region != null && image.hasImage()) panelRegion = toPanel(region);
+        dirty = dirty == null ? panelRegion : dirty.union(panelRegion);
+
+        if (frameTimer.isRunning()) return;
+        long wait = FRAME_INTERVAL - (System.nanoTime() - lastFrame) / 1000000;
+        if (wait <= 0) {
+            repaintDirty();
+        } else {
+            frameTimer.setInitialDelay((int) wait);
+            frameTimer.restart();
+        }
+    }
+
+    /**
+     * Convert a region of the image to the part of the panel it is drawn on.
+     * 
+     * @param region The region, in the coordinates of the current image.
+     * @return The region of the panel, with a pixel to spare on each side for rounding and smoothing.
+     */
+    private Rectangle toPanel(Rectangle region) {
+        Dimension location = getCenteredImageLocation();
+        int x = (int) Math.floor((location.getWidth() + region.x) * scale) - 1;
+        int y = (int) Math.floor((location.getHeight() + region.y) * scale) - 1;
+        int endX = (int) Math.ceil((location.getWidth() + region.x + region.width) * scale) + 1;
+        int endY = (int) Math.ceil((location.getHeight() + region.y + region.height) * scale) + 1;
+        return new Rectangle(x, y, endX - x, endY - y);
+    }
+
+    /**
+     * <p>
+     * Redraw the part of the panel that has changed since the last frame.
+     * </p>
+     */
+    private void repaintDirty() {
+        if (dirty == null) return;
+        repaint(dirty);
+        dirty = null;
+        lastFrame = System.nanoTime();
+    }
+
     /**
      * <p>
      * Get the currently displayed image
@@ -122,16 +231,16 @@ public class ImagePanel extends JPanel {
      * 
      * <p>
      * The percentage zoom is used for the external interface, where 100% is the original size, 50% is half-size, etc. 
-     * The zoom level is restricted to the range [50, 200].
+     * The zoom level is restricted to the range [{@link #MIN_ZOOM}, {@link #MAX_ZOOM}].
      * </p>
      * @param zoomPercent The new zoom level as a percentage.
      */
     public void setZoom(double zoomPercent) {
-        if (zoomPercent < 50) {
-            zoomPercent = 50;
+        if (zoomPercent < MIN_ZOOM) {
+            zoomPercent = MIN_ZOOM;
         }
-        if (zoomPercent > 200) {
-            zoomPercent = 200;
+        if (zoomPercent > MAX_ZOOM) {
+            zoomPercent = MAX_ZOOM;
         }
         scale = zoomPercent / 100;
     }
@@ -157,14 +266,17 @@ public class ImagePanel extends JPanel {
      * </p>
      * 
      * <p>
-     * The preferred size is the size of the image (scaled by zoom level), or a default size if no image is present.
+     * The preferred size is the size of the image (scaled by zoom level), or nothing if no image is present.
      * </p>
      * 
      * @return The preferred size of this component.
      */
     @Override
     public Dimension getPreferredSize() {
-        return new Dimension(0, 0);    }
+        if (!image.hasImage()) return new Dimension(0, 0);
+        Dimension size = image.getDimensions();
+        return new Dimension((int) Math.ceil(size.width * scale), (int) Math.ceil(size.height * scale));
+    }
 
     /**
      * <p>
@@ -176,13 +288,83 @@ public class ImagePanel extends JPanel {
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        if (image.hasImage()) {
-            Graphics2D g2  = (Graphics2D) g.create();
-            g2.scale(scale, scale);
-            g2.drawImage(image.getCurrentImage(), null, (int) (this.getCenteredImageLocation().getWidth()),
-                                                        (int) (this.getCenteredImageLocation().getHeight()));
-            g2.dispose();
+        if (!image.hasImage()) return;
+
+        // Work out which part of the image is inside the area being drawn, e.g. the part that can be seen in the scroll pane
+        Dimension size = image.getDimensions();
+        Dimension location = this.getCenteredImageLocation();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        int x = (int) Math.floor(clip.x / scale - location.getWidth());
+        int y = (int) Math.floor(clip.y / scale - location.getHeight());
+        int endX = (int) Math.ceil((clip.x + clip.width) / scale - location.getWidth());
+        int endY = (int) Math.ceil((clip.y + clip.height) / scale - location.getHeight());
+        Rectangle visible = new Rectangle(x, y, endX - x, endY - y).intersection(new Rectangle(size));
+        if (visible.isEmpty()) return;
+
+        BufferedImage source = image.getPreviewImage(); // A quick preview is worked out on a smaller copy of the image
+        if (source == null && scale < 1) {
+            if (pyramid == null || pyramid.displayLevel(1) != image.getCurrentImage()) pyramid = new ImagePyramid(image.getCurrentImage());
+            source = pyramid.displayLevel(scale);
+        } else if (source == null) {
+            source = image.getCurrentImage();
+        }
+        double sourceScaleX = source.getWidth() / (double) size.width;
+        double sourceScaleY = source.getHeight() / (double) size.height;
+        int sourceX = (int) Math.floor(visible.x * sourceScaleX);
+        int sourceY = (int) Math.floor(visible.y * sourceScaleY);
+        int sourceEndX = Math.min((int) Math.ceil(visible.getMaxX() * sourceScaleX) + 1, source.getWidth());
+        int sourceEndY = Math.min((int) Math.ceil(visible.getMaxY() * sourceScaleY) + 1, source.getHeight());
+
+        Graphics2D g2  = (Graphics2D) g.create();
+        g2.scale(scale, scale);
+        g2.translate(location.getWidth(), location.getHeight());
+        g2.scale(1 / sourceScaleX, 1 / sourceScaleY);
+        if (scale < sourceScaleX || source.getWidth() != size.width) {
+            // Smooth the image when it is shrunk, or a preview is stretched, but show the pixels when zoomed in
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        g2.drawImage(source.getSubimage(sourceX, sourceY, sourceEndX - sourceX, sourceEndY - sourceY), sourceX, sourceY, null);
+        g2.dispose();
+
+        // A brush stroke or shape is drawn over the image until it is finished
+        Graphics2D overlay = (Graphics2D) g.create();
+        overlay.scale(scale, scale);
+        overlay.translate(location.getWidth(), location.getHeight());
+        selection.paintOverlay(overlay, visible);
+        overlay.dispose();
+
+        paintSelection(g);
+    }
+
+    /**
+     * <p>
+     * Draw the selection over the image.
+     * </p>
+     * 
+     * <p>
+     * The selection is drawn on top of the image, rather than being applied to it, so moving it does not need the image to be redrawn.
+     * The selected area is tinted lighter, unless an operation is being previewed on it, and outlined with a dashed line.
+     * </p>
+     * 
+     * @param g The Graphics component to draw the selection on.
+     */
+    private void paintSelection(Graphics g) {
+        Rectangle marquee = selection.getMarquee();
+        if (marquee == null) return;
+        Rectangle area = toPanel(marquee);
+        area.grow(-1, -1); // toPanel leaves a pixel to spare on each side
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        if (!image.hasPreview()) {
+            g2.setColor(SELECTION_TINT);
+            g2.fill(area);
         }
-        repaint();
+        g2.setColor(Color.WHITE);
+        g2.drawRect(area.x, area.y, area.width - 1, area.height - 1);
+        g2.setColor(Color.BLACK);
+        g2.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10, new float[] {4, 4}, 0));
+        g2.drawRect(area.x, area.y, area.width - 1, area.height - 1);
+        g2.dispose();
     }
 }
@@ -0,0 +1,218 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Downsampled copies of an image, for previewing operations quickly and for drawing the image zoomed out.
+ * </p>
+ *
+ * <p>
+ * The pyramid keeps copies of the image at half, a quarter, an eighth, etc. of its size. While the user drags a slider,
+ * an operation is previewed many times a second, but the image is usually shown smaller than its full size, and a
+ * large image has far more pixels than the screen can show. A preview can be worked out on the smallest copy that still
+ * has enough pixels for the zoom level instead ({@link #previewLevel(double)}, and see {@link ImageOperation#scaledBy(double, double)}).
+ * The full-size result is only worked out when the operation is actually applied. In the same way, the {@link ImagePanel}
+ * draws a zoomed out image from the nearest level ({@link #displayLevel(double)}), so that drawing costs about the same at any zoom.
+ * </p>
+ *
+ * <p>
+ * Each level is made from the one above it by averaging each 2x2 block of pixels. The colours are weighted by
+ * their alpha values, so that transparent pixels do not darken the edges of opaque areas. Levels are only made when they are first needed,
+ * which may be on a background thread (see {@link PreviewScheduler}), so the methods are synchronized. When part of the image changes,
+ * {@link #update(BufferedImage, Rectangle)} only remakes the blocks of each level that cover that part.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+class ImagePyramid {
+
+    /** The most pixels a preview is worked out on, however far the image is zoomed in. */
+    static final long MAX_PIXELS = 1L << 22;
+
+    /** The levels made so far, starting with the full-size image. */
+    private final List<BufferedImage> levels = new ArrayList<BufferedImage>();
+
+    /**
+     * Create a pyramid for an image.
+     *
+     * @param image The full-size image, which is not copied and must not be changed while the pyramid is in use
+     *              (other than through {@link #update(BufferedImage, Rectangle)}).
+     */
+    ImagePyramid(BufferedImage image) {
+        levels.add(image);
+    }
+
+    /**
+     * <p>
+     * Get the smallest level that still has at least one pixel for every pixel on the screen, to preview an operation on.
+     * </p>
+     *
+     * <p>
+     * If that level has more than {@link #MAX_PIXELS} pixels, a smaller one is used instead, so that previews
+     * stay quick when the image is zoomed in.
+     * </p>
+     *
+     * @param displayScale The size the image is shown at, as a fraction of its full size (e.g. 0.5 at 50% zoom).
+     * @return The level to preview on, which may be the full-size image. It must not be changed.
+     */
+    synchronized BufferedImage previewLevel(double displayScale) {
+        int index = indexFor(displayScale);
+        while ((long) get(index).getWidth() * get(index).getHeight() > MAX_PIXELS && canShrink(index)) {
+            index++;
+        }
+        return get(index);
+    }
+
+    /**
+     * <p>
+     * Get the smallest level that still has at least one pixel for every pixel on the screen, to draw the image from.
+     * </p>
+     *
+     * @param displayScale The size the image is shown at, as a fraction of its full size (e.g. 0.5 at 50% zoom).
+     * @return The level to draw, which is the full-size image if it is shown at full size or larger. It must not be changed.
+     */
+    synchronized BufferedImage displayLevel(double displayScale) {
+        return get(indexFor(displayScale));
+    }
+
+    /**
+     * <p>
+     * Replace the full-size image with one that only differs from it within a region, and remake that region of each level
+     * that has been made so far.
+     * </p>
+     *
+     * @param image The new full-size image.
+     * @param region The region where the new image differs from the old one, or null if it may differ anywhere.
+     */
+    synchronized void update(BufferedImage image, Rectangle region) {
+        BufferedImage old = levels.get(0);
+        if (region == null || image.getWidth() != old.getWidth() || image.getHeight() != old.getHeight()
+                || image.getColorModel().hasAlpha() != old.getColorModel().hasAlpha()) {
+            levels.clear();
+            levels.add(image);
+            return;
+        }
+        levels.set(0, image);
+        Rectangle changed = region.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        for (int index = 1; index < levels.size() && !changed.isEmpty(); index++) {
+            // The blocks of the level above that hold a changed pixel
+            int x = changed.x / 2, y = changed.y / 2;
+            changed = new Rectangle(x, y, (changed.x + changed.width - 1) / 2 - x + 1, (changed.y + changed.height - 1) / 2 - y + 1);
+            halve(levels.get(index - 1), levels.get(index), changed);
+        }
+    }
+
+    /**
+     * Get the index of the smallest level that is at least {@code displayScale} times the size of the image.
+     *
+     * @param displayScale The size the image is shown at, as a fraction of its full size.
+     * @return The index of the level.
+     */
+    private int indexFor(double displayScale) {
+        int index = 0;
+        double levelScale = 1.0;
+        while (levelScale / 2 >= displayScale && canShrink(index)) {
+            index++;
+            levelScale /= 2;
+        }
+        return index;
+    }
+
+    /**
+     * Check whether a level can be halved again.
+     *
+     * @param index The index of the level.
+     * @return True if the level is more than one pixel wide and high.
+     */
+    private boolean canShrink(int index) {
+        BufferedImage image = get(index);
+        return image.getWidth() > 1 && image.getHeight() > 1;
+    }
+
+    /**
+     * Get a level of the pyramid, making it (and any levels above it) if needed.
+     *
+     * @param index The index of the level, where 0 is the full-size image.
+     * @return The level.
+     */
+    private BufferedImage get(int index) {
+        while (levels.size() <= index) levels.add(halve(levels.get(levels.size() - 1)));
+        return levels.get(index);
+    }
+
+    /**
+     * <p>
+     * Make a copy of an image at half its size, by averaging each 2x2 block of pixels.
+     * </p>
+     *
+     * <p>
+     * If the width or height is odd, the last column or row is averaged with itself.
+     * </p>
+     *
+     * @param input The image to halve.
+     * @return The halved image, of type {@code TYPE_INT_ARGB}, or {@code TYPE_INT_RGB} if the input has no alpha channel.
+     */
+    static BufferedImage halve(BufferedImage input) {
+        int outWidth = (input.getWidth() + 1) / 2;
+        int outHeight = (input.getHeight() + 1) / 2;
+        BufferedImage output = new BufferedImage(outWidth, outHeight, input.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        halve(input, output, new Rectangle(0, 0, outWidth, outHeight));
+        return output;
+    }
+
+    /**
+     * Work out part of the halved copy of an image.
+     *
+     * @param input The image to halve.
+     * @param output The halved image, from {@link #halve(BufferedImage)}.
+     * @param region The region of {@code output} to work out.
+     */
+    private static void halve(BufferedImage input, BufferedImage output, Rectangle region) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int outWidth = output.getWidth();
+        boolean hasAlpha = input.getColorModel().hasAlpha();
+
+        int[] srcPixels = PixelAccess.getPixels(input);
+        int[] dstPixels = PixelAccess.getPixels(output);
+        TileScheduler.run(region.intersection(new Rectangle(0, 0, outWidth, output.getHeight())), 0, tile -> {
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                int top = 2*y * width;
+                int bottom = Math.min(2*y + 1, height - 1) * width;
+                for (int x = tile.x(); x < tile.endX(); x++) {
+                    int left = 2*x;
+                    int right = Math.min(2*x + 1, width - 1);
+                    dstPixels[y * outWidth + x] = average(srcPixels[top + left], srcPixels[top + right],
+                                                          srcPixels[bottom + left], srcPixels[bottom + right], hasAlpha);
+                }
+            }
+        });
+        PixelAccess.setPixels(output, dstPixels);
+    }
+
+    /**
+     * Average four pixels, weighting their colours by their alpha values.
+     *
+     * @param p0 The first packed ARGB pixel.
+     * @param p1 The second packed ARGB pixel.
+     * @param p2 The third packed ARGB pixel.
+     * @param p3 The fourth packed ARGB pixel.
+     * @param hasAlpha Whether the alpha values of the pixels are used (otherwise they are treated as opaque).
+     * @return The average pixel, rounded to the nearest value.
+     */
+    private static int average(int p0, int p1, int p2, int p3, boolean hasAlpha) {
+        int a0 = hasAlpha ? p0 >>> 24 : 255, a1 = hasAlpha ? p1 >>> 24 : 255, a2 = hasAlpha ? p2 >>> 24 : 255, a3 = hasAlpha ? p3 >>> 24 : 255;
+        int alpha = a0 + a1 + a2 + a3;
+        if (alpha == 0) return 0;
+        int r = a0 * ((p0 >> 16) & 0xFF) + a1 * ((p1 >> 16) & 0xFF) + a2 * ((p2 >> 16) & 0xFF) + a3 * ((p3 >> 16) & 0xFF);
+        int g = a0 * ((p0 >> 8) & 0xFF) + a1 * ((p1 >> 8) & 0xFF) + a2 * ((p2 >> 8) & 0xFF) + a3 * ((p3 >> 8) & 0xFF);
+        int b = a0 * (p0 & 0xFF) + a1 * (p1 & 0xFF) + a2 * (p2 & 0xFF) + a3 * (p3 & 0xFF);
+        return ((alpha + 2) / 4) << 24 | ((r + alpha / 2) / alpha) << 16 | ((g + alpha / 2) / alpha) << 8 | (b + alpha / 2) / alpha;
+    }
+}
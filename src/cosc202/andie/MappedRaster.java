@@ -0,0 +1,164 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * The pixels of an image, stored outside the Java heap in a memory-mapped temporary file.
+ * </p>
+ *
+ * <p>
+ * Every large image on the heap makes garbage collection slower, however rarely it is used, and copies of a large
+ * image (e.g. the checkpoints of its history, see {@link CheckpointCache}) soon fill the heap. A {@code MappedRaster}
+ * keeps the packed ARGB pixels in a file that is mapped into memory instead. Reading them is about as quick as
+ * copying an array, but they are not on the heap, and the operating system can write the parts that are not being
+ * used out to disk and read them back in when they are needed.
+ * </p>
+ *
+ * <p>
+ * The pixels are stored with the same layout as {@link PixelAccess#getPixels(BufferedImage)}, one row after another,
+ * and are read back a region at a time, e.g. as the tiles of a {@link TiledImage} (see {@link TiledImage#wrap(MappedRaster)}).
+ * A raster is never changed once it has been made. A single mapping can only be 2GB, so a raster larger than that
+ * is mapped in several pieces of whole rows.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class MappedRaster {
+
+    /** The most bytes mapped in one piece. */
+    private static final long MAX_PIECE_BYTES = 1L << 30;
+
+    /** The file the pixels are stored in. */
+    private final File file;
+    /** The size of the image. */
+    private final int width, height;
+    /** Whether the image has an alpha channel. */
+    private final boolean hasAlpha;
+    /** The number of rows in each piece. */
+    private final int rowsPerPiece;
+    /** The mapped pieces of the file, or null once the raster has been disposed of. */
+    private IntBuffer[] pieces;
+
+    /**
+     * <p>
+     * Copy the pixels of an image into a new memory-mapped file.
+     * </p>
+     *
+     * @param image The image to copy, which is not changed.
+     * @throws IOException if the file cannot be made, e.g. if the disk is full.
+     */
+    public MappedRaster(BufferedImage image) throws IOException {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.hasAlpha = image.getColorModel().hasAlpha();
+        this.rowsPerPiece = (int) Math.max(1, MAX_PIECE_BYTES / (4L * width));
+        this.file = TempFiles.create("andie-raster");
+
+        int[] pixels = PixelAccess.getPixels(image);
+        int count = (height + rowsPerPiece - 1) / rowsPerPiece;
+        pieces = new IntBuffer[count];
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"); FileChannel channel = out.getChannel()) {
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * rowsPerPiece * width;
+                int length = Math.min(rowsPerPiece, height - i * rowsPerPiece) * width;
+                // The mapping stays valid once the channel is closed
+                pieces[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * 4, (long) length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+                pieces[i].put(0, pixels, (int) start, length);
+            }
+        } catch (IOException ex) {
+            dispose();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the width of the image.
+     *
+     * @return The width, in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the image.
+     *
+     * @return The height, in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Check whether the image has an alpha channel.
+     *
+     * @return True if the pixels have alpha values.
+     */
+    public boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    /**
+     * <p>
+     * Copy the pixels of a region onto the heap.
+     * </p>
+     *
+     * <p>
+     * Only the part of the file under the region is read, so the rest of it can stay on disk.
+     * </p>
+     *
+     * @param region The region to copy, which lies within the image.
+     * @return A new image of the same size as the region, of type {@code TYPE_INT_ARGB},
+     *         or {@code TYPE_INT_RGB} if the image that was copied had no alpha channel.
+     */
+    public BufferedImage read(Rectangle region) {
+        IntBuffer[] mapped = pieces;
+        if (mapped == null) throw new IllegalStateException("The raster has been disposed of");
+        BufferedImage image = new BufferedImage(region.width, region.height, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = PixelAccess.getPixels(image);
+        for (int y = 0; y < region.height; y++) {
+            int row = region.y + y;
+            int piece = row / rowsPerPiece;
+            mapped[piece].get((row - piece * rowsPerPiece) * width + region.x, pixels, y * region.width, region.width);
+        }
+        PixelAccess.setPixels(image, pixels);
+        return image;
+    }
+
+    /**
+     * <p>
+     * Copy the pixels back onto the heap.
+     * </p>
+     *
+     * @return A new image with the same pixels as the one that was copied, of type {@code TYPE_INT_ARGB},
+     *         or {@code TYPE_INT_RGB} if it had no alpha channel.
+     */
+    public BufferedImage toImage() {
+        return read(new Rectangle(width, height));
+    }
+
+    /**
+     * <p>
+     * Let go of the mapping and delete the file. The raster cannot be used afterwards.
+     * </p>
+     *
+     * <p>
+     * The memory is only unmapped once the garbage collector finds that it is not used any more, so on some systems
+     * the file is not deleted until ANDIE exits (see {@link TempFiles}).
+     * </p>
+     */
+    public void dispose() {
+        pieces = null;
+        TempFiles.delete(file);
+    }
+}
@@ -1,6 +1,7 @@
 package cosc202.andie;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
 import java.util.*;
 
@@ -23,6 +24,9 @@ import java.util.*;
  * @version 1.0
  */
 public class MeanFilter implements ImageOperation, java.io.Serializable {
+
+    /** The version from before the filter could be scaled for previews, kept so that saved operation files and macros still open. */
+    private static final long serialVersionUID = 7929898033554114301L;
     
     /**
      * The size of filter to apply. A radius of 1 is a 3x3 filter, a radius of 2 a 5x5 filter, and so forth.
@@ -98,9 +102,19 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
      * </p>
      * 
      * <p>
-     * As with many filters, the Mean filter is implemented via convolution.
-     * The size of the convolution kernel is specified by the {@link radius}.
+     * The Mean filter is a box blur: each pixel is replaced by the average of the square of pixels around it.
+     * The size of the square is specified by the {@link radius}.
      * Larger radii lead to stronger blurring.
+     * Pixels outside of the image take the value of the nearest pixel on its edge, as they do for the {@link GaussianBlurFilter}.
+     * Earlier versions of ANDIE took the pixel in the same row or column as the one being blurred instead
+     * (see {@link AndieConvolveOp}), so pixels within the radius of the edge come out differently than they used to.
+     * </p>
+     * 
+     * <p>
+     * Rather than summing the whole square for every pixel, the filter keeps running sums that slide across each row,
+     * and then down each column, adding the value that enters the square and subtracting the one that leaves it.
+     * This means the time taken per pixel does not depend on the radius.
+     * The sums are kept as integers, so the result is the exact (rounded) mean.
      * </p>
      * 
      * @param input The image to apply the Mean filter to.
@@ -109,17 +123,29 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
      * 
      */
     public BufferedImage apply(BufferedImage input) throws Exception {
+        return applyToArea(input, new Rectangle(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * Apply the filter to the part of the selection in a given area, in place.
+     * </p>
+     * 
+     * @param input The image to apply the filter to.
+     * @param area The area of the result that is needed.
+     * @return The resulting image.
+     * @throws Exception Raised if an unexpected {@code Exception} occurs.
+     */
+    @Override
+    public BufferedImage applyToArea(BufferedImage input, Rectangle area) throws Exception {
         BufferedImage output = null;
         try{
-            int size = (2*radius+1) * (2*radius+1);
-            float [] array = new float[size];
-            Arrays.fill(array, 1.0f/size);
+            boolean hasAlpha = input.getColorModel().hasAlpha();
 
-            Kernel kernel = new Kernel(2*radius+1, 2*radius+1, array);
-            AndieConvolveOp convOp = new AndieConvolveOp(kernel);
-            output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-            if (x1 != -1 && x2 != -1 && y1 != -1 && y2 != -1) convOp.filter(input, output, x1, y1, x2, y2);
-            else convOp.filter(input, output);
+            // Only the selection is blurred, in place, with each tile reading the pixels within the radius around it
+            output = PixelAccess.filterRegion(input, getRegion(input).intersection(area), radius, (srcPixels, dstPixels, width, height, region) ->
+                TileScheduler.run(region, radius,
+                    tile -> boxBlur(srcPixels, dstPixels, width, height, tile.x(), tile.y(), tile.endX() - 1, tile.endY() - 1, hasAlpha)));
 
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
@@ -129,5 +155,204 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
         return output;
     }
 
+    /**
+     * <p>
+     * Get the region of an image that is blurred: the selected area, or the whole image if there is none.
+     * </p>
+     * 
+     * @param input The image the filter is applied to.
+     * @return The region to blur.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input) {
+        Rectangle image = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        if (FilterScaling.hasSelection(x1, y1, x2, y2)) return image.intersection(new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1));
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the number of pixels around each pixel that the filter reads.
+     * </p>
+     * 
+     * @return The radius of the box that is averaged over.
+     */
+    @Override
+    public int getHalo() {
+        return radius;
+    }
 
+    /**
+     * <p>
+     * Get the same filter for a scaled copy of the image.
+     * </p>
+     * 
+     * <p>
+     * The box that is averaged over is scaled to cover the same part of the image, as is the selection.
+     * </p>
+     * 
+     * @param scaleX The width of the copy, as a fraction of the width of the image.
+     * @param scaleY The height of the copy, as a fraction of the height of the image.
+     * @return The scaled filter.
+     */
+    @Override
+    public ImageOperation scaledBy(double scaleX, double scaleY) {
+        return FilterScaling.scale(radius, x1, y1, x2, y2, scaleX, scaleY,
+                                   (r, p1, p2) -> p1 == null ? new MeanFilter(r) : new MeanFilter(r, p1, p2));
+    }
+
+    /**
+     * <p>
+     * Blur the pixels within a selection using running sums.
+     * </p>
+     * 
+     * <p>
+     * The horizontal sums of each source row within reach of the selection are computed once, and kept in a
+     * ring buffer of {@code 2*radius+2} rows. The vertical sums of those are then slid down the selection,
+     * one row at a time.
+     * Rows and columns outside of the image are clamped to the nearest one inside it.
+     * </p>
+     * 
+     * @param srcPixels The pixels of the source image.
+     * @param dstPixels The destination for the blurred pixels.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param startX The X position at the start of the selection (inclusive).
+     * @param startY The Y position at the start of the selection (inclusive).
+     * @param endX The X position at the end of the selection (inclusive).
+     * @param endY The Y position at the end of the selection (inclusive).
+     * @param hasAlpha True if the image has an alpha channel; false otherwise.
+     */
+    private void boxBlur(int[] srcPixels, int[] dstPixels, int width, int height, int startX, int startY, int endX, int endY, boolean hasAlpha) {
+        int firstX = Math.max(startX, 0);
+        int lastX = Math.min(endX, width - 1);
+        int firstY = Math.max(startY, 0);
+        int lastY = Math.min(endY, height - 1);
+        int length = lastX - firstX + 1;
+        if (length <= 0 || firstY > lastY) return;
+
+        int slots = 2*radius+2;
+        int area = (2*radius+1) * (2*radius+1);
+
+        // The horizontal sums of source rows, one array per channel, in a ring buffer indexed by source row
+        int[][] rowA = new int[slots][length];
+        int[][] rowR = new int[slots][length];
+        int[][] rowG = new int[slots][length];
+        int[][] rowB = new int[slots][length];
+        int[] summedRow = new int[slots];
+        Arrays.fill(summedRow, -1);
+
+        // The vertical sums of the horizontal sums, i.e. the sums over the whole square, for the current row
+        int[] sumA = new int[length];
+        int[] sumR = new int[length];
+        int[] sumG = new int[length];
+        int[] sumB = new int[length];
+
+        for (int ky = firstY - radius; ky <= firstY + radius; ky++) {
+            int slot = sumRow(srcPixels, width, height, ky, firstX, length, rowA, rowR, rowG, rowB, summedRow);
+            for (int i = 0; i < length; i++) {
+                sumA[i] += rowA[slot][i];
+                sumR[i] += rowR[slot][i];
+                sumG[i] += rowG[slot][i];
+                sumB[i] += rowB[slot][i];
+            }
+        }
+
+        for (int y = firstY; y <= lastY; y++) {
+            int rowPos = y * width + firstX;
+            for (int i = 0; i < length; i++) {
+                int a = hasAlpha ? (sumA[i] + area/2) / area : 255;
+                int r = (sumR[i] + area/2) / area;
+                int g = (sumG[i] + area/2) / area;
+                int b = (sumB[i] + area/2) / area;
+                dstPixels[rowPos + i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            if (y == lastY) break;
+
+            // Slide the square down a row
+            int entering = sumRow(srcPixels, width, height, y + radius + 1, firstX, length, rowA, rowR, rowG, rowB, summedRow);
+            int leaving = sumRow(srcPixels, width, height, y - radius, firstX, length, rowA, rowR, rowG, rowB, summedRow);
+            for (int i = 0; i < length; i++) {
+                sumA[i] += rowA[entering][i] - rowA[leaving][i];
+                sumR[i] += rowR[entering][i] - rowR[leaving][i];
+                sumG[i] += rowG[entering][i] - rowG[leaving][i];
+                sumB[i] += rowB[entering][i] - rowB[leaving][i];
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Make sure the horizontal sums of a source row are in the ring buffer, computing them if they are not.
+     * </p>
+     * 
+     * @param srcPixels The pixels of the source image.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param y The row to sum, which is clamped to the image.
+     * @param firstX The X position of the first sum.
+     * @param length The number of sums in a row.
+     * @param rowA The ring buffer of alpha sums.
+     * @param rowR The ring buffer of red sums.
+     * @param rowG The ring buffer of green sums.
+     * @param rowB The ring buffer of blue sums.
+     * @param summedRow The source row stored in each slot of the ring buffer.
+     * @return The slot of the ring buffer holding the sums for the row.
+     */
+    private int sumRow(int[] srcPixels, int width, int height, int y, int firstX, int length,
+                        int[][] rowA, int[][] rowR, int[][] rowG, int[][] rowB, int[] summedRow) {
+        int srcY = Math.min(Math.max(y, 0), height - 1);
+        int slot = srcY % summedRow.length;
+        if (summedRow[slot] == srcY) return slot;
+
+        int rowPos = srcY * width;
+        int a = 0, r = 0, g = 0, b = 0;
+        for (int kx = firstX - radius; kx <= firstX + radius; kx++) {
+            int argb = srcPixels[rowPos + Math.min(Math.max(kx, 0), width - 1)];
+            a += argb >>> 24;
+            r += (argb >> 16) & 0xFF;
+            g += (argb >> 8) & 0xFF;
+            b += argb & 0xFF;
+        }
+        for (int i = 0; i < length; i++) {
+            rowA[slot][i] = a;
+            rowR[slot][i] = r;
+            rowG[slot][i] = g;
+            rowB[slot][i] = b;
+
+            int in = srcPixels[rowPos + Math.min(firstX + i + radius + 1, width - 1)];
+            int out = srcPixels[rowPos + Math.max(firstX + i - radius, 0)];
+            a += (in >>> 24) - (out >>> 24);
+            r += ((in >> 16) & 0xFF) - ((out >> 16) & 0xFF);
+            g += ((in >> 8) & 0xFF) - ((out >> 8) & 0xFF);
+            b += (in & 0xFF) - (out & 0xFF);
+        }
+        summedRow[slot] = srcY;
+        return slot;
+    }
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a mean filter with the same radius, over the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MeanFilter)) return false;
+        MeanFilter other = (MeanFilter) obj;
+        return radius == other.radius && x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(radius, x1, y1, x2, y2);
+    }
 }
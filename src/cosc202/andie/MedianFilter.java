@@ -1,6 +1,7 @@
 package cosc202.andie;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
 import java.util.*;
 
@@ -11,11 +12,15 @@ import java.util.*;
  * 
  * <p>
  * A Median filter blurs an image by taking the median of a radius of pixels.
- * This is implemented by accessing each and every pixel needed to get the 
- * median value.
+ * This is implemented with a histogram of the pixels around each pixel,
+ * which is updated as the filter moves across the image.
+ * </p>
  */
 public class MedianFilter implements ImageOperation, java.io.Serializable {
 
+    /** The version from before the filter could be scaled for previews, kept so that saved operation files and macros still open. */
+    private static final long serialVersionUID = 319708760322900396L;
+
     /**
      * The size of the filter to apply. A radius of 1 is a 3x3 filter, a radius of 2 a 5x5 filter, and so forth.
      */
@@ -90,10 +95,18 @@ public class MedianFilter implements ImageOperation, java.io.Serializable {
      * 
      * <p>
      * The Median filter is implmented by finding the separate 
-     * RBG and alpha channels and sorting these values inside
+     * RBG and alpha channels and finding the median of these values inside
      * a given radius. 
      * A larger radius gives us a stronger blurring as pixels
      * are all set to the median value of the channels.
+     * Pixels outside of the image take the value of the nearest pixel on its edge.
+     * </p>
+     * 
+     * <p>
+     * Rather than sorting the neighbourhood of every pixel, the filter keeps a histogram of each channel for
+     * every column of the neighbourhood, and slides them down the image (Perreault and H&eacute;bert, 2007).
+     * The histogram of the whole neighbourhood is slid along each row by adding the column entering it and
+     * subtracting the column leaving it, so the time taken per pixel does not depend on the radius.
      * </p>
      * 
      * @param input The image to apply the Median filter to.
@@ -101,35 +114,31 @@ public class MedianFilter implements ImageOperation, java.io.Serializable {
      */
 
     public BufferedImage apply(BufferedImage input) throws Exception {
+        return applyToArea(input, new Rectangle(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * Apply the filter to the part of the selection in a given area, in place.
+     * </p>
+     * 
+     * @param input The image to apply the filter to.
+     * @param area The area of the result that is needed.
+     * @return The resulting image.
+     * @throws Exception Raised if an unexpected {@code Exception} occurs.
+     */
+    @Override
+    public BufferedImage applyToArea(BufferedImage input, Rectangle area) throws Exception {
 
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
+        BufferedImage output = null;
 
         try{
-            int sideLength = 2*radius+1;
-            int size = sideLength*sideLength;
-
-            //The dimensions of the selection - default to the entire image
-            Point p1 = new Point(0, 0);
-            Point p2 = new Point(input.getWidth(), input.getHeight()-1);
-            //Otherwise, use the selection provided
-            if(x1 != -1){
-                p1.setLocation(x1, y1);
-                p2.setLocation(x2, y2);
-            }
-            
-            //Create new threads
-            int cores = Runtime.getRuntime().availableProcessors();
-            Thread[] threads = new Thread[cores];
-            int heightSegment = ((int) (p2.getY() - p1.getY())) / threads.length;
-            for(int i = 0; i < threads.length; i++){
-                //Make sure that the filter extends all the way down
-                if(i == threads.length-1) threads[i] = new RunProcess(input, output, size, (int) p1.getX(), (int) p1.getY() + heightSegment * i, (int) p2.getX(), (int) p2.getY());
-                else threads[i] = new RunProcess(input, output, size, (int) p1.getX(), (int) p1.getY() + heightSegment * i, (int) p2.getX(), (int) p1.getY() + heightSegment * (i+1));
-                threads[i].start();
-            }
+            boolean hasAlpha = input.getColorModel().hasAlpha();
 
-            //Wait for each thread to finish.
-            for(int i = 0; i < threads.length; i++) threads[i].join();
+            //Only the selection is filtered, in place, and each tile keeps its own histograms, starting from the rows and columns within the radius around it
+            output = PixelAccess.filterRegion(input, getRegion(input).intersection(area), radius, (srcPixels, dstPixels, width, height, region) ->
+                TileScheduler.run(region, radius,
+                    tile -> new RunProcess(srcPixels, dstPixels, width, height, hasAlpha, tile.x(), tile.y(), tile.endX(), tile.endY()).run()));
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
         }
@@ -138,91 +147,270 @@ public class MedianFilter implements ImageOperation, java.io.Serializable {
 
     /**
      * <p>
-     * An extension of {@code Thread} which runs a portion of the computation for Median Filter.
+     * Get the region of an image that is filtered: the selected area (not including its bottom and right edges), or the whole image if there is none.
+     * </p>
+     * 
+     * @param input The image the filter is applied to.
+     * @return The region to filter.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input) {
+        Rectangle image = new Rectangle(0, 0, input.getWidth(), input.getHeight());
+        if (FilterScaling.hasSelection(x1, y1, x2, y2)) return image.intersection(new Rectangle(x1, y1, x2 - x1, y2 - y1));
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the number of pixels around each pixel that the filter reads.
      * </p>
+     * 
+     * @return The radius of the neighbourhood the median is taken over.
      */
-    private class RunProcess extends Thread{
-        /** The input image - we take the original pixel values from here. */
-        private BufferedImage input;
-        /** The output image - mutated pixels are put onto here. */
-        private BufferedImage output;
-        /** The points defining the selection over which to apply Median Filter */
+    @Override
+    public int getHalo() {
+        return radius;
+    }
+
+    /**
+     * <p>
+     * Get the same filter for a scaled copy of the image.
+     * </p>
+     * 
+     * <p>
+     * The neighbourhood the median is taken over is scaled with the image, as is the selection. A radius of 0 leaves the image as it is.
+     * </p>
+     * 
+     * @param scaleX The width of the copy, as a fraction of the width of the image.
+     * @param scaleY The height of the copy, as a fraction of the height of the image.
+     * @return The scaled filter.
+     */
+    @Override
+    public ImageOperation scaledBy(double scaleX, double scaleY) {
+        return FilterScaling.scale(radius, x1, y1, x2, y2, scaleX, scaleY,
+                                   (r, p1, p2) -> p1 == null ? new MedianFilter(r) : new MedianFilter(r, p1, p2));
+    }
+
+    /**
+     * <p>
+     * Runs the computation for Median Filter on a portion of the image.
+     * </p>
+     * 
+     * <p>
+     * Each channel has a histogram of 256 fine bins for each column, covering the {@code 2*radius+1} rows around the current row,
+     * along with 16 coarse bins that each count 16 of the fine bins.
+     * The histogram of the neighbourhood is the sum of the column histograms. Its coarse bins are kept up to date as it moves along the row,
+     * but each group of fine bins is only brought up to date when the median falls inside it.
+     * </p>
+     */
+    private class RunProcess implements Runnable{
+        /** The number of fine bins in a histogram. */
+        private static final int BINS = 256;
+        /** The number of fine bins counted by each coarse bin. */
+        private static final int COARSE_SIZE = 16;
+        /** The number of coarse bins in a histogram. */
+        private static final int COARSE_BINS = BINS / COARSE_SIZE;
+
+        /** The input pixels - we take the original pixel values from here. */
+        private int[] srcPixels;
+        /** The output pixels - mutated pixels are put onto here. */
+        private int[] dstPixels;
+        /** The dimensions of the image. */
+        private int width, height;
+        /** True if the image has an alpha channel. */
+        private boolean hasAlpha;
+        /** The points defining the selection over which to apply Median Filter (the end points are exclusive). */
         private int x1, y1, x2, y2;
-        /** The size of the filter (2*radius+1)^2 */
-        private int size;
 
         /**
-         * Instantiate a thread for a segment of the input image.
+         * Instantiate the computation for a segment of the input image.
          * 
-         * @param input      The image to mutate
-         * @param filterSize The size of the filter (i.e. (2*radius+1)^2)
-         * @param x1         The x-oordinate of the top left corner of selection
-         * @param y1         The y-oordinate of the top left corner of selection
-         * @param x2         The x-oordinate of the bottom right corner of selection
-         * @param y2         The y-oordinate of the bottom right corner of selection
+         * @param srcPixels The pixels of the image to filter
+         * @param dstPixels The destination for the filtered pixels
+         * @param width     The width of the image
+         * @param height    The height of the image
+         * @param hasAlpha  True if the image has an alpha channel
+         * @param x1        The x-oordinate of the top left corner of selection
+         * @param y1        The y-oordinate of the top left corner of selection
+         * @param x2        The x-oordinate of the bottom right corner of selection (exclusive)
+         * @param y2        The y-oordinate of the bottom right corner of selection (exclusive)
          */
-        public RunProcess(BufferedImage input, BufferedImage output, int filterSize, int x1, int y1, int x2, int y2){
-            super();
-            this.input = input;
-            this.output = output;
+        public RunProcess(int[] srcPixels, int[] dstPixels, int width, int height, boolean hasAlpha, int x1, int y1, int x2, int y2){
+            this.srcPixels = srcPixels;
+            this.dstPixels = dstPixels;
+            this.width = width;
+            this.height = height;
+            this.hasAlpha = hasAlpha;
             this.x1 = x1;
             this.y1 = y1;
             this.x2 = x2;
             this.y2 = y2;
-            this.size = filterSize;
         }
 
         /**
          * <p>
-         * Make the thread start processing the image.
+         * Process this segment of the image.
          * </p>
          */
         @Override
         public void run(){
-            int[] a = new int[size];
-            int[] r = new int[size];
-            int[] g = new int[size];
-            int[] b = new int[size];
-            int median = size/2;
-            int height = input.getHeight();
-            int width = input.getWidth();
-            boolean hasAlpha = input.getColorModel().hasAlpha();
-            //Go to every pixel in the selection
-            for (int x = this.x1; x < this.x2; x++) {
-                for (int y = this.y1; y < this.y2; y++) {
-                    //Make sure the current pixel exists...
-                    if(x < 0 || x >= width) continue;
-                    if(y < 0 || y >= height) continue;
-                    //Go to every pixel within the radius of the current pixel
-                    int index = 0;
-                    for (int i = x - radius; i <= x + radius; i++) {
-                        for (int j = y - radius; j <= y + radius; j++) {
-                            //Make sure this is a valid point (i.e. it is within the image bounds)
-                            int validX = i, validY = j;
-                            if(i < 0) validX = 0;
-                            else if(i >= width) validX = width-1;
-                            if(j < 0) validY = 0;
-                            else if(j >= height) validY = height-1;
-                            //Put this pixel into the arrays
-                            int pixel = input.getRGB(validX, validY);
-                            if(hasAlpha)  a[index] = (pixel & 0xFF000000) >> 24;
-                            else a[index] = 255;
-                            r[index] = (pixel & 0x00FF0000) >> 16;
-                            g[index] = (pixel & 0x0000FF00) >> 8;
-                            b[index] = (pixel & 0x000000FF);
-                            index++;
-                        
+            int channels = hasAlpha ? 4 : 3;
+            int median = (2*radius+1) * (2*radius+1) / 2;
+
+            //The columns within reach of the selection
+            int firstColumn = Math.max(x1 - radius, 0);
+            int columns = Math.min(x2 - 1 + radius, width - 1) - firstColumn + 1;
+
+            //The column histograms for each channel (channel 0 is blue, 1 is green, 2 is red and 3 is alpha)
+            short[][] columnFine = new short[channels][columns * BINS];
+            short[][] columnCoarse = new short[channels][columns * COARSE_BINS];
+
+            //The histogram of the neighbourhood for each channel, and the column at which each group of fine bins was last brought up to date
+            int[][] fine = new int[channels][BINS];
+            int[][] coarse = new int[channels][COARSE_BINS];
+            int[][] updatedAt = new int[channels][COARSE_BINS];
+
+            for (int k = -radius; k <= radius; k++) addRow(columnFine, columnCoarse, y1 + k, firstColumn, columns, 1);
+
+            for (int y = y1; y < y2; y++) {
+                if (y > y1) {
+                    addRow(columnFine, columnCoarse, y - radius - 1, firstColumn, columns, -1);
+                    addRow(columnFine, columnCoarse, y + radius, firstColumn, columns, 1);
+                }
+
+                for (int c = 0; c < channels; c++) {
+                    Arrays.fill(coarse[c], 0);
+                    Arrays.fill(updatedAt[c], x1 - 2*radius - 2);
+                    for (int k = x1 - radius; k <= x1 + radius; k++) {
+                        int column = clampX(k) - firstColumn;
+                        for (int bin = 0; bin < COARSE_BINS; bin++) coarse[c][bin] += columnCoarse[c][column * COARSE_BINS + bin];
+                    }
+                }
+
+                for (int x = x1; x < x2; x++) {
+                    if (x > x1) {
+                        int entering = clampX(x + radius) - firstColumn;
+                        int leaving = clampX(x - radius - 1) - firstColumn;
+                        for (int c = 0; c < channels; c++) {
+                            for (int bin = 0; bin < COARSE_BINS; bin++) {
+                                coarse[c][bin] += columnCoarse[c][entering * COARSE_BINS + bin] - columnCoarse[c][leaving * COARSE_BINS + bin];
+                            }
                         }
                     }
-                    //Sort all the pixels that were in the radius around this pixel and choose the median value
-                    Arrays.sort(a); Arrays.sort(r); Arrays.sort(g); Arrays.sort(b);
-                    int newColour = (a[median] << 24) | (r[median] << 16) | (g[median] << 8) | (b[median] << 0);
-                    output.setRGB(x, y, newColour);
+
+                    int argb = hasAlpha ? 0 : 0xFF000000;
+                    for (int c = 0; c < channels; c++) {
+                        argb |= findMedian(columnFine[c], fine[c], coarse[c], updatedAt[c], x, firstColumn, median) << (8 * c);
+                    }
+                    dstPixels[y * width + x] = argb;
+                }
+            }
+        }
+
+        /**
+         * <p>
+         * Add (or remove) the pixels of a row to the column histograms.
+         * </p>
+         * 
+         * @param columnFine The fine bins of the column histograms.
+         * @param columnCoarse The coarse bins of the column histograms.
+         * @param y The row to add, which is clamped to the image.
+         * @param firstColumn The column of the image that the first histogram is for.
+         * @param columns The number of column histograms.
+         * @param count 1 to add the row, or -1 to remove it.
+         */
+        private void addRow(short[][] columnFine, short[][] columnCoarse, int y, int firstColumn, int columns, int count){
+            int rowPos = Math.min(Math.max(y, 0), height - 1) * width + firstColumn;
+            for (int column = 0; column < columns; column++) {
+                int argb = srcPixels[rowPos + column];
+                for (int c = 0; c < columnFine.length; c++) {
+                    int value = (argb >>> (8 * c)) & 0xFF;
+                    columnFine[c][column * BINS + value] += count;
+                    columnCoarse[c][column * COARSE_BINS + value / COARSE_SIZE] += count;
+                }
+            }
+        }
+
+        /**
+         * <p>
+         * Find the median of one channel of the neighbourhood of a pixel.
+         * </p>
+         * 
+         * <p>
+         * The coarse bins find the group of fine bins that holds the median. If that group was last brought up to date
+         * near enough to this pixel, the columns that have entered and left the neighbourhood since then are added and removed.
+         * Otherwise, it is rebuilt from the columns in the neighbourhood.
+         * </p>
+         * 
+         * @param columnFine The fine bins of the column histograms for the channel.
+         * @param fine The fine bins of the neighbourhood histogram for the channel.
+         * @param coarse The coarse bins of the neighbourhood histogram for the channel.
+         * @param updatedAt The column at which each group of fine bins was last brought up to date.
+         * @param x The x coordinate of the pixel.
+         * @param firstColumn The column of the image that the first histogram is for.
+         * @param median The number of values in the neighbourhood below the median.
+         * @return The median value of the channel.
+         */
+        private int findMedian(short[] columnFine, int[] fine, int[] coarse, int[] updatedAt, int x, int firstColumn, int median){
+            int bin = 0;
+            int below = 0;
+            while (below + coarse[bin] <= median) below += coarse[bin++];
+
+            int from = bin * COARSE_SIZE;
+            int to = from + COARSE_SIZE;
+            if (x - updatedAt[bin] > 2*radius+1) {
+                Arrays.fill(fine, from, to, 0);
+                for (int k = x - radius; k <= x + radius; k++) {
+                    int column = (clampX(k) - firstColumn) * BINS;
+                    for (int i = from; i < to; i++) fine[i] += columnFine[column + i];
+                }
+            } else {
+                for (int step = updatedAt[bin] + 1; step <= x; step++) {
+                    int entering = (clampX(step + radius) - firstColumn) * BINS;
+                    int leaving = (clampX(step - radius - 1) - firstColumn) * BINS;
+                    for (int i = from; i < to; i++) fine[i] += columnFine[entering + i] - columnFine[leaving + i];
                 }
             }
-            // This thread has computed everything it needs to; join main thread.
-            this.interrupt();
+            updatedAt[bin] = x;
+
+            int value = from;
+            while (below + fine[value] <= median) below += fine[value++];
+            return value;
+        }
+
+        /**
+         * Clamp an x coordinate to the image.
+         * 
+         * @param x The x coordinate.
+         * @return The nearest x coordinate within the image.
+         */
+        private int clampX(int x){
+            return Math.min(Math.max(x, 0), width - 1);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a median filter with the same radius, over the same selection.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MedianFilter)) return false;
+        MedianFilter other = (MedianFilter) obj;
+        return radius == other.radius && x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(radius, x1, y1, x2, y2);
+    }
+}
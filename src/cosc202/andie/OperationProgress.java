@@ -0,0 +1,175 @@
+package cosc202.andie;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * <p>
+ * Tracks the progress of an {@link ImageOperation} that is running in the background, and lets it be cancelled.
+ * </p>
+ *
+ * <p>
+ * Operations do not need to know about this class. Progress is bound to the thread running the operation with
+ * {@link #run(Callable)}, and the {@link TileScheduler} picks it up: every tile it runs counts towards the progress,
+ * and no more tiles are started once the operation has been cancelled. Cancellation is cooperative, so a tile
+ * that has already started is allowed to finish, and {@link #checkCancelled()} then throws a {@code CancellationException}
+ * out of the operation.
+ * </p>
+ *
+ * <p>
+ * The amount of work an operation does is only known as it goes, so the progress is the fraction of the pixels
+ * handed to the scheduler so far that have been processed.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class OperationProgress {
+
+    /** The progress of operations that are not running in the background, which is never cancelled. */
+    private static final OperationProgress NONE = new OperationProgress(null);
+    /** The progress bound to each thread. */
+    private static final ThreadLocal<OperationProgress> CURRENT = new ThreadLocal<OperationProgress>();
+
+    /** Called with the fraction of work done whenever it changes, or null. */
+    private final DoubleConsumer listener;
+    /** The number of pixels that have been handed to the scheduler. */
+    private final AtomicLong total = new AtomicLong();
+    /** The number of pixels that have been processed. */
+    private final AtomicLong done = new AtomicLong();
+    /** Whether the operation has been cancelled. */
+    private volatile boolean cancelled;
+
+    /**
+     * <p>
+     * Create a new progress tracker.
+     * </p>
+     *
+     * @param listener Called (on the thread doing the work) with the fraction of the work done, from 0 to 1, or null.
+     */
+    public OperationProgress(DoubleConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * <p>
+     * Get the progress bound to the current thread.
+     * </p>
+     *
+     * @return The progress of the operation running on this thread, or a progress that is never cancelled if there is none.
+     */
+    public static OperationProgress current() {
+        OperationProgress progress = CURRENT.get();
+        return progress == null ? NONE : progress;
+    }
+
+    /**
+     * <p>
+     * Run some work with this progress bound to the current thread.
+     * </p>
+     *
+     * @param <T> The type of the result.
+     * @param work The work to run.
+     * @return The result of the work.
+     * @throws CancellationException if the progress is cancelled while the work is running.
+     * @throws Exception if the work throws an exception.
+     */
+    public <T> T run(Callable<T> work) throws Exception {
+        OperationProgress previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            T result = work.call();
+            checkCancelled();
+            return result;
+        } finally {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * <p>
+     * Ask the operation to stop. It stops at the next point where it checks for cancellation.
+     * </p>
+     */
+    public void cancel() {
+        if (this != NONE) cancelled = true;
+    }
+
+    /**
+     * Check whether the operation has been cancelled.
+     *
+     * @return True if {@link #cancel()} has been called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * <p>
+     * Stop the operation if it has been cancelled.
+     * </p>
+     *
+     * @throws CancellationException if the operation has been cancelled.
+     */
+    public void checkCancelled() {
+        if (cancelled) throw new CancellationException("The operation was cancelled");
+    }
+
+    /**
+     * Get the fraction of the work that has been done.
+     *
+     * @return The fraction of the pixels handed to the scheduler that have been processed, from 0 to 1.
+     */
+    public double getFraction() {
+        long all = total.get();
+        return all == 0 ? 0 : Math.min(1.0, done.get() / (double) all);
+    }
+
+    /**
+     * Record that some pixels have been handed to the scheduler.
+     *
+     * @param pixels The number of pixels.
+     */
+    void addWork(long pixels) {
+        if (this == NONE) return;
+        total.addAndGet(pixels);
+        report();
+    }
+
+    /**
+     * Record that some pixels have been processed.
+     *
+     * @param pixels The number of pixels.
+     */
+    void workDone(long pixels) {
+        if (this == NONE) return;
+        done.addAndGet(pixels);
+        report();
+    }
+
+    /**
+     * Run a tile of work with this progress bound to the current thread, so that any work it hands to the scheduler is tracked too.
+     *
+     * @param tile The work to run.
+     */
+    void runTile(Runnable tile) {
+        OperationProgress previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            tile.run();
+        } finally {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Tell the listener how much of the work has been done.
+     */
+    private void report() {
+        if (listener != null) listener.accept(getFraction());
+    }
+}
@@ -0,0 +1,177 @@
+package cosc202.andie;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.concurrent.*;
+import javax.swing.*;
+
+/**
+ * <p>
+ * Applies {@link ImageOperation}s in the background, so that the window keeps responding while a slow operation runs.
+ * </p>
+ *
+ * <p>
+ * The operation is worked out on a {@code SwingWorker} thread (see {@link EditableImage.PendingApply}), and the result is
+ * only published to the image once it is complete, on the event dispatch thread. If the operation takes more than
+ * {@link #DIALOG_DELAY} milliseconds, a dialog shows its progress, with a button to cancel it. Cancelling stops the
+ * operation at the next tile (see {@link OperationProgress}) and leaves the image as it was.
+ * </p>
+ *
+ * <p>
+ * {@link #apply(ImagePanel, ImageOperation)} only returns once the operation has finished, like {@link EditableImage#apply(ImageOperation)},
+ * but keeps handling events (e.g. repaints) in the meantime. The window does not take any input until then, so nothing else
+ * can change the image while the operation is running.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class OperationRunner {
+
+    /** How long an operation runs before its progress is shown, in milliseconds. */
+    static final int DIALOG_DELAY = 300;
+
+    /** OperationRunner only has static methods. */
+    private OperationRunner() {}
+
+    /**
+     * <p>
+     * Apply an operation to the image in a panel in the background, and wait for it to finish.
+     * </p>
+     *
+     * <p>
+     * This must be called on the event dispatch thread. If the panel is not in a window, the operation is applied straight away.
+     * </p>
+     *
+     * @param target The panel containing the image to apply the operation to.
+     * @param op The operation to apply (ignored if null).
+     */
+    public static void apply(ImagePanel target, ImageOperation op) {
+        if (op == null) return;
+        EditableImage image = target.getImage();
+        Window window = SwingUtilities.getWindowAncestor(target);
+        if (window == null) {
+            image.apply(op);
+            return;
+        }
+
+        Worker worker = new Worker(image.new PendingApply(op), window);
+        window.setEnabled(false);
+        worker.execute();
+        worker.loop.enter();
+
+        try {
+            worker.get();
+            worker.pending.commit();
+        } catch (ExecutionException ex) {
+            worker.pending.fail(ex.getCause());
+        } catch (InterruptedException | CancellationException ex) {
+            worker.pending.fail(new CancellationException());
+        }
+    }
+
+    /**
+     * <p>
+     * Works out an operation in the background, and shows its progress if it takes a while.
+     * </p>
+     */
+    private static class Worker extends SwingWorker<Void, Void> {
+        /** The operation being applied. */
+        private final EditableImage.PendingApply pending;
+        /** The window that the operation was started from. */
+        private final Window window;
+        /** The progress of the operation, which is shown on the progress bar. */
+        private final OperationProgress progress = new OperationProgress(fraction -> setProgress((int) Math.round(Math.min(Math.max(fraction, 0), 1) * 100)));
+        /** Keeps handling events on the event dispatch thread until the operation has finished. */
+        private final SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+        /** Shows the progress dialog once the operation has taken long enough. */
+        private final Timer timer;
+        /** The progress dialog, or null if it has not been shown. */
+        private JDialog dialog;
+
+        /**
+         * Create a worker for an operation.
+         *
+         * @param pending The operation to apply.
+         * @param window The window that the operation was started from.
+         */
+        Worker(EditableImage.PendingApply pending, Window window) {
+            this.pending = pending;
+            this.window = window;
+            this.timer = new Timer(DIALOG_DELAY, e -> showDialog());
+            this.timer.setRepeats(false);
+            this.timer.start();
+        }
+
+        /**
+         * Work out the operation, with its progress bound to this thread.
+         *
+         * @return Nothing.
+         * @throws Exception if the operation fails or is cancelled.
+         */
+        @Override
+        protected Void doInBackground() throws Exception {
+            return progress.run(() -> {
+                pending.compute();
+                return null;
+            });
+        }
+
+        /**
+         * Close the progress dialog, and let {@link OperationRunner#apply(ImagePanel, ImageOperation)} carry on.
+         */
+        @Override
+        protected void done() {
+            timer.stop();
+            // Enable the window before closing the dialog, otherwise another application gets the focus
+            window.setEnabled(true);
+            if (dialog != null) dialog.dispose();
+            loop.exit();
+        }
+
+        /**
+         * Show a modal dialog with the progress of the operation and a button to cancel it.
+         */
+        private void showDialog() {
+            if (isDone()) return;
+
+            JProgressBar bar = new JProgressBar(0, 100);
+            bar.setValue(getProgress());
+            bar.setStringPainted(true);
+            addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) bar.setValue((Integer) e.getNewValue());
+            });
+
+            JLabel label = new JLabel(Language.getWord("PROGRESS_DIALOG"));
+            JButton cancel = new JButton(Language.getWord("DEFAULT_CANCEL"));
+            cancel.addActionListener(e -> {
+                progress.cancel();
+                cancel.setEnabled(false);
+                label.setText(Language.getWord("PROGRESS_CANCELLING"));
+            });
+
+            JPanel panel = new JPanel(new BorderLayout(10, 10));
+            panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            panel.add(label, BorderLayout.NORTH);
+            panel.add(bar, BorderLayout.CENTER);
+            JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+            buttons.add(cancel);
+            panel.add(buttons, BorderLayout.SOUTH);
+
+            dialog = new JDialog(window, Language.getWord("DIALOG_TITLE"), Dialog.ModalityType.APPLICATION_MODAL);
+            if (Andie.getIcon() != null) dialog.setIconImage(Andie.getIcon().getImage());
+            dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+            dialog.addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    cancel.doClick();
+                }
+            });
+            dialog.setContentPane(panel);
+            dialog.pack();
+            dialog.setResizable(false);
+            dialog.setLocationRelativeTo(window);
+            dialog.setVisible(true);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+
+/**
+ * <p>
+ * Direct access to the pixels of a {@code BufferedImage} as packed ARGB {@code int}s.
+ * </p>
+ *
+ * <p>
+ * {@code BufferedImage.getRGB} and {@code setRGB} convert every pixel through the image's {@code ColorModel},
+ * which is slow when done for every pixel of a large image. Images opened in ANDIE are normalized to
+ * {@code TYPE_INT_ARGB} (or {@code TYPE_INT_RGB} if they have no alpha channel), whose pixels are stored
+ * in exactly this format, so operations can work on the backing array directly.
+ * </p>
+ *
+ * <p>
+ * Operations should get the pixels with {@link #getPixels(BufferedImage)} and, after changing them,
+ * hand them back with {@link #setPixels(BufferedImage, int[])}. For normalized images the array is the image's
+ * own storage and {@code setPixels} does nothing; any other image gets a copy which {@code setPixels} writes back.
+ * The pixels are stored one row after another, so pixel {@code (x, y)} is at index {@code y * width + x}.
+ * Operations that only change a selection can use {@link #filterRegion(BufferedImage, Rectangle, int, RegionFilter)}
+ * instead, which only copies the part of the image they need.
+ * </p>
+ *
+ * <p>
+ * The top 8 bits of the pixels of an image with no alpha channel are undefined (they are ignored when the
+ * image is drawn), so operations should check {@code getColorModel().hasAlpha()} before reading alpha.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class PixelAccess {
+
+    /**
+     * A filter that works on the pixels of part of an image, see {@link PixelAccess#filterRegion(BufferedImage, Rectangle, int, RegionFilter)}.
+     */
+    public interface RegionFilter {
+        /**
+         * Filter a region of a window of an image.
+         *
+         * @param src The pixels of the window, as packed ARGB values one row after another, which must only be read.
+         * @param dst The array to write the filtered pixels to, with the same layout as {@code src}. Only the pixels in the region are used.
+         * @param width The width of the window.
+         * @param height The height of the window.
+         * @param region The region to filter, in the coordinates of the window.
+         */
+        void filter(int[] src, int[] dst, int width, int height, Rectangle region);
+    }
+
+    /** PixelAccess only has static methods. */
+    private PixelAccess() {}
+
+    /**
+     * <p>
+     * Check whether the pixels of an image are stored as a single packed ARGB (or RGB) array with no padding.
+     * </p>
+     *
+     * @param img The image to check.
+     * @return True if {@link #getPixels(BufferedImage)} returns the image's own storage.
+     */
+    public static boolean isDirect(BufferedImage img) {
+        int type = img.getType();
+        if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) return false;
+
+        WritableRaster raster = img.getRaster();
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) return false;
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) return false;
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        return model.getScanlineStride() == img.getWidth() && buffer.getOffset() == 0 && buffer.getNumBanks() == 1
+                && buffer.getSize() == img.getWidth() * img.getHeight();
+    }
+
+    /**
+     * <p>
+     * Get the pixels of an image as packed ARGB values, one row after another.
+     * </p>
+     *
+     * <p>
+     * If the image {@link #isDirect(BufferedImage) is direct}, this is the array backing the image,
+     * so changes to it change the image straight away. Otherwise it is a copy.
+     * </p>
+     *
+     * @param img The image to get the pixels of.
+     * @return The pixels of the image.
+     */
+    public static int[] getPixels(BufferedImage img) {
+        if (isDirect(img)) return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    /**
+     * <p>
+     * Store pixels that were returned by {@link #getPixels(BufferedImage)} (or an array of the same size) in an image.
+     * </p>
+     *
+     * <p>
+     * Nothing needs to be done if {@code pixels} is the array backing the image.
+     * </p>
+     *
+     * @param img The image to store the pixels in.
+     * @param pixels The packed ARGB pixels, one row after another.
+     */
+    public static void setPixels(BufferedImage img, int[] pixels) {
+        if (isDirect(img) && ((DataBufferInt) img.getRaster().getDataBuffer()).getData() == pixels) return;
+        img.setRGB(0, 0, img.getWidth(), img.getHeight(), pixels, 0, img.getWidth());
+    }
+
+    /**
+     * <p>
+     * Filter a region of an image in place, only reading the pixels within {@code halo} pixels of it.
+     * </p>
+     *
+     * <p>
+     * The filter is given a copy of a window of the image: the region with a border of {@code halo} pixels
+     * (where the image has them). It sees the window as if it were the whole image, so a filter that treats the edges
+     * of the image specially treats the edges of the window the same way, but that only changes the pixels of the
+     * border, which are not written back. The time taken depends on the size of the region, not of the image.
+     * </p>
+     *
+     * @param img The image to filter, which is changed.
+     * @param region The region to change, which lies within the image.
+     * @param halo The number of pixels around each pixel that the filter reads.
+     * @param filter The filter.
+     * @return The image, {@code img}.
+     */
+    public static BufferedImage filterRegion(BufferedImage img, Rectangle region, int halo, RegionFilter filter) {
+        if (region.isEmpty()) return img;
+        Rectangle window = new Rectangle(region);
+        window.grow(halo, halo);
+        window = window.intersection(new Rectangle(img.getWidth(), img.getHeight()));
+        Rectangle inWindow = new Rectangle(region.x - window.x, region.y - window.y, region.width, region.height);
+
+        int[] src = getPixels(img, window);
+        if (isDirect(img) && window.width == img.getWidth() && window.height == img.getHeight()) {
+            // The window is the whole image, so the filter can write straight into it
+            filter.filter(src, getPixels(img), window.width, window.height, inWindow);
+            return img;
+        }
+        int[] dst = new int[src.length];
+        filter.filter(src, dst, window.width, window.height, inWindow);
+        int offset = inWindow.y * window.width + inWindow.x;
+        if (isDirect(img)) {
+            int[] pixels = getPixels(img);
+            for (int y = 0; y < region.height; y++) {
+                System.arraycopy(dst, offset + y * window.width, pixels, (region.y + y) * img.getWidth() + region.x, region.width);
+            }
+        } else {
+            img.setRGB(region.x, region.y, region.width, region.height, dst, offset, window.width);
+        }
+        return img;
+    }
+
+    /**
+     * Copy the pixels of a region of an image.
+     *
+     * @param img The image.
+     * @param area The region to copy, which lies within the image.
+     * @return The pixels of the region as packed ARGB values, one row after another.
+     */
+    private static int[] getPixels(BufferedImage img, Rectangle area) {
+        if (!isDirect(img)) return img.getRGB(area.x, area.y, area.width, area.height, null, 0, area.width);
+        int[] pixels = getPixels(img);
+        int[] copy = new int[area.width * area.height];
+        for (int y = 0; y < area.height; y++) {
+            System.arraycopy(pixels, (area.y + y) * img.getWidth() + area.x, copy, y * area.width, area.width);
+        }
+        return copy;
+    }
+
+    /**
+     * <p>
+     * Convert an image to the format that ANDIE works with: {@code TYPE_INT_ARGB} if it has an alpha channel,
+     * or {@code TYPE_INT_RGB} otherwise.
+     * </p>
+     *
+     * <p>
+     * The pixels of the converted image are exactly those returned by {@code img.getRGB}.
+     * Images that are already in this format are returned as they are.
+     * </p>
+     *
+     * @param img The image to convert.
+     * @return The image, normalized so that it {@link #isDirect(BufferedImage) is direct}.
+     */
+    public static BufferedImage normalize(BufferedImage img) {
+        if (isDirect(img)) return img;
+        int type = img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(img.getWidth(), img.getHeight(), type);
+        img.getRGB(0, 0, img.getWidth(), img.getHeight(), getPixels(result), 0, img.getWidth());
+        return result;
+    }
+
+    /**
+     * <p>
+     * Convert an image back to a given {@code ColorModel}, e.g. the one of the file it was opened from.
+     * </p>
+     *
+     * <p>
+     * The conversion is only done if every pixel survives it unchanged, so that e.g. an image with a limited
+     * palette or in greyscale is saved in its original format, but one that has since been drawn on in colour is not.
+     * </p>
+     *
+     * @param img The image to convert.
+     * @param colorModel The {@code ColorModel} to convert to, or null to leave the image as it is.
+     * @return The converted image, or {@code img} if it cannot be converted without changing it.
+     */
+    public static BufferedImage toColorModel(BufferedImage img, ColorModel colorModel) {
+        if (colorModel == null || colorModel.equals(img.getColorModel())) return img;
+        try {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            WritableRaster raster = colorModel.createCompatibleWritableRaster(width, height);
+            BufferedImage result = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+
+            int[] pixels = getPixels(img);
+            if (!img.getColorModel().hasAlpha()) {
+                // The alpha bits are undefined, so make them opaque before comparing
+                pixels = pixels.clone();
+                for (int i = 0; i < pixels.length; i++) pixels[i] |= 0xFF000000;
+            }
+            result.setRGB(0, 0, width, height, pixels, 0, width);
+            int[] check = result.getRGB(0, 0, width, height, null, 0, width);
+            for (int i = 0; i < pixels.length; i++) {
+                // Fully transparent pixels are the same whatever their colour
+                if (pixels[i] != check[i] && (pixels[i] >>> 24 != 0 || check[i] >>> 24 != 0)) return img;
+            }
+            return result;
+        } catch (IllegalArgumentException | UnsupportedOperationException ex) {
+            return img;
+        }
+    }
+}
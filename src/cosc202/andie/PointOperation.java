@@ -0,0 +1,98 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+
+/**
+ * <p>
+ * An {@link ImageOperation} where the new colour of each pixel only depends on its old colour,
+ * e.g. greyscale conversion or a brightness/contrast adjustment.
+ * </p>
+ *
+ * <p>
+ * Point operations describe what they do to a pixel with a {@link ColourLookup}.
+ * When an {@link EditableImage} is refreshed, a run of point operations that change the same region of the image
+ * is combined into one lookup, so they only take a single pass over the image between them.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public interface PointOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Get the lookup that gives the new colour of each pixel.
+     * </p>
+     *
+     * @return The lookup for this operation.
+     */
+    public ColourLookup getLookup();
+
+    /**
+     * <p>
+     * Get the region of an image that this operation changes, e.g. the selection it was applied to.
+     * </p>
+     *
+     * @param input The image the operation is applied to.
+     * @return The region that is changed, which lies within the image.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input);
+
+    /**
+     * <p>
+     * Apply the lookup to the region of the image, in place.
+     * </p>
+     *
+     * @param input The image to apply the operation to.
+     * @return The resulting image, which is {@code input}.
+     */
+    public default BufferedImage apply(BufferedImage input) {
+        getLookup().apply(input, getRegion(input));
+        return input;
+    }
+
+    /**
+     * <p>
+     * Apply the lookup to the part of the region of the image that is in the given area, in place.
+     * </p>
+     *
+     * @param input The image to apply the operation to.
+     * @param area The area of the result that is needed.
+     * @return The resulting image, which is {@code input}.
+     */
+    @Override
+    public default BufferedImage applyToArea(BufferedImage input, Rectangle area) {
+        getLookup().apply(input, getRegion(input).intersection(area));
+        return input;
+    }
+
+    /**
+     * <p>
+     * Get the point operation that maps each colour back again, over the same region.
+     * </p>
+     * 
+     * <p>
+     * This only exists if no two colours are mapped to the same colour (see {@link ColourLookup#inverse()}).
+     * </p>
+     * 
+     * @return The inverse operation, or null if the lookup cannot be inverted.
+     */
+    @Override
+    public default ImageOperation getInverse() {
+        ColourLookup inverse = getLookup().inverse();
+        if (inverse == null) return null;
+        PointOperation op = this;
+        return new PointOperation() {
+            public ColourLookup getLookup() {
+                return inverse;
+            }
+
+            public Rectangle getRegion(BufferedImage input) {
+                return op.getRegion(input);
+            }
+        };
+    }
+}
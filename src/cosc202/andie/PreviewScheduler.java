@@ -0,0 +1,202 @@
+package cosc202.andie;
+
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * <p>
+ * Works out previews of an {@link EditableImage} in the background, always moving on to the latest one requested.
+ * </p>
+ *
+ * <p>
+ * A slider asks for a new preview every time it moves, which is much more often than a preview can be worked out.
+ * Rather than queueing every request, the scheduler only keeps the latest one: a new request replaces any request
+ * that has not been started yet, and cancels the preview that is being worked out (see {@link OperationProgress})
+ * if less than half of it has been done. So that the picture keeps up while the slider is still being dragged,
+ * a preview that was started by cancelling another one is always allowed to finish.
+ * </p>
+ *
+ * <p>
+ * Previews are shown on the event dispatch thread once they are ready, and {@link #getShown()} says which operation
+ * the preview on screen belongs to. A preview is never shown if the image has changed since it was requested.
+ * All of the methods must be called on the event dispatch thread.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class PreviewScheduler {
+
+    /** The thread that previews are worked out on. Previews of every image share it, as only one can be seen at a time. */
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ANDIE preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The image that is previewed. */
+    private final EditableImage image;
+    /** The preview being worked out, or null if there is none. */
+    private Request running;
+    /** The latest preview requested, which will be started once {@link running} finishes, or null if there is none. */
+    private Request waiting;
+    /** Whether the next preview to be started was requested by cancelling another one. */
+    private boolean keepNext;
+    /** The operation that the preview on screen belongs to, or null if no preview is shown. */
+    private ImageOperation shown;
+
+    /**
+     * <p>
+     * A request for a preview.
+     * </p>
+     */
+    private static class Request {
+        /** The operation to preview. */
+        private final ImageOperation op;
+        /** The size the image is shown at, as a fraction of its full size. */
+        private final double displayScale;
+        /** Called once the preview is shown, or null. */
+        private final Consumer<ImageOperation> onShown;
+        /** The progress of the preview, which is cancelled when it is no longer wanted. */
+        private final OperationProgress progress = new OperationProgress(null);
+        /** Whether the preview must not be cancelled by a newer request. */
+        private boolean keep;
+
+        /**
+         * Create a request.
+         *
+         * @param op The operation to preview.
+         * @param displayScale The size the image is shown at.
+         * @param onShown Called once the preview is shown, or null.
+         */
+        Request(ImageOperation op, double displayScale, Consumer<ImageOperation> onShown) {
+            this.op = op;
+            this.displayScale = displayScale;
+            this.onShown = onShown;
+        }
+    }
+
+    /**
+     * Create a scheduler for an image.
+     *
+     * @param image The image to preview operations on.
+     */
+    PreviewScheduler(EditableImage image) {
+        this.image = image;
+    }
+
+    /**
+     * <p>
+     * Ask for a preview of an operation, replacing any earlier request.
+     * </p>
+     *
+     * <p>
+     * The preview is worked out as with {@link EditableImage#previewApply(ImageOperation, double)}, but in the background.
+     * </p>
+     *
+     * @param op The operation to preview (ignored if null).
+     * @param displayScale The size the image is shown at, as a fraction of its full size.
+     * @param onShown Called with {@code op} once its preview is shown, e.g. to repaint the image, or null.
+     *                It is not called if the preview is replaced or cancelled first.
+     */
+    public void request(ImageOperation op, double displayScale, Consumer<ImageOperation> onShown) {
+        if (op == null) return;
+        waiting = new Request(op, displayScale, onShown);
+        if (running == null) {
+            start();
+        } else if (!running.keep && !keepNext && running.progress.getFraction() < 0.5) {
+            running.progress.cancel();
+            keepNext = true;
+        }
+    }
+
+    /**
+     * <p>
+     * Stop working out previews, and forget any that have been requested.
+     * </p>
+     *
+     * <p>
+     * This is called whenever the image is changed, or previewed some other way.
+     * </p>
+     */
+    public void cancel() {
+        waiting = null;
+        keepNext = false;
+        if (running != null) running.progress.cancel();
+        shown = null;
+    }
+
+    /**
+     * <p>
+     * Get the operation that the preview on screen belongs to.
+     * </p>
+     *
+     * @return The operation of the latest preview that was shown, or null if none has been shown since the image last changed.
+     */
+    public ImageOperation getShown() {
+        return shown;
+    }
+
+    /**
+     * <p>
+     * Check whether a preview is being worked out, or waiting to be.
+     * </p>
+     *
+     * @return True if a requested preview has not been shown or cancelled yet.
+     */
+    public boolean isBusy() {
+        return running != null || waiting != null;
+    }
+
+    /**
+     * Start working out the waiting preview, if there is one.
+     */
+    private void start() {
+        if (waiting == null) return;
+        Request request = waiting;
+        waiting = null;
+        request.keep = keepNext;
+        keepNext = false;
+
+        EditableImage.PendingPreview preview;
+        try {
+            preview = image.new PendingPreview(request.op, true, request.displayScale);
+        } catch (Exception ex) { // e.g. there is no image to preview
+            return;
+        }
+        running = request;
+        WORKER.execute(() -> {
+            boolean computed = false;
+            try {
+                request.progress.run(() -> {
+                    preview.compute();
+                    return null;
+                });
+                computed = true;
+            } catch (Exception ex) {
+                // A preview that fails or is cancelled is not shown, and the user is not warned
+            } finally {
+                boolean show = computed;
+                SwingUtilities.invokeLater(() -> finished(request, preview, show));
+            }
+        });
+    }
+
+    /**
+     * Show a preview once it has been worked out, and start the next one.
+     *
+     * @param request The request for the preview.
+     * @param preview The preview.
+     * @param computed Whether the preview was worked out successfully.
+     */
+    private void finished(Request request, EditableImage.PendingPreview preview, boolean computed) {
+        running = null;
+        if (computed && !request.progress.isCancelled() && preview.publish()) {
+            shown = request.op;
+            if (request.onShown != null) request.onShown.accept(request.op);
+        }
+        start();
+    }
+}
@@ -22,6 +22,9 @@ import java.awt.image.*;
  */
 public class ResizeImage implements ImageOperation, java.io.Serializable {
 
+    /** Fixed at the version from before resizes said whether they change their input, so that saved resizes still load. */
+    private static final long serialVersionUID = 533576935076191919L;
+
     private int sizePercentageIncrease;
 
 
@@ -40,11 +43,7 @@ public class ResizeImage implements ImageOperation, java.io.Serializable {
      * </p>
      * 
      * <p>
-     * The image is resized by calling the image class method getScaledInstance.
-     * </p>
-     * 
-     * <p>
-     * <a href="https://stackoverflow.com/questions/13605248/java-converting-image-to-bufferedimage">Convert Image to BufferedImage</a>
+     * The image is resized by drawing it onto a new image of the resized size, with bilinear interpolation.
      * </p>
      * 
      * @param input The image to be resized
@@ -54,11 +53,14 @@ public class ResizeImage implements ImageOperation, java.io.Serializable {
         BufferedImage resizedBufferedImage = null;
 
         try{
-            Image resizedImage = input.getScaledInstance((int)(input.getWidth() * ((double)this.sizePercentageIncrease/100)), (int)(input.getHeight() * ((double)this.sizePercentageIncrease/100)), 0);
-            resizedBufferedImage = new BufferedImage(resizedImage.getWidth(null), resizedImage.getHeight(null), 2);
+            int width = (int)(input.getWidth() * ((double)this.sizePercentageIncrease/100));
+            int height = (int)(input.getHeight() * ((double)this.sizePercentageIncrease/100));
+            resizedBufferedImage = new BufferedImage(width, height, 2);
 
+            // Scale while drawing, rather than through getScaledInstance's much slower image producer
             Graphics2D graphics = resizedBufferedImage.createGraphics();
-            graphics.drawImage(resizedImage, 0, 0, null);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(input, 0, 0, width, height, null);
             graphics.dispose();
         } catch(Exception ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
@@ -67,8 +69,66 @@ public class ResizeImage implements ImageOperation, java.io.Serializable {
         return resizedBufferedImage;
     }
 
+    /**
+     * <p>
+     * The changed area is scaled the same way as the image, and grown by a pixel for the interpolation.
+     * </p>
+     * 
+     * @param input The image to be resized.
+     * @param dirty The part of the input that changed.
+     * @return The part of the resized image that may change.
+     */
+    @Override
+    public Rectangle mapDirtyRegion(BufferedImage input, Rectangle dirty) {
+        double scale = this.sizePercentageIncrease/100.0;
+        int width = (int)(input.getWidth() * scale);
+        int height = (int)(input.getHeight() * scale);
+        int x = (int) Math.floor(dirty.x * scale) - 1;
+        int y = (int) Math.floor(dirty.y * scale) - 1;
+        int endX = (int) Math.ceil((dirty.x + dirty.width) * scale) + 1;
+        int endY = (int) Math.ceil((dirty.y + dirty.height) * scale) + 1;
+        return new Rectangle(x, y, endX - x, endY - y).intersection(new Rectangle(width, height));
+    }
+
+    /**
+     * <p>
+     * The image is drawn into a new image of the new size, so the input is only read.
+     * </p>
+     * 
+     * @return False.
+     */
+    @Override
+    public boolean changesInput() {
+        return false;
+    }
+
     public double getResizeScale() {
         return this.sizePercentageIncrease/100.0;
     }
     
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a resize by the same percentage.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ResizeImage)) return false;
+        ResizeImage other = (ResizeImage) obj;
+        return sizePercentageIncrease == other.sizePercentageIncrease;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(sizePercentageIncrease);
+    }
+}
@@ -0,0 +1,190 @@
+package cosc202.andie;
+
+import java.awt.image.*;
+import java.util.*;
+
+import cosc202.andie.draw.DrawBrush;
+import cosc202.andie.draw.DrawShape;
+
+/**
+ * <p>
+ * A cache of the results of operations, keyed by the pixels they were applied to and the operation itself.
+ * </p>
+ *
+ * <p>
+ * The same operation is often applied to the same pixels more than once: redoing an operation that was just undone,
+ * previewing the same value of a slider again, or replaying a macro that has already been applied. Operations are
+ * compared by value (see {@link ImageOperation}), and the pixels by two independent 64-bit hashes of their contents
+ * together with the size and type of the image, so an equal operation applied to equal pixels finds the earlier result
+ * however the image was arrived at. A second hash is kept so that a collision of one of them alone can't return the
+ * result for different pixels.
+ * </p>
+ *
+ * <p>
+ * Hashing the input takes a pass over it, so point operations, drawing, and changes to the geometry of the image are
+ * not cached, as they are about as quick to apply again. The hash of an image that is shared (and so never changed, see
+ * {@link ImageOperation#changesInput()}) is remembered for as long as the image is in use, so previewing several
+ * values of a slider on the same image only hashes it once. Only results that took at least {@link #MIN_MILLIS}
+ * milliseconds to work out are kept, and the least recently used are dropped once they take up more than
+ * {@link #HEAP_FRACTION} of the heap.
+ * </p>
+ *
+ * <p>
+ * The images in the cache are shared with whoever uses them, so they must not be changed.
+ * The cache is synchronized, so operations can be worked out in the background.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+class ResultCache {
+
+    /** The least time (in milliseconds) an operation must have taken for its result to be kept. */
+    static final long MIN_MILLIS = 50;
+    /** The fraction of the maximum heap size that results are allowed to take up. */
+    private static final double HEAP_FRACTION = 0.125;
+    /** The most results that are kept, regardless of their size. */
+    private static final int MAX_CAPACITY = 16;
+
+    /**
+     * The pixels an operation was applied to, and the operation.
+     *
+     * @param hash The FNV-1a hash of the pixels.
+     * @param check A second, independent hash of the pixels.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param type The type of the image.
+     * @param op The operation.
+     */
+    record Key(long hash, long check, int width, int height, int type, ImageOperation op) {}
+
+    /** The results, from the least to the most recently used. */
+    private final LinkedHashMap<Key, BufferedImage> results = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+    /** The hashes of shared images that have been hashed already. */
+    private final WeakHashMap<BufferedImage, long[]> hashes = new WeakHashMap<BufferedImage, long[]>();
+    /** The number of bytes taken up by the results. */
+    private long bytes;
+
+    /**
+     * <p>
+     * Get the key for applying an operation to an image.
+     * </p>
+     *
+     * @param op The operation to apply.
+     * @param image The image to apply it to, as it is before the operation is applied.
+     * @param shared Whether the image is shared, and so is never changed.
+     * @return The key, or null if the result of the operation is not cached.
+     */
+    Key key(ImageOperation op, BufferedImage image, boolean shared) {
+        if (op == null || image == null || op instanceof PointOperation || GeometryPlanner.isGeometric(op)
+                || op instanceof DrawBrush || op instanceof DrawShape) return null;
+        long[] hash = null;
+        if (shared) {
+            synchronized (this) {
+                hash = hashes.get(image);
+            }
+        }
+        if (hash == null) {
+            hash = hash(image);
+            if (shared) {
+                synchronized (this) {
+                    hashes.put(image, hash);
+                }
+            }
+        }
+        return new Key(hash[0], hash[1], image.getWidth(), image.getHeight(), image.getType(), op);
+    }
+
+    /**
+     * <p>
+     * Get the result of an operation, if it has been kept.
+     * </p>
+     *
+     * @param key The key of the operation and the image it is applied to, or null.
+     * @return The result, which must not be changed, or null if there is none.
+     */
+    synchronized BufferedImage get(Key key) {
+        if (key == null) return null;
+        return results.get(key);
+    }
+
+    /**
+     * <p>
+     * Offer the result of an operation to the cache, which keeps it if it took long enough to work out and is not too large.
+     * </p>
+     *
+     * @param key The key of the operation and the image it was applied to, or null.
+     * @param result The result of the operation. This is kept as it is (not copied), so if it is kept it must not be changed afterwards.
+     * @param nanos The time it took to work out the result, in nanoseconds.
+     * @return True if the result was kept.
+     */
+    synchronized boolean offer(Key key, BufferedImage result, long nanos) {
+        if (key == null || result == null || nanos < MIN_MILLIS * 1_000_000) return false;
+        long size = sizeOf(result);
+        long budget = (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION);
+        if (size > budget) return false;
+        BufferedImage previous = results.put(key, result);
+        if (previous != null) bytes -= sizeOf(previous);
+        bytes += size;
+        Iterator<BufferedImage> oldest = results.values().iterator();
+        while (bytes > budget || results.size() > MAX_CAPACITY) {
+            bytes -= sizeOf(oldest.next());
+            oldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Remove every result, e.g. when a different image is opened.
+     */
+    synchronized void clear() {
+        results.clear();
+        hashes.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of results currently kept.
+     *
+     * @return The number of results.
+     */
+    synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * <p>
+     * Hash the pixels of an image, with the 64-bit FNV-1a hash of the bytes of their packed ARGB values, and
+     * a second hash that multiplies and shifts each whole pixel in instead, so that the two are unlikely to collide
+     * for the same pixels.
+     * </p>
+     *
+     * @param image The image to hash.
+     * @return The FNV-1a hash, then the second hash.
+     */
+    private static long[] hash(BufferedImage image) {
+        int[] pixels = PixelAccess.getPixels(image);
+        long hash = 0xcbf29ce484222325L;
+        long check = 0x9e3779b97f4a7c15L;
+        for (int pixel : pixels) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                hash = (hash ^ ((pixel >>> shift) & 0xff)) * 0x100000001b3L;
+            }
+            check = (check ^ (pixel & 0xffffffffL)) * 0xbf58476d1ce4e5b9L;
+            check ^= check >>> 31;
+        }
+        return new long[] { hash, check };
+    }
+
+    /**
+     * Estimate the number of bytes an image takes up.
+     *
+     * @param image The image.
+     * @return The size of its pixel data, in bytes.
+     */
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.*;
 
@@ -25,6 +26,9 @@ import java.awt.image.*;
  */
 public class RotateImage implements ImageOperation, java.io.Serializable {
 
+    /** Fixed at the version from before rotations said whether they change their input, so that saved rotations still load. */
+    private static final long serialVersionUID = -9011100515279110268L;
+
     private int rotation;
 
     /**
@@ -51,19 +55,16 @@ public class RotateImage implements ImageOperation, java.io.Serializable {
     public BufferedImage apply(BufferedImage input) throws IllegalArgumentException, Exception {
         BufferedImage newImage = null;
         try{
-            double rads = Math.toRadians(this. rotation);
-            int width = (int) Math.floor(input.getWidth() * Math.abs(Math.cos(rads)) + input.getHeight() * Math.abs(Math.sin(rads)));
-            int height = (int) Math.floor(input.getHeight() * Math.abs(Math.cos(rads)) + input.getWidth() * Math.abs(Math.sin(rads)));
+            Dimension size = getRotatedSize(input);
+            int width = size.width;
+            int height = size.height;
             
             BufferedImage rotatedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
             Graphics2D g = rotatedImage.createGraphics();
-            AffineTransform at = new AffineTransform();
-            at.translate((width - input.getWidth()) / 2, (height - input.getHeight()) / 2);
-            
+            AffineTransform at = getTransform(input, size);
             
             Color transparent = new Color(255, 0,0, 0);
             
-            at.rotate(Math.toRadians(this.rotation), input.getWidth()/2, input.getHeight()/2);
             g.setTransform(at);
             g.drawImage(input, 0, 0, null);
             g.setColor(transparent);
@@ -78,8 +79,106 @@ public class RotateImage implements ImageOperation, java.io.Serializable {
         return newImage;
     }
 
+    /**
+     * <p>
+     * Get the size of the rotated image, which is just big enough to hold the whole of the input.
+     * </p>
+     * 
+     * @param input The image to be rotated.
+     * @return The size of the result.
+     */
+    private Dimension getRotatedSize(BufferedImage input) {
+        double rads = Math.toRadians(this.rotation);
+        int width = (int) Math.floor(input.getWidth() * Math.abs(Math.cos(rads)) + input.getHeight() * Math.abs(Math.sin(rads)));
+        int height = (int) Math.floor(input.getHeight() * Math.abs(Math.cos(rads)) + input.getWidth() * Math.abs(Math.sin(rads)));
+        return new Dimension(width, height);
+    }
+
+    /**
+     * <p>
+     * Get the transform from the input to the rotated image, which turns the input about its centre and moves it to the centre of the result.
+     * </p>
+     * 
+     * @param input The image to be rotated.
+     * @param size The size of the result.
+     * @return The transform.
+     */
+    private AffineTransform getTransform(BufferedImage input, Dimension size) {
+        AffineTransform at = new AffineTransform();
+        at.translate((size.width - input.getWidth()) / 2.0, (size.height - input.getHeight()) / 2.0);
+        at.rotate(Math.toRadians(this.rotation), input.getWidth() / 2.0, input.getHeight() / 2.0);
+        return at;
+    }
+
+    /**
+     * <p>
+     * The changed area is turned the same way as the image, and grown by a pixel for the resampling.
+     * </p>
+     * 
+     * @param input The image to be rotated.
+     * @param dirty The part of the input that changed.
+     * @return The part of the rotated image that may change.
+     */
+    @Override
+    public Rectangle mapDirtyRegion(BufferedImage input, Rectangle dirty) {
+        Dimension size = getRotatedSize(input);
+        Rectangle mapped = getTransform(input, size).createTransformedShape(dirty).getBounds();
+        mapped.grow(1, 1);
+        return mapped.intersection(new Rectangle(size));
+    }
+
+    /**
+     * <p>
+     * The image is drawn into a new image, so the input is only read.
+     * </p>
+     * 
+     * @return False.
+     */
+    @Override
+    public boolean changesInput() {
+        return false;
+    }
+
+    /**
+     * <p>
+     * A rotation by a multiple of 90 degrees only moves whole pixels around, so rotating back the other way gives back
+     * the image exactly. Any other rotation resamples the image, and cannot be undone exactly.
+     * </p>
+     * 
+     * @return The rotation by the opposite angle, or null if the angle is not a multiple of 90 degrees.
+     */
+    @Override
+    public ImageOperation getInverse() {
+        return rotation % 90 == 0 ? new RotateImage(-rotation) : null;
+    }
+
     public int getRotation() {
         return this.rotation;
     }
     
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a rotation by the same angle.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof RotateImage)) return false;
+        RotateImage other = (RotateImage) obj;
+        return rotation == other.rotation;
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(rotation);
+    }
+}
@@ -0,0 +1,109 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.*;
+
+/**
+ * <p>
+ * An image that has been moved out of memory into a compressed temporary file.
+ * </p>
+ *
+ * <p>
+ * The {@link CheckpointCache} keeps checkpoints of an image's history so that undo and redo do not have to replay
+ * every operation. Checkpoints of a large image take up a lot of memory, so the ones that have not been used for a
+ * while are written to disk instead of being thrown away, and read back in when they are needed again. The pixels are
+ * compressed with {@link Deflater#BEST_SPEED}, which shrinks most photos a fair amount while keeping up with the disk.
+ * </p>
+ *
+ * <p>
+ * The file is deleted by {@link #delete()}, or when ANDIE exits (see {@link TempFiles}).
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+class SpilledImage {
+
+    /** The number of pixels written or read at a time. */
+    private static final int CHUNK = 1 << 16;
+
+    /** The file the pixels are stored in. */
+    private final File file;
+    /** The width of the image. */
+    private final int width;
+    /** The height of the image. */
+    private final int height;
+    /** Whether the image has an alpha channel. */
+    private final boolean hasAlpha;
+
+    /**
+     * <p>
+     * Write an image to a new temporary file.
+     * </p>
+     *
+     * @param image The image to write, which is not changed.
+     * @throws IOException if the file cannot be written.
+     */
+    SpilledImage(BufferedImage image) throws IOException {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.hasAlpha = image.getColorModel().hasAlpha();
+        this.file = TempFiles.create("andie-checkpoint");
+
+        int[] pixels = PixelAccess.getPixels(image);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK * 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(file), deflater, CHUNK)) {
+            for (int start = 0; start < pixels.length; start += CHUNK) {
+                int length = Math.min(CHUNK, pixels.length - start);
+                buffer.clear();
+                buffer.asIntBuffer().put(pixels, start, length);
+                out.write(buffer.array(), 0, length * 4);
+            }
+        } catch (IOException ex) {
+            delete();
+            throw ex;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * <p>
+     * Read the image back from the file.
+     * </p>
+     *
+     * @return A new image with the same pixels as the one that was written, of type {@code TYPE_INT_ARGB},
+     *         or {@code TYPE_INT_RGB} if it had no alpha channel.
+     * @throws IOException if the file cannot be read.
+     */
+    BufferedImage load() throws IOException {
+        BufferedImage image = new BufferedImage(width, height, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = PixelAccess.getPixels(image);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK * 4);
+        Inflater inflater = new Inflater();
+        try (InputStream in = new InflaterInputStream(new FileInputStream(file), inflater, CHUNK)) {
+            for (int start = 0; start < pixels.length; start += CHUNK) {
+                int length = Math.min(CHUNK, pixels.length - start);
+                int read = in.readNBytes(buffer.array(), 0, length * 4);
+                if (read < length * 4) throw new EOFException("The checkpoint file is incomplete");
+                buffer.clear();
+                buffer.asIntBuffer().get(pixels, start, length);
+            }
+        } finally {
+            inflater.end();
+        }
+        PixelAccess.setPixels(image, pixels);
+        return image;
+    }
+
+    /**
+     * Delete the file. The image cannot be loaded afterwards.
+     */
+    void delete() {
+        TempFiles.delete(file);
+    }
+}
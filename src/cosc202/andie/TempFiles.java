@@ -0,0 +1,93 @@
+package cosc202.andie;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+
+/**
+ * <p>
+ * The temporary files ANDIE keeps while it runs, e.g. checkpoints that have been moved out of memory (see {@link SpilledImage}).
+ * </p>
+ *
+ * <p>
+ * The files are made in a directory of their own, which is made the first time it is needed. Whoever makes a file
+ * deletes it as soon as it is no longer needed. Anything still left in the directory when ANDIE exits (e.g. a file that
+ * could not be deleted while it was in use) is deleted then, along with the directory, in a single sweep, rather than
+ * registering every file with {@link File#deleteOnExit()}, which remembers each one until ANDIE exits.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+final class TempFiles {
+
+    /** The directory the files are made in, or null until the first one is made. */
+    private static Path directory;
+
+    /** TempFiles only has static methods. */
+    private TempFiles() {}
+
+    /**
+     * <p>
+     * Make a new, empty temporary file.
+     * </p>
+     *
+     * @param prefix The start of the file's name.
+     * @return The file.
+     * @throws IOException if the file cannot be made.
+     */
+    static File create(String prefix) throws IOException {
+        return Files.createTempFile(directory(), prefix, ".bin").toFile();
+    }
+
+    /**
+     * <p>
+     * Delete a temporary file, if it can be deleted now.
+     * </p>
+     *
+     * @param file The file to delete.
+     * @return True if the file no longer exists.
+     */
+    static boolean delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+            return true;
+        } catch (IOException ex) {
+            // It is deleted when ANDIE exits instead
+            return false;
+        }
+    }
+
+    /**
+     * <p>
+     * Get the directory the files are made in, making it the first time it is needed.
+     * </p>
+     *
+     * @return The directory.
+     * @throws IOException if the directory cannot be made.
+     */
+    private static synchronized Path directory() throws IOException {
+        if (directory == null || !Files.isDirectory(directory)) {
+            Path made = Files.createTempDirectory("andie");
+            if (directory == null) Runtime.getRuntime().addShutdownHook(new Thread(TempFiles::sweep, "Temporary file sweep"));
+            directory = made;
+        }
+        return directory;
+    }
+
+    /**
+     * Delete every file left in the directory, then the directory itself.
+     */
+    private static synchronized void sweep() {
+        if (directory == null) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException | DirectoryIteratorException ex) {
+            // Nothing more can be done as ANDIE exits
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.util.concurrent.*;
+
+/**
+ * <p>
+ * A shared scheduler that splits the work of an image operation into tiles and runs them in parallel.
+ * </p>
+ *
+ * <p>
+ * An operation hands the scheduler the region of the image it works on and a {@link TileTask} to run on each tile.
+ * The region is split in half (along its longer side) until the pieces are small enough, and the halves are
+ * run as {@code ForkJoinTask}s. Idle threads steal halves from busy ones, so a selection where some tiles are
+ * much slower than others (or an odd shape) still keeps every thread busy.
+ * </p>
+ *
+ * <p>
+ * Neighbourhood operations (e.g. convolutions) read a {@code halo} of pixels around each tile.
+ * Tiles are never split so small that the halo outweighs the tile itself, and {@link Tile#haloBounds(int, int)}
+ * gives the area of the image that a tile reads from.
+ * Each task must only write to the pixels within its own tile, but may read from anywhere in the source image.
+ * </p>
+ *
+ * <p>
+ * Work run by the scheduler is tracked by the {@link OperationProgress} of the thread that calls it,
+ * and no new tiles are started once that progress has been cancelled.
+ * </p>
+ *
+ * <p>
+ * The number of threads used is stored under the "parallelism" preference, and defaults to the number of processors.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class TileScheduler {
+
+    /** The preference storing the number of threads to use. */
+    public static final String PARALLELISM_KEY = "parallelism";
+    /** The number of pixels in a tile, above which it is split in half. */
+    static final int TILE_AREA = 256 * 256;
+    /** The smallest width or height a tile is split into, as a multiple of the halo. */
+    private static final int HALO_FACTOR = 4;
+
+    /** The pool running the tiles. */
+    private static volatile ForkJoinPool pool = new ForkJoinPool(loadParallelism());
+
+    /**
+     * <p>
+     * A rectangular part of the region being worked on.
+     * </p>
+     *
+     * @param x The x coordinate of the top left corner of the tile.
+     * @param y The y coordinate of the top left corner of the tile.
+     * @param width The width of the tile.
+     * @param height The height of the tile.
+     * @param halo The number of pixels around the tile that the operation reads from.
+     */
+    public record Tile(int x, int y, int width, int height, int halo) {
+
+        /**
+         * Get the x coordinate just past the right edge of the tile.
+         *
+         * @return The x coordinate of the right edge (exclusive).
+         */
+        public int endX() {
+            return x + width;
+        }
+
+        /**
+         * Get the y coordinate just past the bottom edge of the tile.
+         *
+         * @return The y coordinate of the bottom edge (exclusive).
+         */
+        public int endY() {
+            return y + height;
+        }
+
+        /**
+         * Get the area of the image that this tile reads from, i.e. the tile grown by its halo, clipped to the image.
+         *
+         * @param imageWidth The width of the image.
+         * @param imageHeight The height of the image.
+         * @return The bounds of the tile and its halo.
+         */
+        public Rectangle haloBounds(int imageWidth, int imageHeight) {
+            return new Rectangle(x - halo, y - halo, width + 2*halo, height + 2*halo).intersection(new Rectangle(0, 0, imageWidth, imageHeight));
+        }
+    }
+
+    /**
+     * <p>
+     * The work to do on each tile of an operation.
+     * </p>
+     *
+     * <p>
+     * Tasks are run on several threads at once, so they must not write to shared state outside of their own tile.
+     * </p>
+     */
+    @FunctionalInterface
+    public interface TileTask {
+        /**
+         * Process one tile.
+         *
+         * @param tile The tile to process.
+         */
+        void run(Tile tile);
+    }
+
+    /** TileScheduler only has static methods. */
+    private TileScheduler() {}
+
+    /**
+     * <p>
+     * Run a task on every tile of a region, and wait for them all to finish.
+     * </p>
+     *
+     * <p>
+     * If a task throws an exception, it is rethrown here once the tiles already started have finished.
+     * </p>
+     *
+     * @param region The region to process. Nothing is done if it is empty.
+     * @param halo The number of pixels around each tile that the task reads from (0 for point operations).
+     * @param task The task to run on each tile.
+     * @throws CancellationException if the {@link OperationProgress#current() current progress} is cancelled.
+     */
+    public static void run(Rectangle region, int halo, TileTask task) {
+        OperationProgress progress = OperationProgress.current();
+        progress.checkCancelled();
+        if (region.isEmpty()) return;
+        progress.addWork((long) region.width * region.height);
+        Split split = new Split(region.x, region.y, region.width, region.height, Math.max(halo, 0), task, progress);
+
+        // A task that is already running in the pool (e.g. an operation applied by another operation) forks into it directly
+        if (ForkJoinTask.getPool() == pool) split.invoke();
+        else pool.invoke(split);
+    }
+
+    /**
+     * <p>
+     * Run a task on every tile of a region, and wait for them all to finish.
+     * </p>
+     *
+     * @param x The x coordinate of the top left corner of the region.
+     * @param y The y coordinate of the top left corner of the region.
+     * @param endX The x coordinate of the right edge of the region (exclusive).
+     * @param endY The y coordinate of the bottom edge of the region (exclusive).
+     * @param halo The number of pixels around each tile that the task reads from (0 for point operations).
+     * @param task The task to run on each tile.
+     * @see #run(Rectangle, int, TileTask)
+     */
+    public static void run(int x, int y, int endX, int endY, int halo, TileTask task) {
+        run(new Rectangle(x, y, Math.max(endX - x, 0), Math.max(endY - y, 0)), halo, task);
+    }
+
+    /**
+     * Get the number of threads that tiles are run on.
+     *
+     * @return The parallelism level of the scheduler.
+     */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * <p>
+     * Change the number of threads that tiles are run on, and store it in the preferences.
+     * </p>
+     *
+     * <p>
+     * Operations that are already running finish on the old threads.
+     * </p>
+     *
+     * @param parallelism The number of threads, which is clamped to at least 1.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        Preferences.setPreference(PARALLELISM_KEY, Integer.toString(parallelism));
+        if (parallelism == pool.getParallelism()) return;
+        ForkJoinPool old = pool;
+        pool = new ForkJoinPool(parallelism);
+        old.shutdown();
+    }
+
+    /**
+     * Read the parallelism level from the preferences, falling back to the number of processors.
+     *
+     * @return The number of threads to use.
+     */
+    private static int loadParallelism() {
+        try {
+            return Math.max(1, Integer.parseInt(Preferences.getPreference(PARALLELISM_KEY)));
+        } catch (NumberFormatException | NullPointerException ex) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * <p>
+     * A part of a region, which runs its task directly if it is small enough, or splits into two halves otherwise.
+     * </p>
+     */
+    @SuppressWarnings("serial") // Only ever run in the pool that created it, never serialized
+    private static class Split extends RecursiveAction {
+        /** The bounds of this part of the region. */
+        private final int x, y, width, height;
+        /** The halo around each tile. */
+        private final int halo;
+        /** The task to run on each tile. */
+        private final TileTask task;
+        /** The progress that the tiles count towards. */
+        private final OperationProgress progress;
+
+        /**
+         * Create a part of a region.
+         *
+         * @param x The x coordinate of the top left corner.
+         * @param y The y coordinate of the top left corner.
+         * @param width The width.
+         * @param height The height.
+         * @param halo The halo around each tile.
+         * @param task The task to run on each tile.
+         * @param progress The progress that the tiles count towards.
+         */
+        Split(int x, int y, int width, int height, int halo, TileTask task, OperationProgress progress) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.halo = halo;
+            this.task = task;
+            this.progress = progress;
+        }
+
+        /**
+         * Run the task on this part, or split it in half and run both halves.
+         */
+        @Override
+        protected void compute() {
+            int minSide = Math.max(2 * HALO_FACTOR * halo, 2);
+            boolean splitWidth = width >= height;
+            int side = splitWidth ? width : height;
+            if ((long) width * height <= TILE_AREA || side < minSide) {
+                progress.checkCancelled();
+                Tile tile = new Tile(x, y, width, height, halo);
+                if (progress == OperationProgress.current()) task.run(tile);
+                else progress.runTile(() -> task.run(tile));
+                progress.workDone((long) width * height);
+                return;
+            }
+
+            int half = side / 2;
+            if (splitWidth) {
+                invokeAll(new Split(x, y, half, height, halo, task, progress), new Split(x + half, y, width - half, height, halo, task, progress));
+            } else {
+                invokeAll(new Split(x, y, width, half, halo, task, progress), new Split(x, y + half, width, height - half, halo, task, progress));
+            }
+        }
+    }
+}
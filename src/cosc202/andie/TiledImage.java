@@ -0,0 +1,567 @@
+package cosc202.andie;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * <p>
+ * An image that is split into square tiles, which are only made (or read in) when they are first needed.
+ * </p>
+ *
+ * <p>
+ * A {@code BufferedImage} keeps all of its pixels in a single array, so it can have at most 2^31 pixels, and all of them
+ * have to fit in memory at once. Scans are often bigger than that. A {@code TiledImage} keeps each {@link #TILE_SIZE} x
+ * {@link #TILE_SIZE} tile in an image of its own instead, and gets the pixels of a tile from a {@link TileLoader} the
+ * first time it is used, e.g. by decoding just that part of a file ({@link #read(File)}). Tiles that have been loaded can
+ * be thrown away again and reloaded later, so only the tiles in use take up memory. Tiles that have been set with
+ * {@link #setTileImage(int, int, BufferedImage)} are kept.
+ * </p>
+ *
+ * <p>
+ * Operations on {@code BufferedImage}s can be applied tile by tile with {@link #apply(ImageOperation, int)}, which gives
+ * the operation each tile with a border of the pixels around it, so that e.g. a blur can still see its neighbours.
+ * The result is worked out lazily too, so nothing is done until its tiles are used. The image is also a
+ * {@code RenderedImage}, so {@code ImageIO} can write it out a tile (or a row) at a time.
+ * </p>
+ *
+ * <p>
+ * The tiles are {@code TYPE_INT_ARGB}, or {@code TYPE_INT_RGB} if the image has no alpha channel, like the images
+ * {@link PixelAccess#normalize(BufferedImage)} makes. Tiles are never changed once they have been made, so a tile
+ * may be shared, e.g. with another {@code TiledImage}.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+public final class TiledImage implements RenderedImage {
+
+    /** The width and height of the tiles, in pixels. */
+    public static final int TILE_SIZE = 512;
+    /** The fewest loaded tiles that are kept in memory. At least a whole row of tiles is kept, so that rows of pixels can be read quickly. */
+    private static final int MIN_CACHED_TILES = 16;
+
+    /**
+     * <p>
+     * Gets the pixels of part of a {@link TiledImage}.
+     * </p>
+     */
+    public interface TileLoader {
+
+        /**
+         * Get the pixels of a region of the image.
+         *
+         * @param region The region, which lies within the image.
+         * @return An image of the same size as the region, which is not changed afterwards.
+         * @throws IOException if the pixels cannot be loaded.
+         */
+        public BufferedImage load(Rectangle region) throws IOException;
+
+        /**
+         * <p>
+         * Get a copy of the whole image with only every {@code factor}th pixel in each direction, if it can be made quickly.
+         * </p>
+         *
+         * <p>
+         * By default there is no quick way, and {@link TiledImage#getOverview(int)} loads every tile instead.
+         * </p>
+         *
+         * @param factor The number of pixels in each direction for every pixel of the copy.
+         * @return The copy, or null if there is no quicker way to make it.
+         * @throws IOException if the pixels cannot be loaded.
+         */
+        public default BufferedImage loadOverview(int factor) throws IOException {
+            return null;
+        }
+    }
+
+    /** The size of the image. */
+    private final int width, height;
+    /** Whether the image has an alpha channel. */
+    private final boolean hasAlpha;
+    /** Gets the pixels of tiles that have not been set. */
+    private final TileLoader loader;
+    /** Called when the image is disposed of, or null. */
+    private final AutoCloseable resource;
+    /** The file the image was read from, or null. */
+    private final File file;
+    /** The tiles that have been set, keyed by their column and row, which are always kept. */
+    private final Map<Point, BufferedImage> written = new HashMap<Point, BufferedImage>();
+    /** The tiles that have been loaded, from the least recently used to the most. */
+    private final LinkedHashMap<Point, BufferedImage> loaded;
+
+    /**
+     * Create a tiled image.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param hasAlpha Whether the image has an alpha channel.
+     * @param loader Gets the pixels of the tiles when they are first used.
+     */
+    public TiledImage(int width, int height, boolean hasAlpha, TileLoader loader) {
+        this(width, height, hasAlpha, loader, null, null);
+    }
+
+    /**
+     * Create a tiled image, which may hold on to a resource.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param hasAlpha Whether the image has an alpha channel.
+     * @param loader Gets the pixels of the tiles when they are first used.
+     * @param resource Closed by {@link #dispose()}, or null.
+     * @param file The file the image was read from, or null.
+     */
+    private TiledImage(int width, int height, boolean hasAlpha, TileLoader loader, AutoCloseable resource, File file) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("The image is empty");
+        this.width = width;
+        this.height = height;
+        this.hasAlpha = hasAlpha;
+        this.loader = loader;
+        this.resource = resource;
+        this.file = file;
+        int capacity = Math.max(MIN_CACHED_TILES, getNumXTiles() + 1);
+        this.loaded = new LinkedHashMap<Point, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Point, BufferedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Make a tiled image with the same pixels as a {@code BufferedImage}.
+     * </p>
+     *
+     * @param image The image, which must not be changed while the tiled image is in use.
+     * @return The tiled image.
+     */
+    public static TiledImage wrap(BufferedImage image) {
+        return new TiledImage(image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha(),
+                region -> image.getSubimage(region.x, region.y, region.width, region.height));
+    }
+
+    /**
+     * <p>
+     * Make a tiled image with the same pixels as a {@link MappedRaster}, reading each tile from the mapped file when it is first used.
+     * </p>
+     *
+     * @param raster The pixels, which must not be disposed of while the tiled image is used.
+     * @return A tiled image with the same pixels.
+     */
+    public static TiledImage wrap(MappedRaster raster) {
+        return new TiledImage(raster.getWidth(), raster.getHeight(), raster.hasAlpha(), raster::read);
+    }
+
+    /**
+     * <p>
+     * Open an image file without reading its pixels, which are read a tile at a time when they are needed.
+     * </p>
+     *
+     * <p>
+     * How quickly a tile can be read depends on the format. Formats that are stored in tiles or strips (e.g. TIFF)
+     * can be read in any order, but e.g. a PNG file is decoded from the start up to the tile each time.
+     * The file is kept open until {@link #dispose()} is called, and must not be changed in the meantime.
+     * </p>
+     *
+     * @param file The file to open.
+     * @return The image, or null if there is no reader for the format of the file (like {@code ImageIO.read}).
+     * @throws IOException if the file cannot be read.
+     */
+    public static TiledImage read(File file) throws IOException {
+        if (!file.canRead()) throw new IIOException("Can't read input file!");
+        ImageInputStream stream = ImageIO.createImageInputStream(file);
+        if (stream == null) throw new IIOException("Can't create an ImageInputStream!");
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            stream.close();
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(stream, false, true);
+            ImageTypeSpecifier type = reader.getRawImageType(0);
+            if (type == null) type = reader.getImageTypes(0).next();
+            TileLoader loader = new TileLoader() {
+                public BufferedImage load(Rectangle region) throws IOException {
+                    synchronized (reader) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(region);
+                        return reader.read(0, param);
+                    }
+                }
+
+                public BufferedImage loadOverview(int factor) throws IOException {
+                    synchronized (reader) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceSubsampling(factor, factor, 0, 0);
+                        return reader.read(0, param);
+                    }
+                }
+            };
+            return new TiledImage(reader.getWidth(0), reader.getHeight(0), type.getColorModel().hasAlpha(), loader, () -> {
+                reader.dispose();
+                stream.close();
+            }, file);
+        } catch (IOException | RuntimeException ex) {
+            reader.dispose();
+            stream.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Check whether the image has an alpha channel.
+     *
+     * @return True if the tiles are {@code TYPE_INT_ARGB}, false if they are {@code TYPE_INT_RGB}.
+     */
+    public boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    /**
+     * Get the file the image was read from.
+     *
+     * @return The file given to {@link #read(File)}, or null if the image was not read from a file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * <p>
+     * Get a tile of the image, loading it if needed.
+     * </p>
+     *
+     * @param column The column of the tile, from 0 to {@link #getNumXTiles()} - 1.
+     * @param row The row of the tile, from 0 to {@link #getNumYTiles()} - 1.
+     * @return The tile, which is {@link #TILE_SIZE} pixels wide and high even at the edges of the image. It must not be changed.
+     * @throws UncheckedIOException if the tile cannot be loaded.
+     */
+    public synchronized BufferedImage getTileImage(int column, int row) {
+        Point key = new Point(column, row);
+        BufferedImage tile = written.get(key);
+        if (tile == null) tile = loaded.get(key);
+        if (tile == null) {
+            // Loading is often much quicker in bigger pieces (e.g. a file is decoded from the start each time), so the
+            // whole row of tiles is loaded at once if it takes up less than an eighth of the heap
+            boolean wholeRow = (long) width * TILE_SIZE <= Runtime.getRuntime().maxMemory() / 32;
+            Rectangle region = getTileRect(column, row);
+            if (wholeRow) region = region.union(getTileRect(getNumXTiles() - 1, row)).union(getTileRect(0, row));
+            BufferedImage pixels;
+            try {
+                pixels = PixelAccess.normalize(loader.load(region));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            for (int c = wholeRow ? 0 : column; c <= (wholeRow ? getNumXTiles() - 1 : column); c++) {
+                Point at = new Point(c, row);
+                if (written.containsKey(at)) continue;
+                Rectangle part = getTileRect(c, row);
+                BufferedImage loadedTile = newTile();
+                copy(pixels, part.x - region.x, 0, loadedTile, 0, 0, part.width, part.height);
+                loaded.put(at, loadedTile);
+            }
+            tile = loaded.get(key);
+        }
+        return tile;
+    }
+
+    /**
+     * <p>
+     * Replace a tile of the image.
+     * </p>
+     *
+     * @param column The column of the tile.
+     * @param row The row of the tile.
+     * @param tile The new tile, which is at least as big as the part of the image the tile covers. It is not copied, and must not be changed afterwards.
+     */
+    public synchronized void setTileImage(int column, int row, BufferedImage tile) {
+        Rectangle region = getTileRect(column, row);
+        if (tile.getWidth() < region.width || tile.getHeight() < region.height) throw new IllegalArgumentException("The tile is too small");
+        if (!PixelAccess.isDirect(tile) || tile.getColorModel().hasAlpha() != hasAlpha || tile.getWidth() != TILE_SIZE || tile.getHeight() != TILE_SIZE) {
+            BufferedImage converted = newTile();
+            copy(PixelAccess.normalize(tile), 0, 0, converted, 0, 0, region.width, region.height);
+            tile = converted;
+        }
+        Point key = new Point(column, row);
+        loaded.remove(key);
+        written.put(key, tile);
+    }
+
+    /**
+     * <p>
+     * Copy a region of the image into a {@code BufferedImage}.
+     * </p>
+     *
+     * @param region The region to copy, which must lie within the image and have fewer than 2^31 pixels.
+     * @return A new image with the pixels of the region, of type {@code TYPE_INT_ARGB} (or {@code TYPE_INT_RGB}).
+     * @throws UncheckedIOException if a tile cannot be loaded.
+     */
+    public BufferedImage read(Rectangle region) {
+        if (!getBounds().contains(region)) throw new IllegalArgumentException("The region is not within the image");
+        BufferedImage result = new BufferedImage(region.width, region.height, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        for (int row = region.y / TILE_SIZE; row <= (region.y + region.height - 1) / TILE_SIZE; row++) {
+            for (int column = region.x / TILE_SIZE; column <= (region.x + region.width - 1) / TILE_SIZE; column++) {
+                Rectangle part = getTileRect(column, row).intersection(region);
+                copy(getTileImage(column, row), part.x - column * TILE_SIZE, part.y - row * TILE_SIZE,
+                     result, part.x - region.x, part.y - region.y, part.width, part.height);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Get a copy of the whole image with only every {@code factor}th pixel in each direction, e.g. to show an image that is too big to edit.
+     * </p>
+     *
+     * @param factor The number of pixels in each direction for every pixel of the copy.
+     * @return The copy, which is {@code ceil(width / factor)} x {@code ceil(height / factor)} pixels.
+     * @throws IOException if the pixels cannot be loaded.
+     */
+    public BufferedImage getOverview(int factor) throws IOException {
+        synchronized (this) {
+            if (written.isEmpty()) {
+                BufferedImage quick = loader.loadOverview(factor);
+                if (quick != null) return PixelAccess.normalize(quick);
+            }
+        }
+        int outWidth = (width + factor - 1) / factor, outHeight = (height + factor - 1) / factor;
+        BufferedImage result = new BufferedImage(outWidth, outHeight, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] dst = PixelAccess.getPixels(result);
+        try {
+            for (int y = 0; y < outHeight; y++) {
+                for (int x = 0; x < outWidth; x++) {
+                    int sx = x * factor, sy = y * factor;
+                    BufferedImage tile = getTileImage(sx / TILE_SIZE, sy / TILE_SIZE);
+                    dst[y * outWidth + x] = PixelAccess.getPixels(tile)[(sy % TILE_SIZE) * TILE_SIZE + sx % TILE_SIZE];
+                }
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        PixelAccess.setPixels(result, dst);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Apply an operation to the image tile by tile.
+     * </p>
+     *
+     * <p>
+     * Each tile is worked out when it is first used: the operation is given a copy of the tile with {@code halo} pixels
+     * of the image around it (where there are any), and the middle of the result becomes the tile. This is the same as
+     * applying the operation to the whole image as long as each pixel of the result only depends on the pixels at most
+     * {@code halo} pixels away, and the operation does not depend on where the pixels are in the image
+     * (e.g. it is not limited to a selection) or change the size of the image.
+     * </p>
+     *
+     * @param op The operation to apply.
+     * @param halo The number of pixels around each pixel that the operation reads.
+     * @return The image with the operation applied, which loads its tiles from this image.
+     */
+    public TiledImage apply(ImageOperation op, int halo) {
+        return new TiledImage(width, height, hasAlpha, region -> {
+            Rectangle area = new Rectangle(region);
+            area.grow(halo, halo);
+            area = area.intersection(getBounds());
+            BufferedImage result;
+            try {
+                result = op.apply(read(area));
+            } catch (IOException | UncheckedIOException ex) {
+                throw ex instanceof UncheckedIOException ? ((UncheckedIOException) ex).getCause() : (IOException) ex;
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+            if (result == null || result.getWidth() != area.width || result.getHeight() != area.height) {
+                throw new IOException("The operation changed the size of the image");
+            }
+            return result.getSubimage(region.x - area.x, region.y - area.y, region.width, region.height);
+        });
+    }
+
+    /**
+     * <p>
+     * Let go of the file the image was read from, if any. The tiles that have not been loaded cannot be used afterwards.
+     * </p>
+     */
+    public void dispose() {
+        if (resource == null) return;
+        try {
+            resource.close();
+        } catch (Exception ex) {
+            // The file is closed when ANDIE exits instead
+        }
+    }
+
+    /**
+     * Get the part of the image a tile covers.
+     *
+     * @param column The column of the tile.
+     * @param row The row of the tile.
+     * @return The region of the image, which is smaller than a whole tile at the right and bottom edges.
+     */
+    private Rectangle getTileRect(int column, int row) {
+        if (column < 0 || row < 0 || column >= getNumXTiles() || row >= getNumYTiles()) throw new IndexOutOfBoundsException("There is no tile at " + column + ", " + row);
+        return new Rectangle(column * TILE_SIZE, row * TILE_SIZE, Math.min(TILE_SIZE, width - column * TILE_SIZE), Math.min(TILE_SIZE, height - row * TILE_SIZE));
+    }
+
+    /**
+     * Get the area of the whole image.
+     *
+     * @return The bounds of the image.
+     */
+    private Rectangle getBounds() {
+        return new Rectangle(width, height);
+    }
+
+    /**
+     * Make an empty tile.
+     *
+     * @return A new {@link #TILE_SIZE} x {@link #TILE_SIZE} image of the type of the tiles.
+     */
+    private BufferedImage newTile() {
+        return new BufferedImage(TILE_SIZE, TILE_SIZE, hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Copy a block of pixels between two images of the same type.
+     *
+     * @param src The image to copy from, which is {@link PixelAccess#isDirect(BufferedImage) direct}.
+     * @param srcX The x coordinate of the block in {@code src}.
+     * @param srcY The y coordinate of the block in {@code src}.
+     * @param dst The image to copy to, which is direct.
+     * @param dstX The x coordinate of the block in {@code dst}.
+     * @param dstY The y coordinate of the block in {@code dst}.
+     * @param blockWidth The width of the block.
+     * @param blockHeight The height of the block.
+     */
+    private static void copy(BufferedImage src, int srcX, int srcY, BufferedImage dst, int dstX, int dstY, int blockWidth, int blockHeight) {
+        int[] srcPixels = PixelAccess.getPixels(src);
+        int[] dstPixels = PixelAccess.getPixels(dst);
+        for (int y = 0; y < blockHeight; y++) {
+            System.arraycopy(srcPixels, (srcY + y) * src.getWidth() + srcX, dstPixels, (dstY + y) * dst.getWidth() + dstX, blockWidth);
+        }
+        PixelAccess.setPixels(dst, dstPixels);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return hasAlpha ? ColorModel.getRGBdefault() : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return getColorModel().createCompatibleSampleModel(TILE_SIZE, TILE_SIZE);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return (width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return TILE_SIZE;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return TILE_SIZE;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getTileImage(tileX, tileY).getRaster().createTranslatedChild(tileX * TILE_SIZE, tileY * TILE_SIZE);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(getBounds());
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle region = rect.intersection(getBounds());
+        return read(region).getRaster().createTranslatedChild(region.x, region.y);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) raster = getColorModel().createCompatibleWritableRaster(width, height);
+        Rectangle region = raster.getBounds().intersection(getBounds());
+        if (!region.isEmpty()) raster.setRect(getData(region));
+        return raster;
+    }
+}
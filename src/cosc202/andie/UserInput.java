@@ -90,31 +90,19 @@ public abstract class UserInput extends ImageAction {
                 SpinnerNumberModel percentageModel = new SpinnerNumberModel(val, min, max, 1);
                 JSpinner percentageSpinner = new JSpinner(percentageModel);
 
+                // The slider only moves the spinner, and the spinner previews the value, so that each change is only previewed once
                 class JSliderListener implements ChangeListener{
                     public void stateChanged(ChangeEvent e){
-                        try {
-                            JSlider source = (JSlider)e.getSource();
-                            percentageSpinner.setValue((int)source.getValue());
-                            target.getImage().previewApply((ImageOperation)mutateImage((int)source.getValue()));
-                        } catch (Exception e1) {
-                            e1.printStackTrace();
-                        }
-                        target.repaint();
-                        target.getParent().revalidate();
+                        JSlider source = (JSlider)e.getSource();
+                        percentageSpinner.setValue((int)source.getValue());
                     }
                 }
 
                 class JSpinnerListener implements ChangeListener{
                     public void stateChanged(ChangeEvent e){
-                        try {
-                            JSpinner source = (JSpinner)e.getSource();
-                            percentageSlider.setValue((int)source.getValue());
-                            target.getImage().previewApply((ImageOperation)mutateImage((int)source.getValue()));
-                        } catch (Exception e1) {
-                            e1.printStackTrace();
-                        }
-                        target.repaint();
-                        target.getParent().revalidate();
+                        JSpinner source = (JSpinner)e.getSource();
+                        percentageSlider.setValue((int)source.getValue());
+                        preview((int)source.getValue());
                     }
                 }
 
@@ -145,14 +133,8 @@ public abstract class UserInput extends ImageAction {
 
                 class JSpinnerListener implements ChangeListener{
                     public void stateChanged(ChangeEvent e){
-                        try {
-                            JSpinner source = (JSpinner)e.getSource();
-                            target.getImage().previewApply((ImageOperation)mutateImage((int)source.getValue()));
-                        } catch (Exception e1) {
-                            e1.printStackTrace();
-                        }
-                        target.repaint();
-                        target.getParent().revalidate();
+                        JSpinner source = (JSpinner)e.getSource();
+                        preview((int)source.getValue());
                     }
                 }
 
@@ -172,7 +154,7 @@ public abstract class UserInput extends ImageAction {
                 }
             }
 
-            target.getImage().apply((ImageOperation)mutateImage(sizeIncrease));
+            OperationRunner.apply(target, (ImageOperation)mutateImage(sizeIncrease));
             target.repaint();
             target.getParent().revalidate();
 
@@ -181,6 +163,24 @@ public abstract class UserInput extends ImageAction {
         }
     }
 
+    /**
+     * <p>
+     * Preview the operation for a value in the background, replacing any preview that has not been shown yet.
+     * </p>
+     * 
+     * @param value The value chosen by the user.
+     */
+    private void preview(int value) {
+        try {
+            target.getImage().getPreviewScheduler().request((ImageOperation)mutateImage(value), target.getZoom() / 100, op -> {
+                target.repaint();
+                target.getParent().revalidate();
+            });
+        } catch (Exception e1) {
+            e1.printStackTrace();
+        }
+    }
+
     abstract Object mutateImage(int input);
 
 }
@@ -61,6 +61,9 @@ public abstract class UserMessage {
     /** A dialog option asking the user whether they would like to continue with the selected process
      * (and continue recording) or cancel as there is a recording in process. */
     public static final String RECORDING_CONTINUE_DIALOG = "RECORDING_CONTINUE_DIALOG";
+    /** A dialog option telling the user that the operations cannot be applied to the full-size image, and asking whether they
+     * would like to export the smaller copy being edited instead, or cancel. */
+    public static final String EXPORT_OVERVIEW_DIALOG = "EXPORT_OVERVIEW_DIALOG";
 
 
 
@@ -98,6 +101,8 @@ public abstract class UserMessage {
     public static final String UNREADABLE_OPS_FILE_WARN = "UNREADABLE_OPS_FILE_WARN";
     /** A warning to tell the user that the selected ops file is outdated and so cannot be applied */
     public static final String OUTDATED_OPS_FILE_WARN = "OUTDATED_OPS_FILE_WARN";
+    /** A warning to tell the user that the operations were saved from a copy of the image of another size, and cannot be scaled to this one */
+    public static final String OVERVIEW_OPS_WARN = "OVERVIEW_OPS_WARN";
 
 
     /**
@@ -162,6 +167,13 @@ public abstract class UserMessage {
             result = JOptionPane.showOptionDialog(UserMessage.PARENT, message, title, JOptionPane.YES_NO_OPTION,
                     JOptionPane.QUESTION_MESSAGE, ICON, possibleValues, possibleValues[0]);
             if(result == JOptionPane.NO_OPTION) result = JOptionPane.CANCEL_OPTION;
+        }//If the full-size image cannot be exported, ask if they want to export the smaller copy.
+        else if (dialogOption.equalsIgnoreCase(UserMessage.EXPORT_OVERVIEW_DIALOG)) {
+            message = Language.getWord(dialogOption);
+            Object[] possibleValues = new Object[] {Language.getWord("EXPORT_OVERVIEW_OK"), Language.getWord("DEFAULT_CANCEL")};
+            result = JOptionPane.showOptionDialog(UserMessage.PARENT, message, title, JOptionPane.YES_NO_OPTION,
+                    JOptionPane.QUESTION_MESSAGE, ICON, possibleValues, possibleValues[1]);
+            if(result == JOptionPane.NO_OPTION) result = JOptionPane.CANCEL_OPTION;
         }
         else{ //If it's not one of the expected dialog options, then that is an illegal argument.
             throw new IllegalArgumentException("Invalid dialog option.");
@@ -27,6 +27,10 @@ public class ViewActions {
      * A list of actions for the View menu.
      */
     protected ArrayList<Action> actions;
+
+    /** The factor the zoom level is multiplied or divided by when zooming in or out. */
+    private static final double ZOOM_STEP = 1.25;
+
     /**
      * <p>
      * Create a set of View menu actions.
@@ -88,13 +92,14 @@ public class ViewActions {
          * 
          * <p>
          * This method is called whenever the ZoomInAction is triggered.
-         * It increases the zoom level by 10%, to a maximum of 200%.
+         * It increases the zoom level by a quarter, to a maximum of {@link ImagePanel#MAX_ZOOM}%.
+         * The zoom changes by a factor rather than a fixed amount, so each step looks the same at any zoom level.
          * </p>
          * 
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.setZoom(target.getZoom()+10);
+            target.setZoom(target.getZoom() * ZOOM_STEP);
             target.repaint();
             target.getParent().revalidate();
         }
@@ -133,13 +138,13 @@ public class ViewActions {
          * 
          * <p>
          * This method is called whenever the ZoomOutAction is triggered.
-         * It decreases the zoom level by 10%, to a minimum of 50%.
+         * It undoes a {@link ZoomInAction}, to a minimum of {@link ImagePanel#MIN_ZOOM}%.
          * </p>
          * 
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.setZoom(target.getZoom()-10);
+            target.setZoom(target.getZoom() / ZOOM_STEP);
             target.repaint();
             target.getParent().revalidate();
         }
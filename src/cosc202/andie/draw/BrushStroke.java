@@ -0,0 +1,297 @@
+package cosc202.andie.draw;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A brush stroke that is still being drawn, kept separately from the image until the mouse is released.
+ * </p>
+ *
+ * <p>
+ * Rebuilding a {@link DrawBrush} with every point of the stroke each time the mouse moves means copying the image and
+ * drawing the whole line again, so painting slows down the longer the stroke gets. Instead, each new piece of the
+ * line is drawn once into a buffer, which the {@link cosc202.andie.ImagePanel} draws over the top of the image.
+ * The buffer is split into tiles that are only made where the stroke goes, so it is small however large the image is.
+ * Only when the stroke is finished is a single {@code DrawBrush} with all of its points applied to the image.
+ * </p>
+ *
+ * <p>
+ * The stroke is drawn in opaque colour and made transparent as a whole when it is shown, so a transparent colour
+ * does not get darker where the pieces of the line overlap, just like a line drawn in one go. Each piece is drawn
+ * together with the piece before it, so the corners are joined in the same way. The pieces are left open at their
+ * ends, and the square end of the line is taken off again when the line carries on, so that only the two ends of the whole
+ * line are squared off. The points are in the coordinates
+ * the operation uses, and are scaled to the image as it is shown.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ */
+class BrushStroke {
+
+    /** The width and height of the tiles in the buffer, in pixels. */
+    static final int TILE_SIZE = 256;
+
+    /** The brush size. */
+    private final int strokeSize;
+    /** The colour of the line. */
+    private final Color fill;
+    /** The scale from the points to the image as it is shown. */
+    private final double scale;
+    /** The stroke that the pieces of the line are drawn with, which leaves their ends open. */
+    private final BasicStroke pieceStroke;
+    /** The area of the image as it is shown. */
+    private final Rectangle imageBounds;
+    /** The tiles of the buffer that have been drawn on, keyed by their column and row. */
+    private final Map<Point, BufferedImage> tiles = new HashMap<Point, BufferedImage>();
+    /** The area of the image that the stroke has been drawn on so far. */
+    private Rectangle bounds = new Rectangle();
+    /** The number of points in the stroke. */
+    private int count;
+    /** The last point in the stroke. */
+    private Point last;
+    /** The point before the last point in the stroke, or null if there is only one. */
+    private Point previous;
+    /** The square end of the line at the last point, or null if there is none. */
+    private Shape tip;
+    /** The tiles under {@link #tip} as they were before it was drawn (or null where there was no tile), as it is covered by a corner once the line carries on. */
+    private final Map<Point, BufferedImage> underTip = new HashMap<Point, BufferedImage>();
+
+    /**
+     * Create a new brush stroke.
+     *
+     * @param strokeSize The brush size.
+     * @param fill The colour of the line.
+     * @param scale The scale from the points to the image as it is shown (see {@link cosc202.andie.EditableImage#getResizeScaleTesting()}).
+     * @param width The width of the image as it is shown.
+     * @param height The height of the image as it is shown.
+     */
+    BrushStroke(int strokeSize, Color fill, double scale, int width, int height) {
+        this.strokeSize = strokeSize;
+        this.fill = fill;
+        this.scale = scale;
+        this.imageBounds = new Rectangle(width, height);
+        this.pieceStroke = new BasicStroke(strokeSize, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER);
+    }
+
+    /**
+     * <p>
+     * Add a point to the end of the stroke, and draw the new piece of the line.
+     * </p>
+     *
+     * <p>
+     * A stroke with a single point is drawn as a short diagonal line, as {@link DrawBrush} does, which is
+     * replaced by the line itself once the second point is added.
+     * </p>
+     *
+     * @param p The point to add.
+     * @return The area of the image that has changed, or null if nothing has.
+     */
+    Rectangle add(Point p) {
+        if (last != null && last.equals(p)) return null;
+        Rectangle changed;
+        if (count == 0) {
+            int half = strokeSize / 2;
+            changed = draw(new int[] {p.x - half, p.x + half}, new int[] {p.y - half, p.y + half}, new BasicStroke(strokeSize));
+        } else {
+            if (count == 1) {
+                changed = new Rectangle(bounds);
+                tiles.clear();
+                changed = union(changed, fill(cap(last, p)));
+            } else {
+                changed = bounds(tip);
+                removeTip();
+            }
+            changed = previous == null
+                    ? union(changed, draw(new int[] {last.x, p.x}, new int[] {last.y, p.y}, pieceStroke))
+                    : union(changed, draw(new int[] {previous.x, last.x, p.x}, new int[] {previous.y, last.y, p.y}, pieceStroke));
+            tip = cap(p, last);
+            changed = union(changed, fillTip());
+        }
+        previous = last;
+        last = p;
+        count++;
+        return changed;
+    }
+
+    /**
+     * Get the area of the image that the stroke has been drawn on.
+     *
+     * @return The area, in the coordinates of the image as it is shown.
+     */
+    Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * <p>
+     * Draw the stroke over the image.
+     * </p>
+     *
+     * @param g The Graphics component to draw on, in the coordinates of the image as it is shown.
+     * @param visible The area of the image that needs to be drawn.
+     */
+    void paint(Graphics2D g, Rectangle visible) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, fill.getAlpha() / 255f));
+        for (Map.Entry<Point, BufferedImage> entry : tiles.entrySet()) {
+            int x = entry.getKey().x * TILE_SIZE, y = entry.getKey().y * TILE_SIZE;
+            if (visible.intersects(x, y, TILE_SIZE, TILE_SIZE)) g2.drawImage(entry.getValue(), x, y, null);
+        }
+        g2.dispose();
+    }
+
+    /**
+     * Draw part of the line into the tiles it covers.
+     *
+     * @param x The x coordinates of the points to join.
+     * @param y The y coordinates of the points to join.
+     * @param stroke The stroke to draw the line with.
+     * @return The area of the image that has changed.
+     */
+    private Rectangle draw(int[] x, int[] y, BasicStroke stroke) {
+        Path2D.Double line = new Path2D.Double();
+        line.moveTo(x[0], y[0]);
+        for (int i = 1; i < x.length; i++) line.lineTo(x[i], y[i]);
+        return paintTiles(bounds(stroke.createStrokedShape(line)), g -> {
+            g.setStroke(stroke);
+            g.drawPolyline(x, y, x.length);
+        });
+    }
+
+    /**
+     * Fill a shape into the tiles it covers.
+     *
+     * @param shape The shape to fill, in the coordinates of the points.
+     * @return The area of the image that has changed.
+     */
+    private Rectangle fill(Shape shape) {
+        return paintTiles(bounds(shape), g -> g.fill(shape));
+    }
+
+    /**
+     * Fill the square end of the line into the tiles it covers, keeping a copy of them as they were.
+     *
+     * @return The area of the image that has changed.
+     */
+    private Rectangle fillTip() {
+        Rectangle area = bounds(tip).intersection(imageBounds);
+        if (area.isEmpty()) return area;
+        for (int row = area.y / TILE_SIZE; row <= (area.y + area.height - 1) / TILE_SIZE; row++) {
+            for (int column = area.x / TILE_SIZE; column <= (area.x + area.width - 1) / TILE_SIZE; column++) {
+                Point key = new Point(column, row);
+                BufferedImage tile = tiles.get(key);
+                underTip.put(key, tile == null ? null : new BufferedImage(tile.getColorModel(), tile.copyData(null), false, null));
+            }
+        }
+        return fill(tip);
+    }
+
+    /**
+     * Put back the tiles under the square end of the line, as it was before the end was drawn.
+     */
+    private void removeTip() {
+        for (Map.Entry<Point, BufferedImage> entry : underTip.entrySet()) {
+            if (entry.getValue() == null) tiles.remove(entry.getKey());
+            else tiles.put(entry.getKey(), entry.getValue());
+        }
+        underTip.clear();
+    }
+
+    /**
+     * Draw into each tile of an area, making the tiles if needed.
+     *
+     * @param area The area of the image to draw on.
+     * @param painter Draws on a tile, in the coordinates of the points and in opaque colour.
+     * @return The part of the area that is on the image.
+     */
+    private Rectangle paintTiles(Rectangle area, Consumer<Graphics2D> painter) {
+        Rectangle changed = area.intersection(imageBounds);
+        if (changed.isEmpty()) return changed;
+        for (int row = changed.y / TILE_SIZE; row <= (changed.y + changed.height - 1) / TILE_SIZE; row++) {
+            for (int column = changed.x / TILE_SIZE; column <= (changed.x + changed.width - 1) / TILE_SIZE; column++) {
+                BufferedImage tile = tiles.computeIfAbsent(new Point(column, row), key -> new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB));
+                Graphics2D g = tile.createGraphics();
+                g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                g.scale(scale, scale);
+                g.setColor(opaque());
+                painter.accept(g);
+                g.dispose();
+            }
+        }
+        bounds = union(bounds, changed);
+        return changed;
+    }
+
+    /**
+     * <p>
+     * Get the square end that a line with square ends has beyond one of its end points.
+     * </p>
+     *
+     * <p>
+     * This is the part that {@link #pieceStroke} leaves off: a rectangle as wide as the line, reaching half the brush size past the end point.
+     * </p>
+     *
+     * @param end The end point.
+     * @param from The point that the line comes from.
+     * @return The square end, in the coordinates of the points.
+     */
+    private Shape cap(Point end, Point from) {
+        double length = end.distance(from);
+        double dx = (end.x - from.x) / length * strokeSize / 2, dy = (end.y - from.y) / length * strokeSize / 2;
+        Path2D.Double cap = new Path2D.Double();
+        cap.moveTo(end.x + dy, end.y - dx);
+        cap.lineTo(end.x + dy + dx, end.y - dx + dy);
+        cap.lineTo(end.x - dy + dx, end.y + dx + dy);
+        cap.lineTo(end.x - dy, end.y + dx);
+        cap.closePath();
+        return cap;
+    }
+
+    /**
+     * Get the area of the image that a shape covers.
+     *
+     * @param shape The shape, in the coordinates of the points.
+     * @return The area, with a pixel to spare on each side for rounding.
+     */
+    private Rectangle bounds(Shape shape) {
+        Rectangle area = AffineTransform.getScaleInstance(scale, scale).createTransformedShape(shape).getBounds();
+        area.grow(1, 1);
+        return area;
+    }
+
+    /**
+     * Get the colour of the line without its transparency, which is applied when the stroke is shown.
+     *
+     * @return The opaque colour.
+     */
+    private Color opaque() {
+        return new Color(fill.getRed(), fill.getGreen(), fill.getBlue());
+    }
+
+    /**
+     * Join two areas, either of which may be empty.
+     *
+     * @param a The first area.
+     * @param b The second area.
+     * @return The smallest area containing both.
+     */
+    private static Rectangle union(Rectangle a, Rectangle b) {
+        if (a.isEmpty()) return new Rectangle(b);
+        if (b.isEmpty()) return new Rectangle(a);
+        return a.union(b);
+    }
+}
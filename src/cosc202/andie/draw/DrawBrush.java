@@ -6,8 +6,12 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
 import java.awt.image.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * 
@@ -25,6 +29,9 @@ import java.util.ArrayList;
  */
 public class DrawBrush implements ImageOperation, java.io.Serializable {
 
+    /** Fixed at the version from before brush strokes said whether they change their input, so that saved strokes still load. */
+    private static final long serialVersionUID = -4705897364729925782L;
+
     /** The array of points to visit when drawing the curved line. */
     private int[] x, y;
     /** The brush size. */
@@ -72,16 +79,7 @@ public class DrawBrush implements ImageOperation, java.io.Serializable {
         try{
             output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
             Graphics2D g = output.createGraphics();
-
-            g.setStroke(new BasicStroke(strokeSize));
-            g.setColor(fill);
-
-            if(x.length <= 1){
-                x = new int[]{x[0] - strokeSize/2, x[0] + strokeSize/2};
-                y = new int[]{y[0] - strokeSize/2, y[0] + strokeSize/2};
-            }
-            g.drawPolyline(x, y, x.length);
-
+            draw(g);
             g.dispose();
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
@@ -91,5 +89,108 @@ public class DrawBrush implements ImageOperation, java.io.Serializable {
         return output;
     }
 
+    /**
+     * <p>
+     * Draw the line straight onto the image, rather than a copy of it.
+     * </p>
+     * 
+     * <p>
+     * The whole line is drawn, as clipping a wide line changes how its edges are drawn.
+     * </p>
+     * 
+     * @param input The image to draw to, which is changed.
+     * @param area The area of the result that is needed.
+     * @return The resulting image, which is {@code input}.
+     */
+    @Override
+    public BufferedImage applyToArea(BufferedImage input, Rectangle area) {
+        Graphics2D g = input.createGraphics();
+        draw(g);
+        g.dispose();
+        return input;
+    }
+
+    /**
+     * <p>
+     * Draw the line with a {@code Graphics2D}.
+     * </p>
+     * 
+     * <p>
+     * A line with a single point is drawn as a short diagonal line, so that a click leaves a mark.
+     * </p>
+     * 
+     * @param g The Graphics component to draw on, in the coordinates of the points.
+     */
+    private void draw(Graphics2D g) {
+        g.setStroke(new BasicStroke(strokeSize));
+        g.setColor(fill);
+
+        if(x.length <= 1){
+            // Leave the points as they are, so that the operation stays equal to one made from the same points
+            g.drawPolyline(new int[]{x[0] - strokeSize/2, x[0] + strokeSize/2}, new int[]{y[0] - strokeSize/2, y[0] + strokeSize/2}, 2);
+            return;
+        }
+        g.drawPolyline(x, y, x.length);
+    }
+
+    /**
+     * <p>
+     * Only the pixels under the line change.
+     * </p>
+     * 
+     * @param input The image to draw to.
+     * @return The part of the area that the line is drawn on that lies on the image.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input) {
+        Path2D.Double line = new Path2D.Double();
+        if (x.length <= 1) {
+            line.moveTo(x[0] - strokeSize/2, y[0] - strokeSize/2);
+            line.lineTo(x[0] + strokeSize/2, y[0] + strokeSize/2);
+        } else {
+            line.moveTo(x[0], y[0]);
+            for (int i = 1; i < x.length; i++) line.lineTo(x[i], y[i]);
+        }
+        // The corners of the line can reach well past the points, so take the bounds of the line as it is drawn
+        Rectangle bounds = new BasicStroke(strokeSize).createStrokedShape(line).getBounds();
+        bounds.grow(1, 1);
+        return bounds.intersection(new Rectangle(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * The line is drawn onto a copy of the image, so the input is only read.
+     * </p>
+     * 
+     * @return False.
+     */
+    @Override
+    public boolean changesInput() {
+        return false;
+    }
 
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is a line through the same points, with the same brush size and colour.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DrawBrush)) return false;
+        DrawBrush other = (DrawBrush) obj;
+        return strokeSize == other.strokeSize && fill.equals(other.fill) && Arrays.equals(x, other.x) && Arrays.equals(y, other.y);
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(strokeSize, fill, Arrays.hashCode(x), Arrays.hashCode(y));
+    }
 }
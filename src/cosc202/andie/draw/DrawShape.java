@@ -6,7 +6,9 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.*;
+import java.util.Objects;
 
 /**
  * <p>
@@ -25,6 +27,9 @@ import java.awt.image.*;
  */
 public class DrawShape implements ImageOperation, java.io.Serializable {
 
+    /** Fixed at the version from before shapes could be drawn as an overlay, so that shapes in saved operation files and macros still load. */
+    private static final long serialVersionUID = 5446347381364525856L;
+
     /** The points representing the two corners of the shape. */
     private int x1, x2, y1, y2;
     /** The type of shape to draw. */
@@ -91,28 +96,7 @@ public class DrawShape implements ImageOperation, java.io.Serializable {
         try{
             output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
             Graphics2D g = output.createGraphics();
-
-            g.setStroke(new BasicStroke(strokeSize));
-            g.setColor(primary);
-
-            if (shapeType.equals(DrawPanel.LINE)) { //Lines aren't the same as other shapes, since they are just a border effecively
-                g.drawLine(x1, y1, x2, y2);
-                g.dispose();
-                return output;
-            }
-            
-            if(fillType.equals(DrawPanel.FILL_ONLY) || fillType.equals(DrawPanel.FILL_AND_BORDER)){
-                if (fillType.equals(DrawPanel.FILL_AND_BORDER)) g.setColor(secondary); //Only use secondary if we have both fill and border being drawn
-                if (shapeType.equals(DrawPanel.RECTANGLE)) g.fillRect(x1, y1, x2 - x1, y2 - y1);
-                else if (shapeType.equals(DrawPanel.OVAL)) g.fillOval(x1, y1, x2 - x1, y2 - y1);
-            }
-
-            if(fillType.equals(DrawPanel.FILL_AND_BORDER) || fillType.equals(DrawPanel.BORDER_ONLY)){
-                g.setColor(primary);
-                if (shapeType.equals(DrawPanel.RECTANGLE)) g.drawRect(x1, y1, x2 - x1, y2 - y1);
-                else if (shapeType.equals(DrawPanel.OVAL)) g.drawOval(x1, y1, x2 - x1, y2 - y1);
-            }
-
+            draw(g);
             g.dispose();
         }catch(NullPointerException ex){
             UserMessage.showWarning(UserMessage.NULL_FILE_WARN);
@@ -122,5 +106,124 @@ public class DrawShape implements ImageOperation, java.io.Serializable {
         return output;
     }
 
+    /**
+     * <p>
+     * Draw the shape straight onto the image, rather than a copy of it.
+     * </p>
+     * 
+     * <p>
+     * The whole shape is drawn, as clipping a wide line changes how its edges are drawn.
+     * </p>
+     * 
+     * @param input The image to draw to, which is changed.
+     * @param area The area of the result that is needed.
+     * @return The resulting image, which is {@code input}.
+     */
+    @Override
+    public BufferedImage applyToArea(BufferedImage input, Rectangle area) {
+        Graphics2D g = input.createGraphics();
+        draw(g);
+        g.dispose();
+        return input;
+    }
+
+    /**
+     * <p>
+     * Only the pixels under the shape change.
+     * </p>
+     * 
+     * @param input The image to draw to.
+     * @return The part of the area that the shape is drawn on (see {@link #getBounds()}) that lies on the image.
+     */
+    @Override
+    public Rectangle getRegion(BufferedImage input) {
+        return getBounds().intersection(new Rectangle(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * The shape is drawn onto a copy of the image, so the input is only read.
+     * </p>
+     * 
+     * @return False.
+     */
+    @Override
+    public boolean changesInput() {
+        return false;
+    }
 
+    /**
+     * <p>
+     * Draw the shape with a {@code Graphics2D}.
+     * </p>
+     * 
+     * <p>
+     * This is how the shape is drawn onto the image by {@link #apply(BufferedImage)}, and also how it is drawn
+     * over the image while it is still being dragged out (see {@link Selection#paintOverlay(Graphics2D, java.awt.Rectangle)}),
+     * so that it looks the same before and after it is applied.
+     * </p>
+     * 
+     * @param g The Graphics component to draw on, in the coordinates of the shape.
+     */
+    void draw(Graphics2D g) {
+        g.setStroke(new BasicStroke(strokeSize));
+        g.setColor(primary);
+
+        if (shapeType.equals(DrawPanel.LINE)) { //Lines aren't the same as other shapes, since they are just a border effecively
+            g.drawLine(x1, y1, x2, y2);
+            return;
+        }
+        
+        if(fillType.equals(DrawPanel.FILL_ONLY) || fillType.equals(DrawPanel.FILL_AND_BORDER)){
+            if (fillType.equals(DrawPanel.FILL_AND_BORDER)) g.setColor(secondary); //Only use secondary if we have both fill and border being drawn
+            if (shapeType.equals(DrawPanel.RECTANGLE)) g.fillRect(x1, y1, x2 - x1, y2 - y1);
+            else if (shapeType.equals(DrawPanel.OVAL)) g.fillOval(x1, y1, x2 - x1, y2 - y1);
+        }
+
+        if(fillType.equals(DrawPanel.FILL_AND_BORDER) || fillType.equals(DrawPanel.BORDER_ONLY)){
+            g.setColor(primary);
+            if (shapeType.equals(DrawPanel.RECTANGLE)) g.drawRect(x1, y1, x2 - x1, y2 - y1);
+            else if (shapeType.equals(DrawPanel.OVAL)) g.drawOval(x1, y1, x2 - x1, y2 - y1);
+        }
+    }
+
+    /**
+     * <p>
+     * Get the area that the shape is drawn on.
+     * </p>
+     * 
+     * @return The area, including the width of the border and the square ends of a line.
+     */
+    Rectangle getBounds() {
+        Rectangle bounds = new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1) + 1, Math.abs(y2 - y1) + 1);
+        bounds.grow(strokeSize, strokeSize);
+        return bounds;
+    }
+
+    /**
+     * <p>
+     * Check whether another operation is the same as this one.
+     * </p>
+     * 
+     * @param obj The object to compare with.
+     * @return True if {@code obj} is the same shape between the same points, with the same fill, brush size and colours.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DrawShape)) return false;
+        DrawShape other = (DrawShape) obj;
+        return shapeType.equals(other.shapeType) && fillType.equals(other.fillType) && strokeSize == other.strokeSize
+                && x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2
+                && primary.equals(other.primary) && Objects.equals(secondary, other.secondary);
+    }
+
+    /**
+     * Get a hash code that is consistent with {@link #equals(Object)}.
+     * 
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(shapeType, fillType, strokeSize, x1, y1, x2, y2, primary, secondary);
+    }
 }
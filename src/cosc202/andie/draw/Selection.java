@@ -3,7 +3,9 @@ package cosc202.andie.draw;
 import cosc202.andie.*;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.*;
 import java.util.ArrayList;
 
@@ -14,6 +16,11 @@ import java.util.ArrayList;
  * </p>
  * 
  * <p>
+ * The selected area is not drawn onto the image; the {@link ImagePanel} draws it over the top of the image
+ * (see {@link #getMarquee()}), so dragging out a selection costs the same however large the image is.
+ * </p>
+ * 
+ * <p>
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
  * 
@@ -36,6 +43,10 @@ public class Selection {
     /** If the {@code BRUSH} tool is enabled, stores all of the points 
      * visited during the current selection so that they can be drawn together as one line. */
     private ArrayList<Point> points;
+    /** The brush stroke being drawn over the image, or null if the {@code BRUSH} tool is not drawing one. */
+    private BrushStroke stroke;
+    /** The shape being dragged out over the image, or null if the {@code SHAPE} tool is not drawing one. */
+    private DrawShape shape;
 
     /** 
      * Instantiate a new, empty selection.
@@ -56,11 +67,81 @@ public class Selection {
      * on the current {@code EditableImage}.
      */
     public void reset() {
+        Rectangle marquee = getMarquee();
         mouseSelectionOn = false;
         p1 = EMPTY_POINT;
         p2 = EMPTY_POINT;
         points.clear();
-        target.getImage().previewApply(new BrightnessContrastAdjustment(0, 0)); //Reset the selection effect
+        target.getImage().cancelPreview();
+        if (marquee != null) target.repaintImage(marquee); //Remove the selection from the screen
+        if (stroke != null) {
+            Rectangle strokeBounds = stroke.getBounds();
+            stroke = null;
+            if (!strokeBounds.isEmpty()) target.repaintImage(strokeBounds);
+        }
+        if (shape != null) {
+            Rectangle shapeBounds = getShapeArea();
+            shape = null;
+            target.repaintImage(shapeBounds);
+        }
+    }
+
+    /**
+     * <p>
+     * Get the area of the current image that should be shown as selected.
+     * </p>
+     * 
+     * <p>
+     * The corners of the selection are stored in the coordinates of the image before it was resized,
+     * which is what operations on the selection use, so they are scaled to the image as it is shown.
+     * </p>
+     * 
+     * @return The selected area, including both corners, or null if no area is selected with the selection tool.
+     */
+    public Rectangle getMarquee() {
+        if (!beenDragged || isEmpty()) return null;
+        double resizeScale = target.getImage().getResizeScaleTesting();
+        Point[] corners = getCorners();
+        int x1 = (int) (corners[0].x * resizeScale), y1 = (int) (corners[0].y * resizeScale);
+        int x2 = (int) (corners[1].x * resizeScale), y2 = (int) (corners[1].y * resizeScale);
+        return new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1);
+    }
+
+    /**
+     * <p>
+     * Draw the brush stroke or shape that is being drawn, if there is one, over the image.
+     * </p>
+     * 
+     * <p>
+     * A shape is drawn straight onto the screen, in the same way as it will be drawn onto the image,
+     * so dragging it out costs the same however large the image is.
+     * </p>
+     * 
+     * @param g The Graphics component to draw on, in the coordinates of the image as it is shown.
+     * @param visible The area of the image that needs to be drawn.
+     */
+    public void paintOverlay(Graphics2D g, Rectangle visible) {
+        if (stroke != null) stroke.paint(g, visible);
+        if (shape != null) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.clip(new Rectangle(target.getImage().getDimensions()));
+            double resizeScale = target.getImage().getResizeScaleTesting();
+            g2.scale(resizeScale, resizeScale);
+            shape.draw(g2);
+            g2.dispose();
+        }
+    }
+
+    /**
+     * Get the area of the image that the shape being dragged out is drawn on.
+     * 
+     * @return The area, scaled to the image as it is shown.
+     */
+    private Rectangle getShapeArea() {
+        Rectangle bounds = shape.getBounds();
+        double resizeScale = target.getImage().getResizeScaleTesting();
+        int x = (int) Math.floor(bounds.x * resizeScale), y = (int) Math.floor(bounds.y * resizeScale);
+        return new Rectangle(x, y, (int) Math.ceil(bounds.getMaxX() * resizeScale) - x, (int) Math.ceil(bounds.getMaxY() * resizeScale) - y);
     }
 
     /**
@@ -125,11 +206,24 @@ public class Selection {
     public void mousePressed(MouseEvent e, double scale) {
         if (target.getImage().hasImage() == false) return;
 
+        Rectangle marquee = getMarquee();
+        if (marquee != null) target.repaintImage(marquee); //Remove the old selection from the screen
         mouseSelectionOn = true;
         beenDragged = false;
         p1 = validPoint(e.getX(), e.getY(), scale);
         p2 = validPoint(e.getX(), e.getY(), scale);
-        if(DrawPanel.getTool().equals(DrawPanel.BRUSH)) points.add(p1);
+        if(DrawPanel.getTool().equals(DrawPanel.BRUSH)) {
+            points.add(p1);
+            // The stroke can only be drawn over the image where its points are, which is not the case once it has been rotated or flipped
+            // (the same goes for shapes)
+            EditableImage img = target.getImage();
+            if (img.getRotation() % 360 == 0) {
+                Dimension size = img.getDimensions();
+                stroke = new BrushStroke(DrawPanel.getStrokeSize(), DrawPanel.getPrimary(), img.getResizeScaleTesting(), size.width, size.height);
+                Rectangle changed = stroke.add(p1);
+                if (!changed.isEmpty()) target.repaintImage(changed);
+            }
+        }
     }
 
     /**
@@ -143,11 +237,28 @@ public class Selection {
         if (target.getImage().hasImage() == false) return;
         if (mouseSelectionOn == false) return;
 
+        Rectangle oldMarquee = getMarquee();
         beenDragged = true;
         p2 = validPoint(e.getX(), e.getY(), scale);
         points.add(p2);
 
-        target.getImage().previewApply(getOperation());
+        if (DrawPanel.getTool().equals(DrawPanel.SELECTION)) {
+            // Only the parts of the screen that were or are now selected need to be redrawn
+            Rectangle marquee = getMarquee();
+            target.repaintImage(oldMarquee == null ? marquee : marquee.union(oldMarquee));
+        } else if (stroke != null) {
+            // Only the new piece of the line is drawn; the whole stroke is applied once the mouse is released
+            Rectangle changed = stroke.add(p2);
+            if (changed != null && !changed.isEmpty()) target.repaintImage(changed);
+        } else if (DrawPanel.getTool().equals(DrawPanel.SHAPE) && target.getImage().getRotation() % 360 == 0) {
+            // The shape is drawn over the image until the mouse is released, so only where it was and is now needs to be redrawn
+            Rectangle oldArea = shape == null ? null : getShapeArea();
+            shape = (DrawShape) getOperation();
+            Rectangle area = getShapeArea();
+            target.repaintImage(oldArea == null ? area : area.union(oldArea));
+        } else {
+            target.getImage().previewApply(getOperation());
+        }
     }
 
     /**
@@ -163,7 +274,6 @@ public class Selection {
         
         if (DrawPanel.getTool().equals(DrawPanel.SELECTION)){
             if (mouseSelectionOn == false || beenDragged == true) return;            
-            img.previewApply(new BrightnessContrastAdjustment(0, 0));
         }
         else{
             img.apply(getOperation());
@@ -182,10 +292,6 @@ public class Selection {
      */
     private ImageOperation getOperation(){
         Point[] corners = getCorners();
-        Point topLeftCorner = new Point((int) (corners[0].x*(target.getImage().getResizeScaleTesting()*1)), (int) (corners[0].y*(target.getImage().getResizeScaleTesting()*1)));
-        Point bottomRightCorner = new Point((int) (corners[1].x*(target.getImage().getResizeScaleTesting()*1)), (int) (corners[1].y*(target.getImage().getResizeScaleTesting()*1)));
-        if (DrawPanel.getTool().equals(DrawPanel.SELECTION)) return new BrightnessContrastAdjustment(25, 0, topLeftCorner, bottomRightCorner);
-        
         if (DrawPanel.getTool().equals(DrawPanel.BRUSH)) return new DrawBrush(DrawPanel.getStrokeSize(), points, DrawPanel.getPrimary());
         
         //Lines are a special case of "shape"; their corners need to be p1 and p2, not the top-left and bottom-right corners.
@@ -0,0 +1,314 @@
+package test.cosc202.andie;
+
+import cosc202.andie.AndieConvolveOp;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+public class AndieConvolveOpTest {
+
+    /** Kernels like the ones that the filters in ANDIE use. */
+    private static final float[][] KERNELS = {
+        {0, -1/2.0f, 0, -1/2.0f, 3, -1/2.0f, 0, -1/2.0f, 0}, // Sharpen
+        {0, 0, 0, -1, 0, 1, 0, 0, 0}, // Emboss (east)
+        {-1/2, -1, -1/2, 0, 0, 0, 1/2, 1, 1/2}, // Sobel (vertical)
+        gaussian(4),
+        mean(2)
+    };
+
+    private static float[] gaussian(int radius) {
+        int size = 2*radius+1;
+        float[] array = new float[size*size];
+        float sigma = ((float) radius) / 3;
+        float twoSigmaSq = 2 * sigma * sigma;
+        float sum = 0;
+        int index = 0;
+        for (int y = -radius; y <= radius; y++) {
+            for (int x = -radius; x <= radius; x++) {
+                array[index] = (float) (Math.exp(-(x * x + y * y) / twoSigmaSq) / (twoSigmaSq * Math.PI));
+                sum += array[index++];
+            }
+        }
+        for (int i = 0; i < array.length; i++) array[i] /= sum;
+        return array;
+    }
+
+    private static float[] mean(int radius) {
+        int size = (2*radius+1)*(2*radius+1);
+        float[] array = new float[size];
+        java.util.Arrays.fill(array, 1.0f/size);
+        return array;
+    }
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, random.nextInt());
+        }
+        return img;
+    }
+
+    private static Kernel kernel(float[] data) {
+        int width = (int) Math.round(Math.sqrt(data.length));
+        return new Kernel(width, width, data);
+    }
+
+    /**
+     * The original, object-per-pixel implementation of {@code AndieConvolveOp}, kept as a reference.
+     */
+    private static BufferedImage reference(Kernel kernel, boolean offset, BufferedImage src, int startX, int startY, int endX, int endY) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        boolean hasAlpha = src.getColorModel().hasAlpha();
+        int[] srcPixels = src.getRGB(0, 0, width, height, null, 0, width);
+        int[] dstPixels = new int[width*height];
+        float[] matrix = kernel.getKernelData(null);
+        int radius = kernel.getWidth() / 2;
+        int imgPos = 0;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (y < startY || y > endY || x < startX || x > endX) {
+                    dstPixels[imgPos] = srcPixels[imgPos];
+                    imgPos++;
+                    continue;
+                }
+                float a = 0, r = 0, g = 0, b = 0;
+                int matrixPos = 0;
+                for (int ky = -radius; ky <= radius; ky++) {
+                    for (int kx = -radius; kx <= radius; kx++) {
+                        int argbIndex;
+                        if (y + ky < 0) {
+                            if (x + kx < 0) argbIndex = imgPos;
+                            else if (x + kx >= width) argbIndex = width - 1;
+                            else argbIndex = imgPos + kx;
+                        } else if (y + ky >= height) {
+                            if (x + kx < 0) argbIndex = imgPos;
+                            else if (x + kx >= width) argbIndex = width * height - 1;
+                            else argbIndex = imgPos + kx;
+                        } else if (x + kx < 0 || x + kx >= width) argbIndex = imgPos + (ky * width);
+                        else argbIndex = imgPos + kx + (ky * width);
+
+                        Color srcColour = new Color(srcPixels[argbIndex], hasAlpha);
+                        if (hasAlpha) a += matrix[matrixPos] * (srcColour.getAlpha());
+                        r += matrix[matrixPos] * (srcColour.getRed());
+                        g += matrix[matrixPos] * (srcColour.getGreen());
+                        b += matrix[matrixPos] * (srcColour.getBlue());
+                        matrixPos++;
+                    }
+                }
+                int intr = Math.min(255, Math.max(0, Math.round(r) + (offset ? 127 : 0)));
+                int intg = Math.min(255, Math.max(0, Math.round(g) + (offset ? 127 : 0)));
+                int intb = Math.min(255, Math.max(0, Math.round(b) + (offset ? 127 : 0)));
+                Color dstColor;
+                if (hasAlpha) {
+                    int inta = Math.min(255, Math.max(0, Math.round(a) + (offset ? 127 : 0)));
+                    dstColor = new Color(intr, intg, intb, inta);
+                } else dstColor = new Color(intr, intg, intb);
+                dstPixels[imgPos] = dstColor.getRGB();
+                imgPos++;
+            }
+        }
+
+        BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+        dst.setRGB(0, 0, width, height, dstPixels, 0, width);
+        return dst;
+    }
+
+    private static BufferedImage filter(Kernel kernel, boolean offset, BufferedImage src, int startX, int startY, int endX, int endY) {
+        BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+        return new AndieConvolveOp(kernel, offset).filter(src, dst, startX, startY, endX, endY);
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        Assertions.assertEquals(expected.getWidth(), actual.getWidth());
+        Assertions.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "Pixel (" + x + ", " + y + ") differs.");
+            }
+        }
+    }
+
+    @Test
+    void wholeImageTest() {
+        for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB}) {
+            BufferedImage src = randomImage(37, 23, type, type);
+            for (float[] data : KERNELS) {
+                for (boolean offset : new boolean[] {false, true}) {
+                    Kernel k = kernel(data);
+                    assertSamePixels(reference(k, offset, src, 0, 0, src.getWidth(), src.getHeight()),
+                                        filter(k, offset, src, 0, 0, src.getWidth(), src.getHeight()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void selectionTest() {
+        BufferedImage src = randomImage(41, 29, BufferedImage.TYPE_INT_ARGB, 7);
+        int[][] selections = {{5, 3, 20, 17}, {0, 0, 40, 5}, {30, 20, 40, 28}, {2, 2, 2, 2}};
+        for (float[] data : KERNELS) {
+            for (int[] s : selections) {
+                Kernel k = kernel(data);
+                assertSamePixels(reference(k, false, src, s[0], s[1], s[2], s[3]), filter(k, false, src, s[0], s[1], s[2], s[3]));
+            }
+        }
+    }
+
+    @Test
+    void smallImageTest() {
+        // Images smaller than the kernel have no pixels where the kernel fits entirely inside them.
+        BufferedImage src = randomImage(3, 5, BufferedImage.TYPE_INT_ARGB, 3);
+        Kernel k = kernel(KERNELS[3]);
+        assertSamePixels(reference(k, false, src, 0, 0, 3, 5), filter(k, false, src, 0, 0, 3, 5));
+    }
+
+    /**
+     * A straightforward 2D convolution with the product of two 1D kernels, where pixels outside of the image take the value of the nearest edge pixel.
+     */
+    private static BufferedImage separableReference(float[] row, float[] column, BufferedImage src, int startX, int startY, int endX, int endY) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        boolean hasAlpha = src.getColorModel().hasAlpha();
+        BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+        for (int y = Math.max(startY, 0); y <= Math.min(endY, height - 1); y++) {
+            for (int x = Math.max(startX, 0); x <= Math.min(endX, width - 1); x++) {
+                double[] sum = new double[4];
+                for (int ky = 0; ky < column.length; ky++) {
+                    for (int kx = 0; kx < row.length; kx++) {
+                        int sx = Math.min(Math.max(x + kx - row.length / 2, 0), width - 1);
+                        int sy = Math.min(Math.max(y + ky - column.length / 2, 0), height - 1);
+                        int argb = src.getRGB(sx, sy);
+                        for (int c = 0; c < 4; c++) sum[c] += column[ky] * row[kx] * ((argb >>> (24 - 8 * c)) & 0xFF);
+                    }
+                }
+                int argb = 0;
+                for (int c = 0; c < 4; c++) argb |= Math.min(255, Math.max(0, (int) Math.round(sum[c]))) << (24 - 8 * c);
+                dst.setRGB(x, y, hasAlpha ? argb : argb | 0xFF000000);
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    void separableTest() {
+        float[] gaussian = {0.1f, 0.2f, 0.4f, 0.2f, 0.1f};
+        float[] box = {1/3.0f, 1/3.0f, 1/3.0f};
+        BufferedImage src = randomImage(31, 19, BufferedImage.TYPE_INT_ARGB, 5);
+        int[][] selections = {{0, 0, 31, 19}, {4, 6, 20, 12}, {28, 0, 40, 2}};
+        for (int[] s : selections) {
+            for (float[][] kernels : new float[][][] {{gaussian, gaussian}, {box, gaussian}, {gaussian, box}}) {
+                BufferedImage expected = separableReference(kernels[0], kernels[1], src, s[0], s[1], s[2], s[3]);
+                BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+                BufferedImage actual = new AndieConvolveOp(kernels[0], kernels[1]).filter(src, dst, s[0], s[1], s[2], s[3]);
+                for (int y = 0; y < src.getHeight(); y++) {
+                    for (int x = 0; x < src.getWidth(); x++) {
+                        // Summing in a different order can round differently, but never by more than one level
+                        for (int shift = 0; shift < 32; shift += 8) {
+                            int e = (expected.getRGB(x, y) >>> shift) & 0xFF;
+                            int a = (actual.getRGB(x, y) >>> shift) & 0xFF;
+                            Assertions.assertTrue(Math.abs(e - a) <= 1, "Pixel (" + x + ", " + y + ") differs.");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void separableEdgeTest() {
+        // Binomial kernels have weights that are fractions of a power of two, so the sums are exact in any order,
+        // and the separable convolution must match the clamped reference pixel for pixel, including along the edges
+        float[][] binomials = {
+            {1/4f, 2/4f, 1/4f},
+            {1/16f, 4/16f, 6/16f, 4/16f, 1/16f},
+            {1/64f, 6/64f, 15/64f, 20/64f, 15/64f, 6/64f, 1/64f}
+        };
+        for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB}) {
+            BufferedImage src = randomImage(17, 13, type, 9);
+            for (float[] row : binomials) {
+                for (float[] column : binomials) {
+                    BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+                    assertSamePixels(separableReference(row, column, src, 0, 0, 16, 12),
+                                        new AndieConvolveOp(row, column).filter(src, dst, 0, 0, 16, 12));
+                }
+            }
+        }
+
+        // Rows above the image take the top row, not the row being convolved as the 2D kernel does
+        BufferedImage src = new BufferedImage(3, 4, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 3; x++) {
+            src.setRGB(x, 1, 0xFFFFFF);
+            src.setRGB(x, 2, 0xFFFFFF);
+            src.setRGB(x, 3, 0xFFFFFF);
+        }
+        float[] none = {1};
+        float[] box = {1/4f, 1/4f, 0, 1/4f, 1/4f};
+        BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+        BufferedImage separable = new AndieConvolveOp(none, box).filter(src, dst, 0, 0, 2, 3);
+        Assertions.assertEquals(0xFF808080, separable.getRGB(1, 1), "The row above the image should be the top row.");
+        float[] box2D = new float[25];
+        for (int y = 0; y < 5; y++) box2D[y * 5 + 2] = box[y];
+        BufferedImage reference = reference(kernel(box2D), false, src, 0, 0, 2, 3);
+        Assertions.assertEquals(0xFFBFBFBF, reference.getRGB(1, 1), "The 2D kernel should reuse the row being convolved.");
+    }
+
+    @Test
+    void regionTest() {
+        BufferedImage src = randomImage(53, 41, BufferedImage.TYPE_INT_ARGB, 6);
+        Rectangle[] regions = {new Rectangle(0, 0, 53, 41), new Rectangle(10, 12, 20, 9), new Rectangle(0, 30, 7, 11), new Rectangle(50, 0, 3, 3)};
+        for (Rectangle r : regions) {
+            for (float[] data : KERNELS) {
+                AndieConvolveOp op = new AndieConvolveOp(kernel(data));
+                BufferedImage dst = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+                BufferedImage expected = op.filter(src, dst, r.x, r.y, r.x + r.width - 1, r.y + r.height - 1);
+                BufferedImage image = new BufferedImage(src.getColorModel(), src.copyData(null), src.isAlphaPremultiplied(), null);
+                BufferedImage actual = op.filter(image, r);
+                Assertions.assertSame(image, actual);
+                for (int y = 0; y < src.getHeight(); y++) {
+                    for (int x = 0; x < src.getWidth(); x++) {
+                        Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "Pixel (" + x + ", " + y + ") differs.");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the running time of the reference implementation against {@code AndieConvolveOp}.
+     * Run with a larger image size for more reliable numbers.
+     * This is left out of the usual tests, and only runs with {@code -Dandie.benchmark=true}.
+     */
+    @Test
+    @Tag("benchmark")
+    @EnabledIfSystemProperty(named = "andie.benchmark", matches = "true")
+    void benchmark() {
+        BufferedImage src = randomImage(512, 512, BufferedImage.TYPE_INT_ARGB, 11);
+        Kernel k = kernel(gaussian(5));
+
+        // Warm up both implementations first
+        for (int i = 0; i < 3; i++) {
+            reference(k, false, src, 0, 0, 512, 512);
+            filter(k, false, src, 0, 0, 512, 512);
+        }
+
+        long start = System.nanoTime();
+        BufferedImage expected = reference(k, false, src, 0, 0, 512, 512);
+        long referenceTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        BufferedImage actual = filter(k, false, src, 0, 0, 512, 512);
+        long filterTime = System.nanoTime() - start;
+
+        assertSamePixels(expected, actual);
+        System.out.printf("AndieConvolveOp 11x11 on 512x512: reference %d ms, current %d ms (%.1fx)%n",
+                            referenceTime / 1_000_000, filterTime / 1_000_000, (double) referenceTime / Math.max(1, filterTime));
+    }
+}
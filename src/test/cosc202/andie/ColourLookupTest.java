@@ -0,0 +1,103 @@
+package test.cosc202.andie;
+
+import cosc202.andie.ColourLookup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+
+public class ColourLookupTest {
+
+    private static ColourLookup randomTables(Random random) {
+        int[][] tables = new int[3][256];
+        for (int[] table : tables) {
+            for (int v = 0; v < 256; v++) table[v] = random.nextInt(256);
+        }
+        return ColourLookup.perChannel(tables[0], tables[1], tables[2]);
+    }
+
+    private static ColourLookup grey() {
+        double[] r = new double[256], g = new double[256], b = new double[256];
+        for (int v = 0; v < 256; v++) {
+            r[v] = 0.3*v;
+            g[v] = 0.6*v;
+            b[v] = 0.1*v;
+        }
+        return ColourLookup.mixed(r, g, b);
+    }
+
+    @Test
+    void greyTest() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            int argb = random.nextInt();
+            int grey = (int) Math.round(0.3*((argb >> 16) & 0xFF) + 0.6*((argb >> 8) & 0xFF) + 0.1*(argb & 0xFF));
+            Assertions.assertEquals((argb & 0xFF000000) | grey << 16 | grey << 8 | grey, grey().apply(argb));
+        }
+    }
+
+    @Test
+    void combineTest() {
+        Random random = new Random(2);
+        // Every order of per-channel and mixed lookups
+        for (int order = 0; order < 8; order++) {
+            ColourLookup[] lookups = new ColourLookup[3];
+            for (int i = 0; i < 3; i++) lookups[i] = (order >> i & 1) == 1 ? grey() : randomTables(random);
+            ColourLookup combined = lookups[0].then(lookups[1]).then(lookups[2]);
+            for (int i = 0; i < 10000; i++) {
+                int argb = random.nextInt();
+                int expected = lookups[2].apply(lookups[1].apply(lookups[0].apply(argb)));
+                Assertions.assertEquals(expected, combined.apply(argb));
+            }
+        }
+    }
+
+    @Test
+    void applyToCopyTest() {
+        Random random = new Random(3);
+        ColourLookup lookup = randomTables(random);
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 300; x++) image.setRGB(x, y, random.nextInt());
+        }
+        int[] before = image.getRGB(0, 0, 300, 200, null, 0, 300);
+        Rectangle region = new Rectangle(70, 40, 150, 90);
+
+        BufferedImage copy = lookup.applyToCopy(image, region);
+        Assertions.assertNotSame(image, copy);
+        Assertions.assertArrayEquals(before, image.getRGB(0, 0, 300, 200, null, 0, 300), "The image should not be changed");
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 300; x++) {
+                int expected = region.contains(x, y) ? lookup.apply(before[y * 300 + x]) : before[y * 300 + x];
+                Assertions.assertEquals(expected, copy.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void inverseTest() {
+        Random random = new Random(4);
+        int[][] tables = new int[3][256];
+        for (int[] table : tables) {
+            for (int v = 0; v < 256; v++) table[v] = v;
+            for (int v = 255; v > 0; v--) {
+                int swap = random.nextInt(v + 1), value = table[v];
+                table[v] = table[swap];
+                table[swap] = value;
+            }
+        }
+        ColourLookup lookup = ColourLookup.perChannel(tables[0], tables[1], tables[2]);
+        ColourLookup inverse = lookup.inverse();
+        Assertions.assertNotNull(inverse);
+        for (int i = 0; i < 10000; i++) {
+            int argb = random.nextInt();
+            Assertions.assertEquals(argb, inverse.apply(lookup.apply(argb)));
+        }
+
+        tables[1][0] = tables[1][1];
+        Assertions.assertNull(ColourLookup.perChannel(tables[0], tables[1], tables[2]).inverse());
+        Assertions.assertNull(grey().inverse());
+    }
+}
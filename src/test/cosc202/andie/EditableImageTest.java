@@ -1,11 +1,27 @@
 package test.cosc202.andie;
 
 import cosc202.andie.EditableImage;
+import cosc202.andie.ImageOperation;
+import cosc202.andie.MeanFilter;
+import cosc202.andie.SharpenFilter;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
 public class EditableImageTest {
 
+    @TempDir
+    Path folder;
+
     @Test
     void dummyTest(){}
     
@@ -32,4 +48,88 @@ public class EditableImageTest {
         Assertions.assertFalse(e.hasLocalImage(), "The EditableImage should not have a localised image.");
     }
 
+    @Test
+    void dirtyRegionTest() {
+        // A filter over part of the image that reads two pixels around each pixel
+        ImageOperation op = new ImageOperation() {
+            public BufferedImage apply(BufferedImage input) { return input; }
+            public Rectangle getRegion(BufferedImage input) { return new Rectangle(10, 10, 20, 20); }
+            public int getHalo() { return 2; }
+        };
+        BufferedImage image = new BufferedImage(50, 50, BufferedImage.TYPE_INT_ARGB);
+        Assertions.assertEquals(new Rectangle(13, 13, 9, 9), op.mapDirtyRegion(image, new Rectangle(15, 15, 5, 5)), "A change inside the region should spread by the halo.");
+        Assertions.assertEquals(new Rectangle(8, 8, 8, 6), op.mapDirtyRegion(image, new Rectangle(8, 8, 6, 4)), "A change should only spread within the region.");
+        Assertions.assertEquals(new Rectangle(40, 40, 5, 5), op.mapDirtyRegion(image, new Rectangle(40, 40, 5, 5)), "A change outside the region should not spread.");
+    }
+
+    private static BufferedImage randomImage(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, random.nextInt() | 0xFF000000);
+        }
+        return img;
+    }
+
+    /**
+     * Write an image, and operations saved from a copy of it that was {@code factor} times smaller, and open them.
+     */
+    private EditableImage open(BufferedImage image, int factor, ImageOperation... ops) throws IOException {
+        File file = folder.resolve("image.png").toFile();
+        ImageIO.write(image, "png", file);
+        Stack<ImageOperation> stack = new Stack<ImageOperation>();
+        stack.addAll(Arrays.asList(ops));
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file.getPath() + "." + EditableImage.getOpsExtension()))) {
+            out.writeObject(stack);
+            out.writeObject(Integer.valueOf(factor));
+        }
+        EditableImage e = new EditableImage();
+        e.open(file.getPath());
+        return e;
+    }
+
+    @Test
+    void scaledOpsTest() throws Exception {
+        // A blur saved from a copy half the size is doubled, selection and all
+        BufferedImage src = randomImage(24, 18);
+        EditableImage e = open(src, 2, Operations.make(MeanFilter.class, 1, new Point(2, 2), new Point(8, 6)));
+        Assertions.assertFalse(e.isOverview(), "A small image should be opened directly.");
+        BufferedImage expected = Operations.make(MeanFilter.class, 2, new Point(4, 4), new Point(16, 12)).apply(src);
+        BufferedImage actual = e.getCurrentImage();
+        for (int y = 0; y < 18; y++) {
+            for (int x = 0; x < 24; x++) Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "Pixel (" + x + ", " + y + ") differs.");
+        }
+    }
+
+    @Test
+    void unscaledOpsTest() throws Exception {
+        // A sharpen over a selection cannot be scaled, so the image is opened at the size it was sharpened at
+        BufferedImage src = randomImage(24, 18);
+        ImageOperation sharpen = Operations.make(SharpenFilter.class, new Point(1, 1), new Point(5, 4));
+        EditableImage e = open(src, 3, sharpen);
+        Assertions.assertTrue(e.isOverview(), "The image should be opened as the smaller copy the operations were saved from.");
+        Assertions.assertEquals(3, e.getOverviewFactor(), "The copy should be the size the operations were saved from.");
+        BufferedImage overview = new BufferedImage(8, 6, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 8; x++) overview.setRGB(x, y, src.getRGB(x * 3, y * 3));
+        }
+        BufferedImage expected = sharpen.apply(overview);
+        BufferedImage actual = e.getCurrentImage();
+        Assertions.assertEquals(8, actual.getWidth(), "The width of the copy differs.");
+        Assertions.assertEquals(6, actual.getHeight(), "The height of the copy differs.");
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 8; x++) Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "Pixel (" + x + ", " + y + ") differs.");
+        }
+    }
+
+    @Test
+    void savedFactorTest() throws Exception {
+        EditableImage e = open(randomImage(24, 18), 1);
+        Assertions.assertTrue(e.save(), "The image should be saved.");
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(folder.resolve("image.png." + EditableImage.getOpsExtension()).toFile()))) {
+            Assertions.assertTrue(in.readObject() instanceof Stack, "The operations should be written first.");
+            Assertions.assertEquals(Integer.valueOf(1), in.readObject(), "The overview factor should be written after the operations.");
+        }
+    }
+
 }
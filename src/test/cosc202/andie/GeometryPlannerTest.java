@@ -0,0 +1,175 @@
+package test.cosc202.andie;
+
+import cosc202.andie.*;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the runs of rotations, flips and resizes that are composed when an image's operations are replayed.
+ */
+public class GeometryPlannerTest {
+
+    @TempDir
+    Path folder;
+
+    private static BufferedImage randomImage(int width, int height, long seed) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, random.nextInt());
+        }
+        return img;
+    }
+
+    /**
+     * Open an image with a stack of operations saved alongside it, so the whole stack is replayed.
+     */
+    private EditableImage open(BufferedImage image, ImageOperation... ops) throws IOException {
+        File file = folder.resolve("image.png").toFile();
+        ImageIO.write(image, "png", file);
+        Stack<ImageOperation> stack = new Stack<ImageOperation>();
+        stack.addAll(Arrays.asList(ops));
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file.getPath() + "." + EditableImage.getOpsExtension()))) {
+            out.writeObject(stack);
+        }
+        EditableImage e = new EditableImage();
+        e.open(file.getPath());
+        return e;
+    }
+
+    private static BufferedImage flipHorizontal(BufferedImage src) {
+        BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) dst.setRGB(src.getWidth() - 1 - x, y, src.getRGB(x, y));
+        }
+        return dst;
+    }
+
+    private static BufferedImage flipVertical(BufferedImage src) {
+        BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) dst.setRGB(x, src.getHeight() - 1 - y, src.getRGB(x, y));
+        }
+        return dst;
+    }
+
+    /** Rotate a quarter turn clockwise. */
+    private static BufferedImage rotateClockwise(BufferedImage src) {
+        BufferedImage dst = new BufferedImage(src.getHeight(), src.getWidth(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) dst.setRGB(src.getHeight() - 1 - y, x, src.getRGB(x, y));
+        }
+        return dst;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual, String message) {
+        Assertions.assertEquals(expected.getWidth(), actual.getWidth(), message + " The width differs.");
+        Assertions.assertEquals(expected.getHeight(), actual.getHeight(), message + " The height differs.");
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), message + " Pixel (" + x + ", " + y + ") differs.");
+            }
+        }
+    }
+
+    private static ImageOperation rotate(int degrees) {
+        return Operations.make(RotateImage.class, degrees);
+    }
+
+    private static ImageOperation flip(String direction) {
+        return Operations.make(FlipImage.class, direction);
+    }
+
+    private static ImageOperation resize(int percentage) {
+        return Operations.make(ResizeImage.class, percentage);
+    }
+
+    @Test
+    void flipTest() throws Exception {
+        BufferedImage src = randomImage(9, 7, 1);
+        assertSamePixels(flipHorizontal(src), open(src, flip("horizontal")).getCurrentImage(), "Horizontal flip.");
+        assertSamePixels(flipVertical(src), open(src, flip("vertical")).getCurrentImage(), "Vertical flip.");
+        // Translucent pixels keep their exact colour through a run of flips
+        assertSamePixels(flipVertical(flipHorizontal(src)), open(src, flip("horizontal"), flip("vertical")).getCurrentImage(), "Both flips.");
+        assertSamePixels(src, open(src, flip("vertical"), flip("vertical")).getCurrentImage(), "Flipping twice.");
+    }
+
+    @Test
+    void quarterTurnTest() throws Exception {
+        BufferedImage src = randomImage(9, 7, 2);
+        BufferedImage once = rotateClockwise(src);
+        BufferedImage twice = rotateClockwise(once);
+        BufferedImage thrice = rotateClockwise(twice);
+        assertSamePixels(once, open(src, rotate(90)).getCurrentImage(), "A quarter turn.");
+        assertSamePixels(twice, open(src, rotate(90), rotate(90)).getCurrentImage(), "Two quarter turns.");
+        assertSamePixels(twice, open(src, rotate(180)).getCurrentImage(), "A half turn.");
+        assertSamePixels(twice, open(src, flip("horizontal"), flip("vertical")).getCurrentImage(), "Both flips.");
+        assertSamePixels(thrice, open(src, rotate(-90)).getCurrentImage(), "A quarter turn back.");
+        assertSamePixels(src, open(src, rotate(90), rotate(-90)).getCurrentImage(), "A quarter turn and back.");
+        assertSamePixels(flipHorizontal(once), open(src, rotate(90), flip("horizontal")).getCurrentImage(), "A quarter turn and a flip.");
+        assertSamePixels(flipVertical(once), open(src, flip("horizontal"), rotate(90)).getCurrentImage(), "A flip and a quarter turn.");
+    }
+
+    @Test
+    void rotatedSizeTest() throws Exception {
+        BufferedImage src = randomImage(40, 25, 3);
+        // A run of rotations is the size of the original rotated by all of them at once
+        int[][] runs = {{30}, {30, 15}, {10, 20, 60}, {45, -45}, {200}, {-30, 90}};
+        for (int[] run : runs) {
+            ImageOperation[] ops = new ImageOperation[run.length];
+            int total = 0;
+            for (int i = 0; i < run.length; i++) {
+                ops[i] = rotate(run[i]);
+                total += run[i];
+            }
+            BufferedImage expected = rotate(total).apply(src);
+            BufferedImage actual = open(src, ops).getCurrentImage();
+            Assertions.assertEquals(expected.getWidth(), actual.getWidth(), "The width after " + Arrays.toString(run) + " differs.");
+            Assertions.assertEquals(expected.getHeight(), actual.getHeight(), "The height after " + Arrays.toString(run) + " differs.");
+        }
+    }
+
+    @Test
+    void resizeTest() throws Exception {
+        BufferedImage src = randomImage(40, 25, 4);
+        BufferedImage expected = resize(150).apply(src);
+        BufferedImage actual = open(src, resize(150)).getCurrentImage();
+        Assertions.assertEquals(expected.getWidth(), actual.getWidth(), "The width after a resize differs.");
+        Assertions.assertEquals(expected.getHeight(), actual.getHeight(), "The height after a resize differs.");
+
+        // Resizes in a run multiply, and apply to the rotated image
+        actual = open(src, resize(200), rotate(90), resize(50)).getCurrentImage();
+        Assertions.assertEquals(25, actual.getWidth(), "The width after resizes and a quarter turn differs.");
+        Assertions.assertEquals(40, actual.getHeight(), "The height after resizes and a quarter turn differs.");
+
+        // Doubling an image with a flat colour keeps it flat
+        BufferedImage flat = new BufferedImage(6, 4, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 6; x++) flat.setRGB(x, y, 0xFF336699);
+        }
+        actual = open(flat, resize(200), flip("horizontal")).getCurrentImage();
+        Assertions.assertEquals(12, actual.getWidth(), "The width after doubling differs.");
+        Assertions.assertEquals(8, actual.getHeight(), "The height after doubling differs.");
+        for (int y = 1; y < 7; y++) {
+            for (int x = 1; x < 11; x++) Assertions.assertEquals(0xFF336699, actual.getRGB(x, y), "Pixel (" + x + ", " + y + ") differs.");
+        }
+    }
+
+    @Test
+    void cropThenRotateTest() throws Exception {
+        // The rotated original does not fit in a cropped image, so the stack cannot be replayed, and the image is left as it was opened
+        BufferedImage src = randomImage(20, 16, 5);
+        ImageOperation crop = Operations.make(CropImage.class, new Point(2, 3), new Point(12, 9));
+        EditableImage e = open(src, crop, rotate(90));
+        assertSamePixels(src, e.getCurrentImage(), "A crop then a rotation.");
+    }
+}
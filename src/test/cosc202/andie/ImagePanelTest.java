@@ -30,11 +30,17 @@ public class ImagePanelTest {
     @Test
     void setZoomTest() {
         ImagePanel p = new ImagePanel();
+        p.setZoom(0.5);
+        Assertions.assertEquals(1, p.getZoom(), 1e-10);
+
+        p.setZoom(5000);
+        Assertions.assertEquals(3200, p.getZoom(), 1e-10);
+
         p.setZoom(25);
-        Assertions.assertEquals(50, p.getZoom(), 1e-10);
+        Assertions.assertEquals(25, p.getZoom(), 1e-10);
 
         p.setZoom(500);
-        Assertions.assertEquals(200, p.getZoom(), 1e-10);
+        Assertions.assertEquals(500, p.getZoom(), 1e-10);
 
         p.setZoom(107);
         Assertions.assertEquals(107, p.getZoom(), 1e-10);
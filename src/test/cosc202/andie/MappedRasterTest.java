@@ -0,0 +1,52 @@
+package test.cosc202.andie;
+
+import cosc202.andie.MappedRaster;
+import cosc202.andie.TiledImage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+
+public class MappedRasterTest {
+
+    private static BufferedImage randomImage(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) image.setRGB(x, y, random.nextInt());
+        }
+        return image;
+    }
+
+    @Test
+    void toImageTest() throws Exception {
+        BufferedImage image = randomImage(300, 200, 1);
+        MappedRaster raster = new MappedRaster(image);
+        BufferedImage copy = raster.toImage();
+        raster.dispose();
+        Assertions.assertEquals(300, copy.getWidth());
+        Assertions.assertEquals(200, copy.getHeight());
+        Assertions.assertTrue(copy.getColorModel().hasAlpha());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                Assertions.assertEquals(image.getRGB(x, y), copy.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void tiledTest() throws Exception {
+        BufferedImage image = randomImage(1100, 700, 2);
+        MappedRaster raster = new MappedRaster(image);
+        BufferedImage region = TiledImage.wrap(raster).read(new Rectangle(500, 300, 600, 400));
+        for (int y = 0; y < region.getHeight(); y++) {
+            for (int x = 0; x < region.getWidth(); x++) {
+                Assertions.assertEquals(image.getRGB(500 + x, 300 + y), region.getRGB(x, y));
+            }
+        }
+        raster.dispose();
+        Assertions.assertThrows(IllegalStateException.class, () -> raster.toImage());
+    }
+}
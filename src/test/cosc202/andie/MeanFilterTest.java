@@ -0,0 +1,106 @@
+package test.cosc202.andie;
+
+import cosc202.andie.ImageOperation;
+import cosc202.andie.MeanFilter;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+
+public class MeanFilterTest {
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, random.nextInt());
+        }
+        return img;
+    }
+
+    private static BufferedImage copy(BufferedImage img) {
+        return new BufferedImage(img.getColorModel(), img.copyData(null), img.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * The mean of the square around each pixel within the selection (inclusive), rounded half up,
+     * where pixels outside of the image take the value of the nearest pixel on its edge.
+     */
+    private static BufferedImage reference(BufferedImage src, int radius, int x1, int y1, int x2, int y2) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        boolean hasAlpha = src.getColorModel().hasAlpha();
+        int area = (2*radius+1) * (2*radius+1);
+        BufferedImage dst = copy(src);
+        for (int y = Math.max(y1, 0); y <= Math.min(y2, height - 1); y++) {
+            for (int x = Math.max(x1, 0); x <= Math.min(x2, width - 1); x++) {
+                int[] sum = new int[4];
+                for (int ky = -radius; ky <= radius; ky++) {
+                    for (int kx = -radius; kx <= radius; kx++) {
+                        int argb = src.getRGB(Math.min(Math.max(x + kx, 0), width - 1), Math.min(Math.max(y + ky, 0), height - 1));
+                        for (int c = 0; c < 4; c++) sum[c] += (argb >>> (24 - 8 * c)) & 0xFF;
+                    }
+                }
+                int argb = 0;
+                for (int c = 0; c < 4; c++) argb |= ((sum[c] + area / 2) / area) << (24 - 8 * c);
+                dst.setRGB(x, y, hasAlpha ? argb : argb | 0xFF000000);
+            }
+        }
+        return dst;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual, String message) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), message + " Pixel (" + x + ", " + y + ") differs.");
+            }
+        }
+    }
+
+    @Test
+    void wholeImageTest() throws Exception {
+        for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB}) {
+            BufferedImage src = randomImage(23, 17, type, type);
+            for (int radius = 1; radius <= 5; radius++) {
+                ImageOperation op = Operations.make(MeanFilter.class, radius);
+                assertSamePixels(reference(src, radius, 0, 0, 22, 16), op.apply(copy(src)), "Radius " + radius + ".");
+            }
+        }
+    }
+
+    @Test
+    void edgeTest() throws Exception {
+        // Rows above the image repeat the top row, rather than the row being blurred
+        BufferedImage src = new BufferedImage(9, 9, BufferedImage.TYPE_INT_RGB);
+        for (int y = 1; y < 9; y++) {
+            for (int x = 0; x < 9; x++) src.setRGB(x, y, 0xFFFFFF);
+        }
+        BufferedImage result = Operations.make(MeanFilter.class, 3).apply(copy(src));
+        // Four of the seven rows around (4, 1) are white: rows 1 to 4, with rows -2 to 0 all taking the black top row
+        Assertions.assertEquals(0xFF929292, result.getRGB(4, 1), "The rows above the image should take the top row.");
+        Assertions.assertEquals(0xFF6D6D6D, result.getRGB(4, 0), "The rows above the image should take the top row.");
+    }
+
+    @Test
+    void selectionTest() throws Exception {
+        BufferedImage src = randomImage(29, 21, BufferedImage.TYPE_INT_ARGB, 4);
+        // A selection in the middle, then ones touching the left, top, right and bottom edges, and the whole image
+        int[][] selections = {{8, 6, 19, 14}, {0, 5, 9, 12}, {6, 0, 20, 7}, {18, 4, 28, 15}, {3, 13, 25, 20}, {0, 0, 28, 20}};
+        for (int[] s : selections) {
+            for (int radius = 1; radius <= 5; radius++) {
+                ImageOperation op = Operations.make(MeanFilter.class, radius, new Point(s[0], s[1]), new Point(s[2], s[3]));
+                assertSamePixels(reference(src, radius, s[0], s[1], s[2], s[3]), op.apply(copy(src)),
+                                    "Radius " + radius + " over (" + s[0] + ", " + s[1] + ") - (" + s[2] + ", " + s[3] + ").");
+            }
+        }
+    }
+
+    @Test
+    void smallImageTest() throws Exception {
+        // The square is larger than the whole image
+        BufferedImage src = randomImage(4, 3, BufferedImage.TYPE_INT_ARGB, 2);
+        assertSamePixels(reference(src, 5, 0, 0, 3, 2), Operations.make(MeanFilter.class, 5).apply(copy(src)), "Radius 5.");
+    }
+}
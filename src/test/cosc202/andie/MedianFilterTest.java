@@ -0,0 +1,113 @@
+package test.cosc202.andie;
+
+import cosc202.andie.ImageOperation;
+import cosc202.andie.MedianFilter;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+
+public class MedianFilterTest {
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, random.nextInt());
+        }
+        return img;
+    }
+
+    private static BufferedImage copy(BufferedImage img) {
+        return new BufferedImage(img.getColorModel(), img.copyData(null), img.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * The median of each channel (alpha included) over the square around each pixel in the selection (not including
+     * x2 and y2), where pixels outside of the image take the value of the nearest pixel on its edge.
+     */
+    private static BufferedImage reference(BufferedImage src, int radius, int x1, int y1, int x2, int y2) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        boolean hasAlpha = src.getColorModel().hasAlpha();
+        int size = (2*radius+1) * (2*radius+1);
+        BufferedImage dst = copy(src);
+        int[][] channels = new int[4][size];
+        for (int y = Math.max(y1, 0); y < Math.min(y2, height); y++) {
+            for (int x = Math.max(x1, 0); x < Math.min(x2, width); x++) {
+                int i = 0;
+                for (int ky = -radius; ky <= radius; ky++) {
+                    for (int kx = -radius; kx <= radius; kx++) {
+                        int argb = src.getRGB(Math.min(Math.max(x + kx, 0), width - 1), Math.min(Math.max(y + ky, 0), height - 1));
+                        for (int c = 0; c < 4; c++) channels[c][i] = (argb >>> (24 - 8 * c)) & 0xFF;
+                        i++;
+                    }
+                }
+                int argb = 0;
+                for (int c = 0; c < 4; c++) {
+                    Arrays.sort(channels[c]);
+                    argb |= channels[c][size / 2] << (24 - 8 * c);
+                }
+                dst.setRGB(x, y, hasAlpha ? argb : argb | 0xFF000000);
+            }
+        }
+        return dst;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual, String message) {
+        Assertions.assertEquals(expected.getWidth(), actual.getWidth());
+        Assertions.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assertions.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), message + " Pixel (" + x + ", " + y + ") differs.");
+            }
+        }
+    }
+
+    @Test
+    void wholeImageTest() throws Exception {
+        for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB}) {
+            BufferedImage src = randomImage(24, 19, type, type);
+            for (int radius = 1; radius <= 5; radius++) {
+                ImageOperation op = Operations.make(MedianFilter.class, radius);
+                assertSamePixels(reference(src, radius, 0, 0, 24, 19), op.apply(copy(src)), "Radius " + radius + ".");
+            }
+        }
+    }
+
+    @Test
+    void selectionTest() throws Exception {
+        // A selection in the middle, then ones touching the left, top, right and bottom edges, and the whole image
+        int[][] selections = {{7, 5, 18, 13}, {0, 4, 9, 14}, {5, 0, 20, 8}, {15, 3, 27, 16}, {2, 12, 25, 21}, {0, 0, 27, 21}};
+        for (int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB}) {
+            BufferedImage src = randomImage(27, 21, type, 11 + type);
+            for (int[] s : selections) {
+                for (int radius = 1; radius <= 5; radius++) {
+                    ImageOperation op = Operations.make(MedianFilter.class, radius, new Point(s[0], s[1]), new Point(s[2], s[3]));
+                    assertSamePixels(reference(src, radius, s[0], s[1], s[2], s[3]), op.apply(copy(src)),
+                                        "Radius " + radius + " over (" + s[0] + ", " + s[1] + ") - (" + s[2] + ", " + s[3] + ").");
+                }
+            }
+        }
+    }
+
+    @Test
+    void alphaTest() throws Exception {
+        // Alpha values of 128 and above are negative as signed bytes, but should still be ordered above the rest
+        BufferedImage src = new BufferedImage(3, 3, BufferedImage.TYPE_INT_ARGB);
+        int[] alphas = {0x10, 0x20, 0x30, 0x40, 0x90, 0xA0, 0xB0, 0xC0, 0xF0};
+        for (int i = 0; i < 9; i++) src.setRGB(i % 3, i / 3, alphas[i] << 24);
+        BufferedImage result = Operations.make(MedianFilter.class, 1).apply(copy(src));
+        Assertions.assertEquals(0x90, result.getRGB(1, 1) >>> 24, "The median alpha should be the middle one.");
+    }
+
+    @Test
+    void smallImageTest() throws Exception {
+        // The square is larger than the whole image
+        BufferedImage src = randomImage(4, 3, BufferedImage.TYPE_INT_ARGB, 2);
+        assertSamePixels(reference(src, 5, 0, 0, 4, 3), Operations.make(MedianFilter.class, 5).apply(copy(src)), "Radius 5.");
+    }
+}
@@ -0,0 +1,79 @@
+package test.cosc202.andie;
+
+import cosc202.andie.ImageOperation;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+public class OperationFileTest {
+
+    /**
+     * An operation file written by ANDIE before operations declared their serialVersionUID, with one of each operation:
+     * greyscale, brightness/contrast, Gaussian blur, sharpen, emboss, Sobel, mean, median, flip, rotate, resize, crop,
+     * a brush stroke and a shape.
+     */
+    private static final String BASELINE_OPS =
+        "rO0ABXNyAA9qYXZhLnV0aWwuU3RhY2sQ/irCuwmGHQIAAHhyABBqYXZhLnV0aWwuVmVjdG9y2Zd9W4A7rwEDAANJABFjYXBhY2l0" +
+        "eUluY3JlbWVudEkADGVsZW1lbnRDb3VudFsAC2VsZW1lbnREYXRhdAATW0xqYXZhL2xhbmcvT2JqZWN0O3hwAAAAAAAAAA51cgAT" +
+        "W0xqYXZhLmxhbmcuT2JqZWN0O5DOWJ8QcylsAgAAeHAAAAAUc3IAG2Nvc2MyMDIuYW5kaWUuQ29udmVydFRvR3Jlee9Urur2XL+w" +
+        "AgAESQACeDFJAAJ4MkkAAnkxSQACeTJ4cAAAAAAAAAAAAAAAAP////9zcgAqY29zYzIwMi5hbmRpZS5CcmlnaHRuZXNzQ29udHJh" +
+        "c3RBZGp1c3RtZW50HyTeeiB8l4ECAAZJAApicmlnaHRuZXNzSQAIY29udHJhc3RJAAJ4MUkAAngySQACeTFJAAJ5MnhwAAAACv//" +
+        "//sAAAAAAAAAAAAAAAD/////c3IAIGNvc2MyMDIuYW5kaWUuR2F1c3NpYW5CbHVyRmlsdGVyAQcSefCKyRcCAAVJAAZyYWRpdXNJ" +
+        "AAJ4MUkAAngySQACeTFJAAJ5MnhwAAAAAwAAAAAAAAAAAAAAAP////9zcgAbY29zYzIwMi5hbmRpZS5TaGFycGVuRmlsdGVyfqsW" +
+        "rKenf7sCAARJAAJ4MUkAAngySQACeTFJAAJ5MnhwAAAAAAAAAAAAAAAA/////3NyABpjb3NjMjAyLmFuZGllLkVtYm9zc0ZpbHRl" +
+        "cjuWiusXfQl7AgANSQAJZGlyZWN0aW9uSQACeDFJAAJ4MkkAAnkxSQACeTJbAARlYXN0dAACW0ZbAAVub3J0aHEAfgAPWwAJbm9y" +
+        "dGhFYXN0cQB+AA9bAAlub3J0aFdlc3RxAH4AD1sABXNvdXRocQB+AA9bAAlzb3V0aEVhc3RxAH4AD1sACXNvdXRoV2VzdHEAfgAP" +
+        "WwAEd2VzdHEAfgAPeHAAAAACAAAAAAAAAAAAAAAA/////3VyAAJbRgucgYki4AxCAgAAeHAAAAAJAAAAAAAAAAAAAAAAv4AAAAAA" +
+        "AAA/gAAAAAAAAAAAAAAAAAAAdXEAfgARAAAACQAAAAA/gAAAAAAAAAAAAAAAAAAAAAAAAAAAAAC/gAAAAAAAAHVxAH4AEQAAAAkA" +
+        "AAAAAAAAAD+AAAAAAAAAAAAAAAAAAAC/gAAAAAAAAAAAAAB1cQB+ABEAAAAJP4AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA" +
+        "AAC/gAAAdXEAfgARAAAACQAAAAC/gAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA/gAAAAAAAAHVxAH4AEQAAAAm/gAAAAAAAAAAAAAAA" +
+        "AAAAAAAAAAAAAAAAAAAAAAAAAD+AAAB1cQB+ABEAAAAJAAAAAAAAAAC/gAAAAAAAAAAAAAAAAAAAP4AAAAAAAAAAAAAAdXEAfgAR" +
+        "AAAACQAAAAAAAAAAAAAAAD+AAAAAAAAAv4AAAAAAAAAAAAAAAAAAAHNyABljb3NjMjAyLmFuZGllLlNvYmVsRmlsdGVyv+R5PAEg" +
+        "1+ACAAdJAAlkaXJlY3Rpb25JAAJ4MUkAAngySQACeTFJAAJ5MlsACmhvcml6b250YWxxAH4AD1sACHZlcnRpY2FscQB+AA94cAAA" +
+        "AAEAAAAAAAAAAAAAAAD/////dXEAfgARAAAACQAAAAAAAAAAAAAAAL+AAAAAAAAAP4AAAAAAAAAAAAAAAAAAAHVxAH4AEQAAAAkA" +
+        "AAAAv4AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAP4AAAAAAAABzcgAYY29zYzIwMi5hbmRpZS5NZWFuRmlsdGVybgyoP0MPxv0CAAVJ" +
+        "AAZyYWRpdXNJAAJ4MUkAAngySQACeTFJAAJ5MnhwAAAAAgAAAAAAAAAAAAAAAP////9zcgAaY29zYzIwMi5hbmRpZS5NZWRpYW5G" +
+        "aWx0ZXIEb9VscqCBrAIABUkABnJhZGl1c0kAAngxSQACeDJJAAJ5MUkAAnkyeHAAAAAB/////////////////////3NyABdjb3Nj" +
+        "MjAyLmFuZGllLkZsaXBJbWFnZWHwGwii9Ts+AgACWgAIb3Bwb3NpdGVMAAlkaXJlY3Rpb250ABJMamF2YS9sYW5nL1N0cmluZzt4" +
+        "cAB0AApob3Jpem9udGFsc3IAGWNvc2MyMDIuYW5kaWUuUm90YXRlSW1hZ2WC8iPS/3L/hAIAAUkACHJvdGF0aW9ueHAAAABac3IA" +
+        "GWNvc2MyMDIuYW5kaWUuUmVzaXplSW1hZ2UHZ6VlO47erwIAAUkAFnNpemVQZXJjZW50YWdlSW5jcmVhc2V4cAAAAJZzcgAXY29z" +
+        "YzIwMi5hbmRpZS5Dcm9wSW1hZ2XwKSTqCtDuAQIABEkAAngxSQACeDJJAAJ5MUkAAnkyeHAAAAABAAAAHgAAAAIAAAAoc3IAHGNv" +
+        "c2MyMDIuYW5kaWUuZHJhdy5EcmF3QnJ1c2i+sUtHmdNvagIABEkACnN0cm9rZVNpemVMAARmaWxsdAAQTGphdmEvYXd0L0NvbG9y" +
+        "O1sAAXh0AAJbSVsAAXlxAH4ALnhwAAAABHNyAA5qYXZhLmF3dC5Db2xvcgGlF4MQjzN1AgAFRgAGZmFscGhhSQAFdmFsdWVMAAJj" +
+        "c3QAG0xqYXZhL2F3dC9jb2xvci9Db2xvclNwYWNlO1sACWZyZ2J2YWx1ZXEAfgAPWwAGZnZhbHVlcQB+AA94cAAAAAD//wAAcHBw" +
+        "dXIAAltJTbpgJnbqsqUCAAB4cAAAAAIAAAABAAAABXVxAH4AMwAAAAIAAAABAAAACXNyABxjb3NjMjAyLmFuZGllLmRyYXcuRHJh" +
+        "d1NoYXBlS5VQFl2ciyACAAlJAApzdHJva2VTaXplSQACeDFJAAJ4MkkAAnkxSQACeTJMAAhmaWxsVHlwZXEAfgAjTAAHcHJpbWFy" +
+        "eXEAfgAtTAAJc2Vjb25kYXJ5cQB+AC1MAAlzaGFwZVR5cGVxAH4AI3hwAAAAAgAAAAMAAAAUAAAAAwAAAAx0AA9GaWxsX2FuZF9i" +
+        "b3JkZXJzcQB+ADAAAAAA/wAA/3BwcHNxAH4AMAAAAAD/AP8AcHBwdAAET3ZhbHBwcHBwcHg=";
+
+    private static final String[] BASELINE_CLASSES = {
+        "ConvertToGrey", "BrightnessContrastAdjustment", "GaussianBlurFilter", "SharpenFilter", "EmbossFilter", "SobelFilter",
+        "MeanFilter", "MedianFilter", "FlipImage", "RotateImage", "ResizeImage", "CropImage", "DrawBrush", "DrawShape"
+    };
+
+    @SuppressWarnings("unchecked")
+    private static Stack<ImageOperation> read(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Stack<ImageOperation>) in.readObject();
+        }
+    }
+
+    @Test
+    void baselineTest() throws Exception {
+        Stack<ImageOperation> ops = read(Base64.getDecoder().decode(BASELINE_OPS));
+        Assertions.assertEquals(BASELINE_CLASSES.length, ops.size(), "Every operation should be read back.");
+        for (int i = 0; i < BASELINE_CLASSES.length; i++) {
+            Assertions.assertEquals(BASELINE_CLASSES[i], ops.get(i).getClass().getSimpleName(), "The operations should be read back in order.");
+        }
+
+        // Writing the operations out again and reading them back should give equal operations
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ops);
+        }
+        Stack<ImageOperation> again = read(bytes.toByteArray());
+        Assertions.assertEquals(ops, again, "Operations should be equal after being saved and opened again.");
+    }
+}
@@ -0,0 +1,42 @@
+package test.cosc202.andie;
+
+import cosc202.andie.ImageOperation;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Makes ANDIE's operations for tests. Operations are only made by the menus in ANDIE, so their constructors are not public.
+ */
+final class Operations {
+
+    private Operations() {}
+
+    private static Class<?> boxed(Class<?> type) {
+        if (type == int.class) return Integer.class;
+        if (type == double.class) return Double.class;
+        if (type == boolean.class) return Boolean.class;
+        return type;
+    }
+
+    /**
+     * Make an operation with the constructor that takes the given arguments.
+     */
+    static ImageOperation make(Class<? extends ImageOperation> type, Object... args) {
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            Class<?>[] params = constructor.getParameterTypes();
+            if (params.length != args.length) continue;
+            boolean matches = true;
+            for (int i = 0; i < params.length; i++) {
+                if (args[i] != null && !boxed(params[i]).isInstance(args[i])) matches = false;
+            }
+            if (!matches) continue;
+            try {
+                constructor.setAccessible(true);
+                return (ImageOperation) constructor.newInstance(args);
+            } catch (ReflectiveOperationException ex) {
+                throw new AssertionError("Could not make a " + type.getSimpleName(), ex);
+            }
+        }
+        throw new AssertionError("No constructor of " + type.getSimpleName() + " takes " + args.length + " arguments");
+    }
+}
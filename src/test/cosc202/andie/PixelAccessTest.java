@@ -0,0 +1,57 @@
+package test.cosc202.andie;
+
+import cosc202.andie.PixelAccess;
+
+import java.awt.image.*;
+
+import org.junit.jupiter.api.*;
+
+public class PixelAccessTest {
+
+    private static BufferedImage gradient(int type) {
+        BufferedImage img = new BufferedImage(20, 10, type);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 20; x++) img.setRGB(x, y, 0xFF000000 | (x * 12) << 16 | (y * 25) << 8 | (x + y) * 8);
+        }
+        return img;
+    }
+
+    @Test
+    void normalizeTest() {
+        BufferedImage opaque = PixelAccess.normalize(gradient(BufferedImage.TYPE_3BYTE_BGR));
+        BufferedImage alpha = PixelAccess.normalize(gradient(BufferedImage.TYPE_4BYTE_ABGR));
+        Assertions.assertEquals(BufferedImage.TYPE_INT_RGB, opaque.getType());
+        Assertions.assertEquals(BufferedImage.TYPE_INT_ARGB, alpha.getType());
+        Assertions.assertTrue(PixelAccess.isDirect(opaque));
+
+        BufferedImage direct = gradient(BufferedImage.TYPE_INT_ARGB);
+        Assertions.assertSame(direct, PixelAccess.normalize(direct));
+    }
+
+    @Test
+    void pixelsTest() {
+        BufferedImage direct = gradient(BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = PixelAccess.getPixels(direct);
+        pixels[21] = 0x80123456;
+        Assertions.assertEquals(0x80123456, direct.getRGB(1, 1));
+
+        // Images that are not stored as packed ints get a copy, which is written back by setPixels
+        BufferedImage other = gradient(BufferedImage.TYPE_4BYTE_ABGR);
+        pixels = PixelAccess.getPixels(other);
+        pixels[21] = 0x80123456;
+        Assertions.assertNotEquals(0x80123456, other.getRGB(1, 1));
+        PixelAccess.setPixels(other, pixels);
+        Assertions.assertEquals(0x80123456, other.getRGB(1, 1));
+    }
+
+    @Test
+    void toColorModelTest() {
+        BufferedImage grey = gradient(BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage normalized = PixelAccess.normalize(grey);
+        Assertions.assertEquals(grey.getColorModel(), PixelAccess.toColorModel(normalized, grey.getColorModel()).getColorModel());
+
+        // Once there is colour in the image, it cannot be stored in greyscale
+        normalized.setRGB(0, 0, 0xFFFF0000);
+        Assertions.assertSame(normalized, PixelAccess.toColorModel(normalized, grey.getColorModel()));
+    }
+}
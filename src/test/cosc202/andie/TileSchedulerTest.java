@@ -0,0 +1,69 @@
+package test.cosc202.andie;
+
+import cosc202.andie.OperationProgress;
+import cosc202.andie.TileScheduler;
+
+import java.awt.Rectangle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.*;
+
+public class TileSchedulerTest {
+
+    @Test
+    void coversRegionOnceTest() {
+        int width = 1031, height = 517;
+        Rectangle region = new Rectangle(7, 3, 1000, 500);
+        AtomicIntegerArray visits = new AtomicIntegerArray(width * height);
+        TileScheduler.run(region, 2, tile -> {
+            for (int y = tile.y(); y < tile.endY(); y++) {
+                for (int x = tile.x(); x < tile.endX(); x++) visits.incrementAndGet(y * width + x);
+            }
+        });
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                Assertions.assertEquals(region.contains(x, y) ? 1 : 0, visits.get(y * width + x), "Pixel (" + x + ", " + y + ")");
+            }
+        }
+    }
+
+    @Test
+    void emptyRegionTest() {
+        TileScheduler.run(5, 5, 5, 100, 0, tile -> Assertions.fail("No tiles should be run"));
+    }
+
+    @Test
+    void exceptionTest() {
+        Assertions.assertThrows(IllegalStateException.class, () -> TileScheduler.run(0, 0, 2000, 2000, 0, tile -> {
+            if (tile.x() == 0 && tile.y() == 0) throw new IllegalStateException();
+        }));
+    }
+
+    @Test
+    void progressTest() throws Exception {
+        double[] last = {0};
+        OperationProgress progress = new OperationProgress(fraction -> last[0] = fraction);
+        progress.run(() -> {
+            TileScheduler.run(0, 0, 1000, 1000, 0, tile -> {});
+            return null;
+        });
+        Assertions.assertEquals(1.0, progress.getFraction());
+        Assertions.assertEquals(1.0, last[0]);
+    }
+
+    @Test
+    void cancelTest() {
+        AtomicInteger tiles = new AtomicInteger();
+        OperationProgress progress = new OperationProgress(null);
+        Assertions.assertThrows(CancellationException.class, () -> progress.run(() -> {
+            TileScheduler.run(0, 0, 2000, 2000, 0, tile -> {
+                tiles.incrementAndGet();
+                progress.cancel();
+            });
+            return null;
+        }));
+        Assertions.assertTrue(tiles.get() < 2000 * 2000 / (256 * 256), "Tiles should stop being started once cancelled");
+    }
+}
@@ -0,0 +1,82 @@
+package test.cosc202.andie;
+
+import cosc202.andie.ImageOperation;
+import cosc202.andie.TiledImage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.*;
+
+public class TiledImageTest {
+
+    private static BufferedImage randomImage(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) image.setRGB(x, y, random.nextInt());
+        }
+        return image;
+    }
+
+    @Test
+    void readTest() {
+        BufferedImage image = randomImage(1100, 700, 1);
+        TiledImage tiled = TiledImage.wrap(image);
+        Assertions.assertEquals(3, tiled.getNumXTiles());
+        Assertions.assertEquals(2, tiled.getNumYTiles());
+
+        BufferedImage region = tiled.read(new Rectangle(500, 300, 600, 400));
+        for (int y = 0; y < region.getHeight(); y++) {
+            for (int x = 0; x < region.getWidth(); x++) {
+                Assertions.assertEquals(image.getRGB(500 + x, 300 + y), region.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void overviewTest() throws Exception {
+        BufferedImage image = randomImage(1100, 700, 2);
+        BufferedImage overview = TiledImage.wrap(image).getOverview(3);
+        Assertions.assertEquals(367, overview.getWidth());
+        Assertions.assertEquals(234, overview.getHeight());
+        for (int y = 0; y < overview.getHeight(); y++) {
+            for (int x = 0; x < overview.getWidth(); x++) {
+                Assertions.assertEquals(image.getRGB(3 * x, 3 * y), overview.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void applyTest() throws Exception {
+        BufferedImage image = randomImage(1100, 700, 3);
+        // Each pixel becomes the inverted colour of the pixel to its left, which needs a halo of one pixel
+        ImageOperation shift = input -> {
+            BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < input.getHeight(); y++) {
+                for (int x = 0; x < input.getWidth(); x++) output.setRGB(x, y, input.getRGB(Math.max(0, x - 1), y) ^ 0x00FFFFFF);
+            }
+            return output;
+        };
+        BufferedImage expected = shift.apply(image);
+        BufferedImage result = TiledImage.wrap(image).apply(shift, 1).read(new Rectangle(0, 0, 1100, 700));
+        for (int y = 0; y < result.getHeight(); y++) {
+            for (int x = 0; x < result.getWidth(); x++) {
+                Assertions.assertEquals(expected.getRGB(x, y), result.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void setTileTest() {
+        BufferedImage image = randomImage(600, 600, 4);
+        TiledImage tiled = TiledImage.wrap(image);
+        BufferedImage tile = randomImage(TiledImage.TILE_SIZE, TiledImage.TILE_SIZE, 5);
+        tiled.setTileImage(1, 1, tile);
+        BufferedImage region = tiled.read(new Rectangle(500, 500, 100, 100));
+        Assertions.assertEquals(image.getRGB(500, 500), region.getRGB(0, 0));
+        Assertions.assertEquals(tile.getRGB(0, 0), region.getRGB(12, 12));
+        Assertions.assertEquals(tile.getRGB(87, 87), region.getRGB(99, 99));
+    }
+}